@@ -5,6 +5,7 @@ import cli.clt.anchor.*;
 import cli.clt.apa.*;
 import cli.clt.bedpe.*;
 import cli.clt.enhance.Enhance;
+import cli.clt.enhance.EnhanceUnpack;
 import cli.clt.enhance.Seer;
 import cli.clt.flat.file.GetCommonVsVariableDiffsFromFlatFile;
 import cli.clt.flat.file.GetDiffsFromFlatFile;
@@ -40,7 +41,8 @@ public class Main {
                     AnchorAPA.usage, Expand.usage, Clique.usage, AnchorFix.usage,
                     FilterBedpeByAnchorAPA.usage, IntegrateLoopListsAndUnWrap.usage,
                     IntersectBedWithBedgraph.usage, BedGraphCorr.usage, APA1D.usage,
-                    AnchorStrength.usage, Grind.usage, SubtractByAnchorOverlap.usage,
+                    AnchorStrength.usage, Grind.usage, GrindVerify.usage, EnhanceUnpack.usage,
+                    SubtractByAnchorOverlap.usage,
                     RetainOverlap.usage, LoopDiffFlatFileMaker.usage, Slash.usage, SlashLocalize.usage,
                     MergeBedFiles.usage, GetCommonVsVariableDiffsFromFlatFile.usage
             }) {
@@ -94,9 +96,11 @@ public class Main {
             new MergeBedFiles(args, parser, command);
         } else if (command.startsWith("intersect-bed-bedgraph")) {
             new IntersectBedWithBedgraph(args, parser, command);
-        } else if (command.equals("enhance") || command.equals("amplifi") || command.equals("amplify")) {
+        } else if (command.startsWith("enhance-unpack")) {
+            EnhanceUnpack.run(args);
+        } else if (command.startsWith("enhance") || command.startsWith("amplifi") || command.startsWith("amplify")) {
             Enhance.run(args, parser);
-        } else if (command.equals("pinpoint")) {
+        } else if (command.startsWith("pinpoint")) {
             Pinpoint.run(args, parser);
         } else if (command.startsWith("filter-by-anchor-apa")) {
             FilterBedpeByAnchorAPA.run(args, parser);
@@ -133,6 +137,8 @@ public class Main {
         } else if (command.startsWith("anchor-apa")) {
             AnchorAPA apa = new AnchorAPA(args, parser);
             apa.run();
+        } else if (command.startsWith("grind-verify")) {
+            GrindVerify.run(args);
         } else if (command.startsWith("grind")) {
             Grind grind = new Grind(args, parser);
             grind.run();
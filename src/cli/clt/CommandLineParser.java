@@ -61,6 +61,10 @@ public class CommandLineParser extends CmdLineParser {
     private final Option numThreadsOption = addIntegerOption("threads");
     private final Option roundingOption = addIntegerOption("round");
     private final Option chromosomeOption = addStringOption('c', "chrom");
+    private final Option encodingOption = addStringOption("encoding");
+    private final Option chunkSizeOption = addIntegerOption("chunk-size");
+    private final Option bootstrapOption = addIntegerOption("bootstrap");
+    private final Option strataOption = addStringOption("strata");
 
     private boolean optionToBoolean(Option option) {
         Object opt = getOptionValue(option);
@@ -195,4 +199,26 @@ public class CommandLineParser extends CmdLineParser {
     public String getChromosomeOption() {
         return optionToString(chromosomeOption);
     }
-}
\ No newline at end of file
+
+    public String getEncodingOption() {
+        return optionToString(encodingOption);
+    }
+
+    public int getChunkSizeOption(int defaultValue) {
+        return optionToInteger(chunkSizeOption, defaultValue);
+    }
+
+    public int getBootstrapOption(int defaultValue) {
+        return optionToInteger(bootstrapOption, defaultValue);
+    }
+
+    public int[] getStrataOption() {
+        String[] values = optionToStringArray(strataOption);
+        if (values == null) return null;
+        int[] edges = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            edges[i] = Integer.parseInt(values[i].trim());
+        }
+        return edges;
+    }
+}
@@ -27,12 +27,13 @@ package cli.clt.apa;
 import cli.clt.CommandLineParser;
 import cli.utils.apa.APADataExporter;
 import cli.utils.apa.APAUtils;
+import cli.utils.apa.BatchedWindowExtractor;
+import cli.utils.apa.BootstrapAPA;
 import cli.utils.flags.RegionConfiguration;
 import cli.utils.general.HiCUtils;
-import cli.utils.general.Utils;
+import cli.utils.general.LoopListCache;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
@@ -51,7 +52,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class APA {
     public static String usage = "apa[2] [--ag-norm] [-k NORM] [--window val]" +
-            " [--min-dist val] [--max-dist val] [--include-inter] [-r resolution]" +
+            " [--min-dist val] [--max-dist val] [--include-inter] [-r resolution] [-c chr1,chr2,...]" +
+            " [--bootstrap replicates] [--seed val] [--strata d0,d1,...]" +
             " <input.hic> <loops.bedpe> <outfolder>";
     private final String loopListPath;
     private final File outputDirectory;
@@ -83,6 +85,12 @@ public class APA {
     private final Feature2DList loopList;
     private final int numTotalLoops;
     private int numThreads = Runtime.getRuntime().availableProcessors();
+    private final BootstrapAPA bootstrap;
+    private final int[] strataEdges;
+    private float[][][] globalStrataMatrices;
+    private double[][] globalStrataRowSums;
+    private double[][] globalStrataColSums;
+    private int[] globalStrataCounts;
 
     public APA(String[] args, CommandLineParser parser, boolean loadAllBlockIndices) {
         if (args.length != 4) {
@@ -116,11 +124,37 @@ public class APA {
             System.out.println("Will apply aggregate normalization.");
         }
         window = parser.getWindowSizeOption(10);
-        minPeakDist = parser.getMinDistVal(2 * window);
-        maxPeakDist = parser.getMaxDistVal(Integer.MAX_VALUE);
+        strataEdges = loadStrataEdges(parser);
+        if (strataEdges == null) {
+            minPeakDist = parser.getMinDistVal(2 * window);
+            maxPeakDist = parser.getMaxDistVal(Integer.MAX_VALUE);
+        } else {
+            // loops are kept for the whole strata range; an explicit --min-dist/--max-dist can only narrow it
+            int lastEdge = strataEdges[strataEdges.length - 1];
+            minPeakDist = Math.max(strataEdges[0], parser.getMinDistVal(0));
+            maxPeakDist = Math.min(lastEdge, parser.getMaxDistVal(Integer.MAX_VALUE));
+            if (minPeakDist > strataEdges[0] || maxPeakDist < lastEdge) {
+                System.err.println("Warning: --min-dist/--max-dist (" + minPeakDist + "-" + maxPeakDist +
+                        ") cut into the strata (" + strataEdges[0] + "-" + lastEdge +
+                        "); strata outside that range will be empty or partial");
+            }
+        }
         includeInterChr = parser.getIncludeInterChromosomal();
 
         matrixWidthL = 2 * window + 1;
+        int numReplicates = parser.getBootstrapOption(0);
+        bootstrap = numReplicates > 0 ? new BootstrapAPA(numReplicates, matrixWidthL, parser.getSeedOption(0)) : null;
+        if (bootstrap != null && strataEdges != null) {
+            System.err.println("--bootstrap and --strata cannot be used together");
+            System.exit(8);
+        }
+        if (strataEdges != null) {
+            int numStrata = strataEdges.length - 1;
+            globalStrataMatrices = new float[numStrata][matrixWidthL][matrixWidthL];
+            globalStrataRowSums = new double[numStrata][matrixWidthL];
+            globalStrataColSums = new double[numStrata][matrixWidthL];
+            globalStrataCounts = new int[numStrata];
+        }
         globalAPAMatrix = new float[matrixWidthL][matrixWidthL];
         globalRowSum = new double[matrixWidthL];
         globalColSum = new double[matrixWidthL];
@@ -128,7 +162,8 @@ public class APA {
         zoom = new HiCZoom(resolution);
         handler = ds.getChromosomeHandler();
 
-        loopList = loadLoopsAPAStyle(gwPeakNumbers, handler);
+        loopList = loadLoopsAPAStyle(gwPeakNumbers, handler,
+                getKeysForChromosomes(handler, parser.getChromosomeOption(), includeInterChr));
         numTotalLoops = loopList.getNumTotalFeatures();
         if (numTotalLoops < 1) {
             System.err.println("Loop list is empty or incorrect path provided.");
@@ -136,6 +171,30 @@ public class APA {
         }
     }
 
+    /**
+     * Distance bin edges (in bins, like --min-dist/--max-dist), strictly increasing, or null if not set;
+     * when set, they replace the default loop distance filter
+     */
+    private static int[] loadStrataEdges(CommandLineParser parser) {
+        int[] edges = null;
+        try {
+            edges = parser.getStrataOption();
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid distance strata: " + e.getMessage());
+            System.exit(8);
+        }
+        if (edges == null) return null;
+        boolean valid = edges.length > 1;
+        for (int i = 1; i < edges.length; i++) {
+            valid &= edges[i] > edges[i - 1];
+        }
+        if (!valid) {
+            System.err.println("Distance strata need at least two strictly increasing edges");
+            System.exit(8);
+        }
+        return edges;
+    }
+
     private boolean isAgNorm(String norm) {
         String normLower = norm.toLowerCase();
         return normLower.contains("ag") && normLower.contains("norm");
@@ -153,11 +212,29 @@ public class APA {
         int pairCounter = HiCUtils.populateChromosomePairs(chromosomePairs,
                 handler.getChromosomeArrayWithoutAllByAll(), includeInterChr);
 
+        float[][] bootstrapSlabs = new float[numThreads][];
+        double[][] bootstrapRowSums = new double[numThreads][];
+        double[][] bootstrapColSums = new double[numThreads][];
+        AtomicInteger threadCounter = new AtomicInteger(0);
+
         ParallelizationTools.launchParallelizedCode(numThreads, () -> {
 
             float[][] output = new float[matrixWidthL][matrixWidthL];
             double[] rowSum = new double[matrixWidthL];
             double[] colSum = new double[matrixWidthL];
+            int threadIndex = threadCounter.getAndIncrement();
+            int numStrata = strataEdges == null ? 0 : strataEdges.length - 1;
+            float[][][] strataOutputs = new float[numStrata][matrixWidthL][matrixWidthL];
+            double[][] strataRowSums = new double[numStrata][matrixWidthL];
+            double[][] strataColSums = new double[numStrata][matrixWidthL];
+            int[] strataCounts = new int[numStrata];
+            if (bootstrap != null) {
+                bootstrapSlabs[threadIndex] = bootstrap.newMatrixSlab();
+                if (useAgNorm) {
+                    bootstrapRowSums[threadIndex] = bootstrap.newSumSlab();
+                    bootstrapColSums[threadIndex] = bootstrap.newSumSlab();
+                }
+            }
 
             int threadPair = currChromPair.getAndIncrement();
             while (threadPair < pairCounter) {
@@ -172,9 +249,27 @@ public class APA {
                         MatrixZoomData zd = matrix.getZoomData(zoom);
                         if (zd != null) {
                             try {
-                                processLoopsForRegion(zd, loops, output, currNumLoops, numTotalLoops);
-                                if (useAgNorm) {
-                                    doAggregateNormalization(chr1, chr2, zoom, vcNorm, loops, rowSum, colSum);
+                                if (bootstrap != null) {
+                                    int[] weights = bootstrap.getWeights(loops);
+                                    processLoopsWithBootstrap(zd, loops, weights, output,
+                                            bootstrapSlabs[threadIndex]);
+                                    if (useAgNorm) {
+                                        doAggregateNormalization(chr1, chr2, zoom, vcNorm, loops, rowSum, colSum);
+                                        doBootstrapAggregateNormalization(chr1, chr2, loops, weights,
+                                                bootstrapRowSums[threadIndex], bootstrapColSums[threadIndex]);
+                                    }
+                                } else if (strataEdges != null) {
+                                    int[] strata = getStrata(loops, strataCounts);
+                                    processLoopsByStratum(zd, loops, strata, strataOutputs);
+                                    if (useAgNorm) {
+                                        doStratifiedAggregateNormalization(chr1, chr2, loops, strata,
+                                                strataRowSums, strataColSums);
+                                    }
+                                } else {
+                                    processLoopsForRegion(zd, loops, output, currNumLoops, numTotalLoops);
+                                    if (useAgNorm) {
+                                        doAggregateNormalization(chr1, chr2, zoom, vcNorm, loops, rowSum, colSum);
+                                    }
                                 }
                                 System.out.println(((int) Math.floor((100.0 * currNumLoops.get()) / numTotalLoops)) + "% ");
                             } catch (Exception e) {
@@ -193,12 +288,33 @@ public class APA {
                     APAUtils.inPlaceSumVectors(globalRowSum, rowSum);
                     APAUtils.inPlaceSumVectors(globalColSum, colSum);
                 }
+                for (int s = 0; s < numStrata; s++) {
+                    APAUtils.inPlaceSumMatrices(globalStrataMatrices[s], strataOutputs[s]);
+                    APAUtils.inPlaceSumVectors(globalStrataRowSums[s], strataRowSums[s]);
+                    APAUtils.inPlaceSumVectors(globalStrataColSums[s], strataColSums[s]);
+                    globalStrataCounts[s] += strataCounts[s];
+                }
             }
         });
 
         System.out.println("Exporting APA results...");
-        APADataExporter.exportGenomeWideData(gwPeakNumbers, outputDirectory, useAgNorm, globalAPAMatrix,
-                globalRowSum, globalColSum);
+        if (strataEdges != null) {
+            System.out.println("\nFiltered = " + gwPeakNumbers[0].get());
+            APADataExporter.exportStratifiedData(outputDirectory, strataEdges, globalStrataCounts, useAgNorm,
+                    globalStrataMatrices, globalStrataRowSums, globalStrataColSums);
+        } else {
+            APADataExporter.exportGenomeWideData(gwPeakNumbers, outputDirectory, useAgNorm, globalAPAMatrix,
+                    globalRowSum, globalColSum);
+        }
+        if (bootstrap != null) {
+            System.out.println("Exporting bootstrap results...");
+            float[] replicates = APAUtils.treeReduce(bootstrapSlabs);
+            double[] replicateRowSums = useAgNorm ? APAUtils.treeReduce(bootstrapRowSums) : null;
+            double[] replicateColSums = useAgNorm ? APAUtils.treeReduce(bootstrapColSums) : null;
+            if (replicates != null) {
+                bootstrap.export(outputDirectory, replicates, useAgNorm, replicateRowSums, replicateColSums);
+            }
+        }
         System.out.println("APA complete");
     }
 
@@ -217,19 +333,166 @@ public class APA {
         }
     }
 
-    protected void processLoopsForRegion(MatrixZoomData zd, List<Feature2D> loops, float[][] output, AtomicInteger currNumLoops, int numTotalLoops) {
-        for (Feature2D loop : loops) {
+    private void doBootstrapAggregateNormalization(Chromosome chr1, Chromosome chr2, List<Feature2D> loops,
+                                                   int[] weights, double[] rowSums, double[] colSums) {
+        double[] vector1 = ds.getNormalizationVector(chr1.getIndex(), zoom, vcNorm).getData().getValues().get(0);
+        double[] vector2 = vector1;
+        if (chr1.getIndex() != chr2.getIndex()) {
+            vector2 = ds.getNormalizationVector(chr2.getIndex(), zoom, vcNorm).getData().getValues().get(0);
+        }
+
+        for (int i = 0; i < loops.size(); i++) {
+            Feature2D loop = loops.get(i);
             int binXStart = (int) ((loop.getMidPt1() / resolution) - window);
             int binYStart = (int) ((loop.getMidPt2() / resolution) - window);
-            Utils.addLocalBoundedRegion(output, zd, binXStart, binYStart, matrixWidthL, norm);
-            if (currNumLoops.incrementAndGet() % 100 == 0) {
-                System.out.print(((int) Math.floor((100.0 * currNumLoops.get()) / numTotalLoops)) + "% ");
+            bootstrap.addLocalSums(rowSums, weights, i, vector1, binXStart);
+            bootstrap.addLocalSums(colSums, weights, i, vector2, binYStart);
+        }
+    }
+
+    /**
+     * @return the distance stratum of each loop (-1 if outside all strata); counts are added per stratum
+     */
+    private int[] getStrata(List<Feature2D> loops, int[] strataCounts) {
+        int[] strata = new int[loops.size()];
+        for (int i = 0; i < strata.length; i++) {
+            strata[i] = APAUtils.getDistanceStratum(APAUtils.getDistanceInBins(loops.get(i), resolution), strataEdges);
+            if (strata[i] >= 0) {
+                strataCounts[strata[i]]++;
+            }
+        }
+        return strata;
+    }
+
+    private void doStratifiedAggregateNormalization(Chromosome chr1, Chromosome chr2, List<Feature2D> loops,
+                                                    int[] strata, double[][] rowSums, double[][] colSums) {
+        double[] vector1 = ds.getNormalizationVector(chr1.getIndex(), zoom, vcNorm).getData().getValues().get(0);
+        double[] vector2 = vector1;
+        if (chr1.getIndex() != chr2.getIndex()) {
+            vector2 = ds.getNormalizationVector(chr2.getIndex(), zoom, vcNorm).getData().getValues().get(0);
+        }
+
+        for (int i = 0; i < loops.size(); i++) {
+            if (strata[i] < 0) continue;
+            Feature2D loop = loops.get(i);
+            int binXStart = (int) ((loop.getMidPt1() / resolution) - window);
+            int binYStart = (int) ((loop.getMidPt2() / resolution) - window);
+            APAUtils.addLocalRowSums(rowSums[strata[i]], vector1, binXStart);
+            APAUtils.addLocalRowSums(colSums[strata[i]], vector2, binYStart);
+        }
+    }
+
+    /**
+     * Same extraction as processLoopsForRegion, but each window goes to the matrix of its distance stratum;
+     * loops outside all strata are not extracted
+     */
+    private void processLoopsByStratum(MatrixZoomData zd, List<Feature2D> loops, int[] strata,
+                                       float[][][] outputs) {
+        int numInStrata = 0;
+        for (int stratum : strata) {
+            if (stratum >= 0) numInStrata++;
+        }
+        int[] binXStarts = new int[numInStrata];
+        int[] binYStarts = new int[numInStrata];
+        int[] windowStrata = new int[numInStrata];
+        int k = 0;
+        for (int i = 0; i < loops.size(); i++) {
+            if (strata[i] < 0) continue;
+            Feature2D loop = loops.get(i);
+            binXStarts[k] = (int) ((loop.getMidPt1() / resolution) - window);
+            binYStarts[k] = (int) ((loop.getMidPt2() / resolution) - window);
+            windowStrata[k] = strata[i];
+            k++;
+        }
+
+        if (numInStrata > 0) {
+            extractWindows(zd, binXStarts, binYStarts, (index, relativeX, relativeY, counts) ->
+                    outputs[windowStrata[index]][relativeX][relativeY] += counts);
+        }
+
+        currNumLoops.addAndGet(loops.size());
+        System.out.print(((int) Math.floor((100.0 * currNumLoops.get()) / numTotalLoops)) + "% ");
+    }
+
+    /**
+     * Same extraction as processLoopsForRegion, but every window is also added to its bootstrap replicates
+     */
+    private void processLoopsWithBootstrap(MatrixZoomData zd, List<Feature2D> loops, int[] weights,
+                                           float[][] output, float[] slab) {
+        int[] binXStarts = new int[loops.size()];
+        int[] binYStarts = new int[loops.size()];
+        for (int i = 0; i < loops.size(); i++) {
+            Feature2D loop = loops.get(i);
+            binXStarts[i] = (int) ((loop.getMidPt1() / resolution) - window);
+            binYStarts[i] = (int) ((loop.getMidPt2() / resolution) - window);
+        }
+
+        extractWindows(zd, binXStarts, binYStarts, (index, relativeX, relativeY, counts) -> {
+            output[relativeX][relativeY] += counts;
+            bootstrap.add(slab, weights, index, relativeX, relativeY, counts);
+        });
+
+        currNumLoops.addAndGet(loops.size());
+        System.out.print(((int) Math.floor((100.0 * currNumLoops.get()) / numTotalLoops)) + "% ");
+    }
+
+    /**
+     * Hands every contact to the consumer once per window (indexed as in the start arrays) containing it;
+     * used by the bootstrap and strata modes, so subclasses with their own extraction override this too
+     */
+    protected void extractWindows(MatrixZoomData zd, int[] binXStarts, int[] binYStarts,
+                                  BatchedWindowExtractor.WindowConsumer consumer) {
+        BatchedWindowExtractor extractor = new BatchedWindowExtractor(binXStarts, binYStarts, matrixWidthL);
+        extractor.extract(zd, norm, consumer);
+        extractor.clear();
+    }
+
+    protected void processLoopsForRegion(MatrixZoomData zd, List<Feature2D> loops, float[][] output, AtomicInteger currNumLoops, int numTotalLoops) {
+        int[] binXStarts = new int[loops.size()];
+        int[] binYStarts = new int[loops.size()];
+        for (int i = 0; i < loops.size(); i++) {
+            Feature2D loop = loops.get(i);
+            binXStarts[i] = (int) ((loop.getMidPt1() / resolution) - window);
+            binYStarts[i] = (int) ((loop.getMidPt2() / resolution) - window);
+        }
+
+        BatchedWindowExtractor extractor = new BatchedWindowExtractor(binXStarts, binYStarts, matrixWidthL);
+        extractor.addAllToMatrix(zd, norm, output);
+        extractor.clear();
+
+        currNumLoops.addAndGet(loops.size());
+        System.out.print(((int) Math.floor((100.0 * currNumLoops.get()) / numTotalLoops)) + "% ");
+    }
+
+    /**
+     * Only the sections for these chromosomes are read from the loop list (null means all)
+     */
+    private static List<String> getKeysForChromosomes(ChromosomeHandler handler, String chromOption,
+                                                      boolean includeInterChr) {
+        if (chromOption == null || chromOption.length() < 1) return null;
+        List<Chromosome> chromosomes = new ArrayList<>();
+        for (String name : chromOption.split(",")) {
+            Chromosome chrom = handler.getChromosomeFromName(name);
+            if (chrom == null) {
+                System.err.println("Chromosome " + name + " not found");
+            } else {
+                chromosomes.add(chrom);
+            }
+        }
+        List<String> keys = new ArrayList<>();
+        for (Chromosome chr1 : chromosomes) {
+            for (Chromosome chr2 : chromosomes) {
+                if (chr1.getIndex() == chr2.getIndex() || (includeInterChr && chr1.getIndex() < chr2.getIndex())) {
+                    keys.add(Feature2DList.getKey(chr1, chr2));
+                }
             }
         }
+        return keys;
     }
 
-    private Feature2DList loadLoopsAPAStyle(AtomicInteger[] gwPeakNumbers, ChromosomeHandler handler) {
-        return Feature2DParser.loadFeatures(loopListPath, handler, false,
+    private Feature2DList loadLoopsAPAStyle(AtomicInteger[] gwPeakNumbers, ChromosomeHandler handler,
+                                            List<String> keys) {
+        return LoopListCache.loadFeatures(loopListPath, handler, false,
                 (chr, features) -> {
                     List<Feature2D> uniqueFeatures = new ArrayList<>(new HashSet<>(features));
                     List<Feature2D> filteredUniqueFeatures = APAUtils.filterFeaturesBySize(uniqueFeatures,
@@ -238,6 +501,6 @@ public class APA {
                     gwPeakNumbers[1].addAndGet(uniqueFeatures.size());
                     gwPeakNumbers[2].addAndGet(features.size());
                     return filteredUniqueFeatures;
-                }, false);
+                }, false, keys);
     }
 }
\ No newline at end of file
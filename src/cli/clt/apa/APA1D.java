@@ -29,12 +29,12 @@ import cli.utils.FeatureStats;
 import cli.utils.apa.APAUtils;
 import cli.utils.flags.RegionConfiguration;
 import cli.utils.general.HiCUtils;
+import cli.utils.general.LoopListCache;
 import cli.utils.general.QuickGrouping;
 import cli.utils.general.Utils;
 import cli.utils.seer.SeerUtils;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
@@ -214,7 +214,7 @@ public class APA1D {
     }
 
     private Feature2DList loadLoopsAPAStyle(ChromosomeHandler handler) {
-        return Feature2DParser.loadFeatures(loopListPath, handler, false,
+        return LoopListCache.loadFeatures(loopListPath, handler, false,
                 (chr, features) -> {
                     List<Feature2D> uniqueFeatures = new ArrayList<>(new HashSet<>(features));
                     return APAUtils.filterFeaturesBySize(uniqueFeatures,
@@ -1,13 +1,15 @@
 package cli.clt.apa;
 
 import cli.clt.CommandLineParser;
-import cli.utils.data.BoundsInfo;
+import cli.utils.apa.BatchedWindowExtractor;
+import cli.utils.data.WindowStabbingIndex;
 import javastraw.expected.ExpectedUtils;
 import javastraw.feature2D.Feature2D;
 import javastraw.reader.block.ContactRecord;
 import javastraw.reader.mzd.MatrixZoomData;
 
-import java.util.*;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class APA2 extends APA {
@@ -20,71 +22,51 @@ public class APA2 extends APA {
     protected void processLoopsForRegion(MatrixZoomData zd, List<Feature2D> loops,
                                          float[][] output, AtomicInteger currNumLoops,
                                          int numTotalLoops) {
-        Map<Integer, List<BoundsInfo>> loopListAsMap = convertToMap(loops);
-        Set<Integer> allColumns = getColumns(loops);
+        WindowStabbingIndex index = convertToIndex(loops);
         int counter = 0;
 
         Iterator<ContactRecord> it = ExpectedUtils.getIterator(zd, norm);
         while (it.hasNext()) {
             ContactRecord cr = it.next();
             if (cr.getCounts() > 0) {
-                if (loopListAsMap.containsKey(cr.getBinX())) {
-                    if (allColumns.contains(cr.getBinY())) {
-                        populateMatrixIfApplicable(output, cr, loopListAsMap.get(cr.getBinX()));
-                        if (counter++ % 1000 == 0) {
-                            System.out.print(".");
-                        }
+                if (index.addToWindows(cr.getBinX(), cr.getBinY(), cr.getCounts(), output)) {
+                    if (counter++ % 1000 == 0) {
+                        System.out.print(".");
                     }
                 }
             }
         }
 
         currNumLoops.addAndGet(loops.size());
-
-        loopListAsMap.clear();
-        allColumns.clear();
-        loopListAsMap = null;
-        allColumns = null;
     }
 
-    private void populateMatrixIfApplicable(float[][] matrix, ContactRecord cr, List<BoundsInfo> allBounds) {
-        for (BoundsInfo bound : allBounds) {
-            if (bound.contains(cr.getBinY())) {
-                int relativeX = cr.getBinX() - bound.getBinXStart();
-                int relativeY = cr.getBinY() - bound.getBinYStart();
-                matrix[relativeX][relativeY] += cr.getCounts();
-            }
+    @Override
+    protected void extractWindows(MatrixZoomData zd, int[] binXStarts, int[] binYStarts,
+                                  BatchedWindowExtractor.WindowConsumer consumer) {
+        int[] labels = new int[binXStarts.length];
+        for (int k = 0; k < labels.length; k++) {
+            labels[k] = k;
         }
-    }
-
-    private Set<Integer> getColumns(List<Feature2D> loops) {
-        Set<Integer> columns = new HashSet<>();
-        for (Feature2D loop : loops) {
-            int binYStart = (int) ((loop.getMidPt2() / resolution) - window);
-            int binYEnd = binYStart + matrixWidthL;
+        WindowStabbingIndex index = new WindowStabbingIndex(binXStarts, binYStarts, labels,
+                binXStarts.length, matrixWidthL);
 
-            for (int c = binYStart; c < binYEnd; c++) {
-                columns.add(c);
+        Iterator<ContactRecord> it = ExpectedUtils.getIterator(zd, norm);
+        while (it.hasNext()) {
+            ContactRecord cr = it.next();
+            if (cr.getCounts() > 0) {
+                index.forEachWindow(cr.getBinX(), cr.getBinY(), cr.getCounts(), consumer);
             }
         }
-        return columns;
     }
 
-    private Map<Integer, List<BoundsInfo>> convertToMap(List<Feature2D> loops) {
-        Map<Integer, List<BoundsInfo>> loopListAsMap = new HashMap<>();
-        for (Feature2D loop : loops) {
-            int binXStart = (int) ((loop.getMidPt1() / resolution) - window);
-            int binYStart = (int) ((loop.getMidPt2() / resolution) - window);
-            int binXEnd = binXStart + matrixWidthL;
-            int binYEnd = binYStart + matrixWidthL;
-
-            for (int r = binXStart; r < binXEnd; r++) {
-                if (!loopListAsMap.containsKey(r)) {
-                    loopListAsMap.put(r, new LinkedList<>());
-                }
-                loopListAsMap.get(r).add(new BoundsInfo(binYStart, binYEnd, binXStart));
-            }
+    private WindowStabbingIndex convertToIndex(List<Feature2D> loops) {
+        int[] xStarts = new int[loops.size()];
+        int[] yStarts = new int[loops.size()];
+        for (int k = 0; k < loops.size(); k++) {
+            Feature2D loop = loops.get(k);
+            xStarts[k] = (int) ((loop.getMidPt1() / resolution) - window);
+            yStarts[k] = (int) ((loop.getMidPt2() / resolution) - window);
         }
-        return loopListAsMap;
+        return new WindowStabbingIndex(xStarts, yStarts, loops.size(), matrixWidthL);
     }
 }
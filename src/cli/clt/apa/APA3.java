@@ -28,14 +28,13 @@ import cli.clt.CommandLineParser;
 import cli.utils.apa.APADataExporter;
 import cli.utils.apa.APAUtils;
 import cli.utils.apa.DistanceBoundCalculator;
-import cli.utils.data.Bounds2DInfo;
 import cli.utils.flags.RegionConfiguration;
+import cli.utils.general.LoopListCache;
 import cli.utils.general.SimpleTranslocationFinder;
 import cli.utils.general.TranslocationSet;
 import javastraw.expected.ExpectedUtils;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
@@ -73,12 +72,7 @@ public class APA3 {
 
     private final String[] outputFilePaths;
 
-    private final List<float[][]> globalAPAMatrices;
-    private final List<double[]> globalRowSums;
-    private final List<double[]> globalColSums;
-
     private final NormalizationType vcNorm = NormalizationHandler.VC;
-    private final Object key = new Object();
     private final HiCZoom zoom;
     private final ChromosomeHandler handler;
     private final Feature2DList[] allLoopLists;
@@ -130,9 +124,6 @@ public class APA3 {
         useCustomBuiltNorms = parser.getBuildCustomVCNorms();
 
         matrixWidthL = 2 * window + 1;
-        globalAPAMatrices = initializeMatrices(numOutputs, matrixWidthL);
-        globalRowSums = initializeArrays(numOutputs, matrixWidthL);
-        globalColSums = initializeArrays(numOutputs, matrixWidthL);
 
         zoom = new HiCZoom(resolution);
         handler = ds.getChromosomeHandler();
@@ -140,22 +131,6 @@ public class APA3 {
         allLoopLists = loadLoopsAPAStyle(loopListPaths, handler);
     }
 
-    private List<double[]> initializeArrays(int numOutputs, int matrixWidthL) {
-        List<double[]> arrays = new ArrayList<>(numOutputs);
-        for (int i = 0; i < numOutputs; i++) {
-            arrays.add(new double[matrixWidthL]);
-        }
-        return arrays;
-    }
-
-    private List<float[][]> initializeMatrices(int numOutputs, int matrixWidthL) {
-        List<float[][]> matrices = new ArrayList<>(numOutputs);
-        for (int i = 0; i < numOutputs; i++) {
-            matrices.add(new float[matrixWidthL][matrixWidthL]);
-        }
-        return matrices;
-    }
-
     private boolean isAgNorm(String norm) {
         String normLower = norm.toLowerCase();
         return normLower.contains("ag") && normLower.contains("norm");
@@ -201,7 +176,7 @@ public class APA3 {
 
     private void doAggregateNormalization(Chromosome chr1, Chromosome chr2, HiCZoom zoom,
                                           NormalizationType vcNorm,
-                                          List<List<Feature2D>> cloops, List<double[]> rowSums, List<double[]> colSums) {
+                                          List<List<Feature2D>> cloops, double[] rowSums, double[] colSums) {
         double[] vector1 = ds.getNormalizationVector(chr1.getIndex(), zoom, vcNorm).getData().getValues().get(0);
         double[] vector2 = vector1;
         if (chr1.getIndex() != chr2.getIndex()) {
@@ -211,25 +186,28 @@ public class APA3 {
         doAggregateNormalization(cloops, rowSums, colSums, vector1, vector2);
     }
 
-    private void doAggregateNormalization(List<List<Feature2D>> cloops, List<double[]> rowSums, List<double[]> colSums,
+    /**
+     * rowSums and colSums hold one matrixWidthL block per loop list
+     */
+    private void doAggregateNormalization(List<List<Feature2D>> cloops, double[] rowSums, double[] colSums,
                                           double[] vector1, double[] vector2) {
 
         for (int i = 0; i < cloops.size(); i++) {
-            List<Feature2D> loops = cloops.get(i);
-            double[] rowSum = rowSums.get(i);
-            double[] colSum = colSums.get(i);
-
-            for (Feature2D loop : loops) {
+            int offset = i * matrixWidthL;
+            for (Feature2D loop : cloops.get(i)) {
                 int binXStart = (int) ((loop.getMidPt1() / resolution) - window);
                 int binYStart = (int) ((loop.getMidPt2() / resolution) - window);
-                APAUtils.addLocalRowSums(rowSum, vector1, binXStart);
-                APAUtils.addLocalRowSums(colSum, vector2, binYStart);
+                APAUtils.addLocalRowSums(rowSums, offset, matrixWidthL, vector1, binXStart);
+                APAUtils.addLocalRowSums(colSums, offset, matrixWidthL, vector2, binYStart);
             }
         }
     }
 
+    /**
+     * Single pass over the contacts; each record goes to every matching window of every list at once
+     */
     protected void processLoopsForRegion(MatrixZoomData zd, List<List<Feature2D>> allLoops,
-                                         List<float[][]> outputs, DistanceBoundCalculator distanceBoundCalculator,
+                                         float[] outputSlab, DistanceBoundCalculator distanceBoundCalculator,
                                          double[] customVCNormVector1, double[] customVCNormVector2) {
         RegionsOfInterest roi = new RegionsOfInterest(resolution, window, matrixWidthL, allLoops);
         int counter = 0;
@@ -241,12 +219,7 @@ public class APA3 {
                 customVCNormVector1[cr.getBinX()] += cr.getCounts();
                 customVCNormVector2[cr.getBinY()] += cr.getCounts();
                 if (distanceBoundCalculator.inDistanceRange(cr)) {
-                    if (roi.probablyContainsRecord(cr)) {
-                        for (int i = 0; i < allLoops.size(); i++) {
-                            if (roi.containsRecord(cr, i)) {
-                                populateMatrixIfApplicable(outputs.get(i), cr, roi.getBoundsInfo(cr, i));
-                            }
-                        }
+                    if (roi.addRecordTo(outputSlab, cr)) {
                         if (counter++ % 10000 == 0) {
                             System.out.print(".");
                         }
@@ -258,18 +231,6 @@ public class APA3 {
         roi.clear();
     }
 
-    private void populateMatrixIfApplicable(float[][] matrix, ContactRecord cr,
-                                            List<Bounds2DInfo> allBounds) {
-        for (Bounds2DInfo bound : allBounds) {
-            if (bound.contains(cr.getBinX(), cr.getBinY())) {
-                int relativeX = cr.getBinX() - bound.getBinXStart();
-                int relativeY = cr.getBinY() - bound.getBinYStart();
-                matrix[relativeX][relativeY] += cr.getCounts();
-            }
-        }
-    }
-
-
     private Feature2DList[] loadLoopsAPAStyle(String[] loopListPath, ChromosomeHandler handler) {
         Feature2DList[] loopLists = new Feature2DList[loopListPath.length];
         for (int i = 0; i < loopListPath.length; i++) {
@@ -283,7 +244,7 @@ public class APA3 {
     }
 
     private Feature2DList loadLoopsAPAStyle(String loopListPath, ChromosomeHandler handler) {
-        return Feature2DParser.loadFeatures(loopListPath, handler, false,
+        return LoopListCache.loadFeatures(loopListPath, handler, false,
                 (chr, features) -> APAUtils.filterFeaturesBySize(new ArrayList<>(new HashSet<>(features)),
                         minPeakDist, maxPeakDist, resolution), false);
     }
@@ -301,12 +262,18 @@ public class APA3 {
         int pairCounter = populateChromosomePairsWithInterFilter(chromosomePairs,
                 handler.getChromosomeArrayWithoutAllByAll(), includeInterChr, translocations);
         final AtomicInteger currChromPair = new AtomicInteger(0);
+        final AtomicInteger threadCounter = new AtomicInteger(0);
+        // one contiguous slab per thread, holding every output; merged after all threads finish
+        float[][] outputSlabs = new float[numThreads][];
+        double[][] rowSumSlabs = new double[numThreads][];
+        double[][] colSumSlabs = new double[numThreads][];
 
         ParallelizationTools.launchParallelizedCode(numThreads, () -> {
 
-            List<float[][]> outputs = initializeMatrices(numOutputs, matrixWidthL);
-            List<double[]> rowSums = initializeArrays(numOutputs, matrixWidthL);
-            List<double[]> colSums = initializeArrays(numOutputs, matrixWidthL);
+            int threadIndex = threadCounter.getAndIncrement();
+            float[] outputs = new float[numOutputs * matrixWidthL * matrixWidthL];
+            double[] rowSums = new double[numOutputs * matrixWidthL];
+            double[] colSums = new double[numOutputs * matrixWidthL];
 
             int threadPair = currChromPair.getAndIncrement();
             while (threadPair < pairCounter) {
@@ -345,21 +312,24 @@ public class APA3 {
                 threadPair = currChromPair.getAndIncrement();
             }
 
-            synchronized (key) {
-                for (int i = 0; i < numOutputs; i++) {
-                    APAUtils.inPlaceSumMatrices(globalAPAMatrices.get(i), outputs.get(i));
-                    if (useAgNorm) {
-                        APAUtils.inPlaceSumVectors(globalRowSums.get(i), rowSums.get(i));
-                        APAUtils.inPlaceSumVectors(globalColSums.get(i), colSums.get(i));
-                    }
-                }
+            if (threadIndex < numThreads) {
+                outputSlabs[threadIndex] = outputs;
+                rowSumSlabs[threadIndex] = rowSums;
+                colSumSlabs[threadIndex] = colSums;
             }
         });
 
+        float[] globalOutputs = APAUtils.treeReduce(outputSlabs);
+        double[] globalRowSums = APAUtils.treeReduce(rowSumSlabs);
+        double[] globalColSums = APAUtils.treeReduce(colSumSlabs);
+
         System.out.println("Exporting APA results...");
         for (int i = 0; i < numOutputs; i++) {
-            APADataExporter.simpleExportGenomeWideData(outputFilePaths[i], useAgNorm, globalAPAMatrices.get(i),
-                    globalRowSums.get(i), globalColSums.get(i));
+            int from = i * matrixWidthL;
+            APADataExporter.simpleExportGenomeWideData(outputFilePaths[i], useAgNorm,
+                    APAUtils.getBlock(globalOutputs, i, matrixWidthL),
+                    Arrays.copyOfRange(globalRowSums, from, from + matrixWidthL),
+                    Arrays.copyOfRange(globalColSums, from, from + matrixWidthL));
         }
         System.out.println("APA complete");
     }
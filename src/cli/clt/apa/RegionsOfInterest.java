@@ -1,68 +1,63 @@
 package cli.clt.apa;
 
-import cli.utils.data.Bounds2DInfo;
-import cli.utils.data.CompressedGridMapForBounds2D;
+import cli.utils.data.WindowStabbingIndex;
 import javastraw.feature2D.Feature2D;
 import javastraw.reader.block.ContactRecord;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Class to manage regions of interest with respect to a grid map and contact records.
+ * The windows of all loop lists share one index; each window is labelled with its list, which picks
+ * that list's block in the accumulation slab.
  */
 public class RegionsOfInterest {
-    private final int maxNumForIndices;
     private final int resolution;
     private final int window;
     private final int matrixWidthL;
-    private final List<CompressedGridMapForBounds2D> loopListsAsMaps;
-    private final Set<Integer> allRowIndices = new HashSet<>();
-    private final Set<Integer> allColIndices = new HashSet<>();
+    private WindowStabbingIndex index;
 
     public RegionsOfInterest(int resolution, int window, int matrixWidthL,
                              List<List<Feature2D>> allLoops) {
-        maxNumForIndices = allLoops.size();
         this.resolution = resolution;
         this.window = window;
         this.matrixWidthL = matrixWidthL;
-        loopListsAsMaps = convertToMaps(allLoops);
+        index = buildCombinedIndex(allLoops);
     }
 
-    private List<CompressedGridMapForBounds2D> convertToMaps(List<List<Feature2D>> allLoops) {
-        List<CompressedGridMapForBounds2D> loopListsAsMaps = new ArrayList<>(allLoops.size());
+    private WindowStabbingIndex buildCombinedIndex(List<List<Feature2D>> allLoops) {
+        int numWindows = 0;
         for (List<Feature2D> loops : allLoops) {
-            loopListsAsMaps.add(new CompressedGridMapForBounds2D(loops, resolution, window, matrixWidthL,
-                    allRowIndices, allColIndices));
+            numWindows += loops.size();
         }
-        return loopListsAsMaps;
-    }
-
-    public boolean containsRecord(ContactRecord cr, int i) {
-        validateIndex(i);
-        return loopListsAsMaps.get(i).contains(cr.getBinX(), cr.getBinY());
+        int[] xStarts = new int[numWindows];
+        int[] yStarts = new int[numWindows];
+        int[] labels = new int[numWindows];
+        int k = 0;
+        for (int i = 0; i < allLoops.size(); i++) {
+            for (Feature2D loop : allLoops.get(i)) {
+                xStarts[k] = Math.max(0, (int) ((loop.getMidPt1() / resolution) - window));
+                yStarts[k] = Math.max(0, (int) ((loop.getMidPt2() / resolution) - window));
+                labels[k] = i;
+                k++;
+            }
+        }
+        return new WindowStabbingIndex(xStarts, yStarts, labels, numWindows, matrixWidthL);
     }
 
-    public List<Bounds2DInfo> getBoundsInfo(ContactRecord cr, int i) {
-        validateIndex(i);
-        return loopListsAsMaps.get(i).get(cr.getBinX(), cr.getBinY());
+    /**
+     * Adds the record to every window (of every list) that contains it;
+     * the slab holds one matrixWidthL x matrixWidthL row-major block per loop list
+     */
+    public boolean addRecordTo(float[] slab, ContactRecord cr) {
+        return index.addToSlab(cr.getBinX(), cr.getBinY(), cr.getCounts(), slab);
     }
 
     public boolean probablyContainsRecord(ContactRecord cr) {
-        return allRowIndices.contains(cr.getBinX()) && allColIndices.contains(cr.getBinY());
+        return index.probablyContains(cr.getBinX(), cr.getBinY());
     }
 
     public void clear() {
-        loopListsAsMaps.clear();
-        allRowIndices.clear();
-        allColIndices.clear();
-    }
-
-    private void validateIndex(int i) {
-        if (i < 0 || i >= maxNumForIndices) {
-            throw new IndexOutOfBoundsException("Index " + i + " is out of bounds. Valid indices are 0 to " + (loopListsAsMaps.size() - 1));
-        }
+        index = null;
     }
 }
@@ -3,9 +3,9 @@ package cli.clt.bedpe;
 import cli.Main;
 import cli.clt.CommandLineParser;
 import cli.utils.general.FusionTools;
+import cli.utils.general.LoopListCache;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.basics.ChromosomeTools;
 
@@ -54,7 +54,7 @@ public class Fusion {
         ChromosomeHandler handler = ChromosomeTools.loadChromosomes(genomeID);
 
         for (String path : bedpeFiles) {
-            Feature2DList loopList = Feature2DParser.loadFeatures(path, handler,
+            Feature2DList loopList = LoopListCache.loadFeatures(path, handler,
                     false, null, false);
             loopList.processLists((key, list) -> {
                 if (!dedupedMapping.containsKey(key)) {
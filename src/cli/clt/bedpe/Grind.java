@@ -3,6 +3,10 @@ package cli.clt.bedpe;
 import cli.clt.CommandLineParser;
 import cli.utils.apa.MultiAPAManager;
 import cli.utils.data.SparseContactMatrixWithMasking;
+import cli.utils.grind.ChunkWriter;
+import cli.utils.grind.LoopInfoColumns;
+import cli.utils.grind.WindowEncoding;
+import cli.utils.grind.WindowSlab;
 import io.jhdf.HdfFile;
 import io.jhdf.WritableHdfFile;
 import io.jhdf.api.WritableGroup;
@@ -22,14 +26,16 @@ import javastraw.tools.ParallelizationTools;
 
 import java.io.File;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Grind {
 
-    public static String usage = "grind [-k NORM] [-r resolution] [--window half-width] [--npy] <hic file> <bedpe> <directory> <stem>\n" +
-            "\t\tsplit up the bedpe into multiple lists; number < 2 splits by chromosome";
+    public static String usage = "grind [-k NORM] [-r resolution] [--window half-width] [--npy] " +
+            "[--encoding float32|float16|log16] [--chunk-size int] <hic file> <bedpe> <directory> <stem>\n" +
+            "\t\tsplit up the bedpe into multiple lists; number < 2 splits by chromosome\n" +
+            "\t\tfloat16 and log16 store 16-bit windows in the hdf5 output (see grind-verify)\n" +
+            "\t\tthese are written as int16; view them as the dataset's dtype attribute (float16 or uint16),\n" +
+            "\t\te.g. ds[()].view(ds.attrs['dtype']); log16 values are expm1(level * ds.attrs['scale'])";
     private final boolean useObservedOverExpected = false;
     private final boolean useNpy;
     private final Dataset ds;
@@ -41,21 +47,11 @@ public class Grind {
     private Integer resolution = 1000;
     private NormalizationType norm;
     private String stemName;
+    private static final int NUM_WORKERS = 10;
+    private final WindowEncoding encoding;
+    private final int chunkSize;
 
 
-    // Lists to store loop information
-    private final List<String> chr1List = new ArrayList<>();
-    private final List<Long> start1List = new ArrayList<>();
-    private final List<Long> end1List = new ArrayList<>();
-    private final List<String> chr2List = new ArrayList<>();
-    private final List<Long> start2List = new ArrayList<>();
-    private final List<Long> end2List = new ArrayList<>();
-    private final List<Integer> chunkIndexList = new ArrayList<>();
-
-
-    // Lock object for synchronizing access to loop info lists
-    private final Object loopInfoLock = new Object();
-
     public Grind(String[] args, CommandLineParser parser) {
         if (args.length != 5) {
             printUsageAndExit();
@@ -83,6 +79,8 @@ public class Grind {
         matrixHalfWidth = parser.getWindowSizeOption(10);
 
         useNpy = parser.getNpyOption();
+        encoding = WindowEncoding.fromString(parser.getEncodingOption());
+        chunkSize = Math.max(1, parser.getChunkSizeOption(100));
 
         zoom = new HiCZoom(resolution);
         handler = ds.getChromosomeHandler();
@@ -115,9 +113,9 @@ public class Grind {
             WritableGroup chunksGroup = resolutionGroup.putGroup("chunks");
             WritableGroup loopInfoGroup = resolutionGroup.putGroup("loop_info");
 
-            AtomicInteger chunkIndex = new AtomicInteger(0);
-
-            List<float[][]> currentChunk = new ArrayList<>(100);
+            int matrixWidth = 2 * matrixHalfWidth + 1;
+            chunksGroup.putAttribute(WindowEncoding.ENCODING_ATTRIBUTE, encoding.getLabel());
+            ChunkWriter writer = new ChunkWriter(chunksGroup, chunkSize, matrixWidth, NUM_WORKERS, encoding);
 
             loopList.processLists((chr, feature2DList) -> {
 
@@ -133,62 +131,31 @@ public class Grind {
 
                 if (zd == null) return;
 
-                int matrixWidth = 2 * matrixHalfWidth + 1;
-
                 try {
                     SparseContactMatrixWithMasking scm = new SparseContactMatrixWithMasking(zd,
                             feature2DList, resolution, matrixHalfWidth, matrixWidth, norm, true); // intra here
 
                     AtomicInteger index = new AtomicInteger(0);
 
-                    ParallelizationTools.launchParallelizedCode(10, () -> {
-                        int currIndex = index.getAndIncrement();
-
-                        while (currIndex < feature2DList.size()) {
-
-                            Feature2D loop = feature2DList.get(currIndex);
-                            float[][] output = new float[matrixWidth][matrixWidth];
-                            MultiAPAManager.addToMatrix(output, scm, loop, matrixHalfWidth, resolution, matrixWidth);
-
-                            String serializedLoop = loop.toString();
-
-                            String chr1 = loop.getChr1();
-                            long start1 = loop.getStart1();
-                            long end1 = loop.getEnd1();
-                            String chr2 = loop.getChr2();
-                            long start2 = loop.getStart2();
-                            long end2 = loop.getEnd2();
-
-                            int assignedChunkIndex = -1;
-
-                            synchronized (loopInfoLock) {
-                                currentChunk.add(output);
-                                if (currentChunk.size() == 100) {
-                                    float[][][] chunkArray = new float[100][matrixWidth][matrixWidth];
-                                    for (int i = 0; i < 100; i++) {
-                                        chunkArray[i] = currentChunk.get(i);
-                                    }
-
-                                    assignedChunkIndex = chunkIndex.getAndIncrement();
-
-                                    String datasetName = "chunk_" + assignedChunkIndex;
-                                    chunksGroup.putDataset(datasetName, chunkArray);
-                                    currentChunk.clear();
+                    ParallelizationTools.launchParallelizedCode(NUM_WORKERS, () -> {
+                        try {
+                            WindowSlab slab = writer.acquire();
+                            int currIndex = index.getAndIncrement();
+                            while (currIndex < feature2DList.size()) {
+                                Feature2D loop = feature2DList.get(currIndex);
+                                int offset = slab.next(loop);
+                                MultiAPAManager.addToMatrix(slab.getData(), offset, scm, loop,
+                                        matrixHalfWidth, resolution, matrixWidth);
+                                if (slab.isFull()) {
+                                    writer.release(slab);
+                                    slab = writer.acquire();
                                 }
+                                currIndex = index.getAndIncrement();
                             }
-
-                            synchronized (loopInfoLock) {
-                                chr1List.add(chr1);
-                                start1List.add(start1);
-                                end1List.add(end1);
-                                chr2List.add(chr2);
-                                start2List.add(start2);
-                                end2List.add(end2);
-                                assignedChunkIndex = chunkIndex.get() ; // Last assigned chunk
-                                chunkIndexList.add(assignedChunkIndex);
-                            }
-
-                            currIndex = index.getAndIncrement();
+                            writer.release(slab);
+                        } catch (InterruptedException e) {
+                            System.err.println("Interrupted while processing: " + chr);
+                            e.printStackTrace();
                         }
                     });
 
@@ -199,27 +166,13 @@ public class Grind {
 
             });
 
-            synchronized (loopInfoLock) {
-                if (!currentChunk.isEmpty()) {
-                    int remaining = currentChunk.size();
-                    float[][][] chunkArray = new float[remaining][2 * matrixHalfWidth + 1][2 * matrixHalfWidth + 1];
-                    for (int i = 0; i < remaining; i++) {
-                        chunkArray[i] = currentChunk.get(i);
-                    }
-                    String datasetName = "chunk_" + chunkIndex.getAndIncrement();
-                    chunksGroup.putDataset(datasetName, chunkArray);
-                    currentChunk.clear();
-                }
+            LoopInfoColumns loopInfo = writer.finish();
+            loopInfo.writeTo(loopInfoGroup);
+            if (encoding != WindowEncoding.FLOAT32) {
+                System.out.println("Max round-trip error (" + encoding.getLabel() + "): absolute "
+                        + writer.getMaxAbsoluteError() + ", relative " + writer.getMaxRelativeError());
             }
 
-            loopInfoGroup.putDataset("chr1", chr1List.toArray(new String[0]));
-            loopInfoGroup.putDataset("start1", start1List.stream().mapToLong(Long::intValue).toArray());
-            loopInfoGroup.putDataset("end1", end1List.stream().mapToLong(Long::intValue).toArray());
-            loopInfoGroup.putDataset("chr2", chr2List.toArray(new String[0]));
-            loopInfoGroup.putDataset("start2", start2List.stream().mapToLong(Long::intValue).toArray());
-            loopInfoGroup.putDataset("end2", end2List.stream().mapToLong(Long::intValue).toArray());
-            loopInfoGroup.putDataset("chunk_index", chunkIndexList.stream().mapToInt(Integer::intValue).toArray());
-
             System.out.println("All loops have been successfully written to " + hdf5File.getAbsolutePath());
 
         } catch (Exception e) {
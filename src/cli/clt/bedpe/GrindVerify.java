@@ -0,0 +1,161 @@
+package cli.clt.bedpe;
+
+import cli.Main;
+import cli.utils.grind.WindowEncoding;
+import io.jhdf.HdfFile;
+import io.jhdf.api.Dataset;
+import io.jhdf.api.Group;
+import io.jhdf.api.Node;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+public class GrindVerify {
+
+    public static String usage = "grind-verify <grind.hdf5> [reference.hdf5]\n" +
+            "\t\tdecode every window of a grind output; if a float32 reference of the same loops is given,\n" +
+            "\t\treport the round-trip error per resolution";
+
+    private static final int MAX_CACHED_CHUNKS = 64;
+
+    public static void run(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            Main.printGeneralUsageAndExit(5, usage);
+        }
+
+        try (HdfFile file = new HdfFile(Paths.get(args[1]))) {
+            if (args.length == 2) {
+                for (Node node : file.getChildren().values()) {
+                    if (node instanceof Group) {
+                        summarize((Group) node);
+                    }
+                }
+            } else {
+                try (HdfFile reference = new HdfFile(Paths.get(args[2]))) {
+                    for (Node node : file.getChildren().values()) {
+                        if (node instanceof Group) {
+                            compare((Group) node, reference);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error reading HDF5 file.");
+            e.printStackTrace();
+            System.exit(4);
+        }
+    }
+
+    private static void summarize(Group resolutionGroup) {
+        Group chunks = (Group) resolutionGroup.getChild("chunks");
+        long numWindows = 0, numNaN = 0;
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        for (Node node : chunks.getChildren().values()) {
+            for (float[][] window : WindowEncoding.readChunk((Dataset) node)) {
+                numWindows++;
+                for (float[] row : window) {
+                    for (float value : row) {
+                        if (Float.isNaN(value)) {
+                            numNaN++;
+                        } else {
+                            min = Math.min(min, value);
+                            max = Math.max(max, value);
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(resolutionGroup.getName() + ": " + numWindows + " windows decoded, range ["
+                + min + ", " + max + "], NaN entries " + numNaN);
+    }
+
+    /**
+     * Windows are matched by loop coordinates, since chunk order depends on thread scheduling
+     */
+    private static void compare(Group resolutionGroup, HdfFile reference) {
+        String name = resolutionGroup.getName();
+        Node refNode = reference.getChild(name);
+        if (!(refNode instanceof Group)) {
+            System.err.println("Reference has no resolution group " + name);
+            return;
+        }
+        Group refGroup = (Group) refNode;
+        Map<String, Integer> refRows = new HashMap<>();
+        String[] refKeys = getLoopKeys((Group) refGroup.getChild("loop_info"));
+        for (int i = 0; i < refKeys.length; i++) {
+            refRows.put(refKeys[i], i);
+        }
+        int[] refChunkIndex = getInts(refGroup, "chunk_index");
+        int[] refChunkOffset = getInts(refGroup, "chunk_offset");
+        Group refChunks = (Group) refGroup.getChild("chunks");
+        Map<Integer, float[][][]> refCache = new HashMap<>();
+
+        String[] keys = getLoopKeys((Group) resolutionGroup.getChild("loop_info"));
+        int[] chunkIndex = getInts(resolutionGroup, "chunk_index");
+        int[] chunkOffset = getInts(resolutionGroup, "chunk_offset");
+        Group chunks = (Group) resolutionGroup.getChild("chunks");
+
+        double maxAbsolute = 0, maxRelative = 0, sumSquares = 0;
+        long numValues = 0, numMissing = 0;
+        int currentChunk = -1;
+        float[][][] current = null;
+        for (int i = 0; i < keys.length; i++) {
+            Integer refRow = refRows.get(keys[i]);
+            if (refRow == null) {
+                numMissing++;
+                continue;
+            }
+            if (chunkIndex[i] != currentChunk) {
+                currentChunk = chunkIndex[i];
+                current = WindowEncoding.readChunk((Dataset) chunks.getChild("chunk_" + currentChunk));
+            }
+            int refChunk = refChunkIndex[refRow];
+            float[][][] refData = refCache.get(refChunk);
+            if (refData == null) {
+                if (refCache.size() >= MAX_CACHED_CHUNKS) refCache.clear();
+                refData = WindowEncoding.readChunk((Dataset) refChunks.getChild("chunk_" + refChunk));
+                refCache.put(refChunk, refData);
+            }
+
+            float[][] window = current[chunkOffset[i]];
+            float[][] expected = refData[refChunkOffset[refRow]];
+            for (int r = 0; r < window.length; r++) {
+                for (int c = 0; c < window[r].length; c++) {
+                    if (Float.isNaN(expected[r][c])) continue;
+                    double error = Math.abs(window[r][c] - expected[r][c]);
+                    maxAbsolute = Math.max(maxAbsolute, error);
+                    if (expected[r][c] > 0) {
+                        maxRelative = Math.max(maxRelative, error / expected[r][c]);
+                    }
+                    sumSquares += error * error;
+                    numValues++;
+                }
+            }
+        }
+
+        System.out.println(name + ": " + (keys.length - numMissing) + " windows compared, "
+                + numMissing + " not in reference");
+        System.out.println("\tmax absolute error " + maxAbsolute + ", max relative error " + maxRelative
+                + ", rmse " + Math.sqrt(sumSquares / Math.max(numValues, 1)));
+    }
+
+    private static String[] getLoopKeys(Group loopInfo) {
+        String[] chr1 = (String[]) ((Dataset) loopInfo.getChild("chr1")).getData();
+        long[] start1 = (long[]) ((Dataset) loopInfo.getChild("start1")).getData();
+        long[] end1 = (long[]) ((Dataset) loopInfo.getChild("end1")).getData();
+        String[] chr2 = (String[]) ((Dataset) loopInfo.getChild("chr2")).getData();
+        long[] start2 = (long[]) ((Dataset) loopInfo.getChild("start2")).getData();
+        long[] end2 = (long[]) ((Dataset) loopInfo.getChild("end2")).getData();
+        String[] keys = new String[chr1.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = chr1[i] + "_" + start1[i] + "_" + end1[i] + "_" + chr2[i] + "_" + start2[i] + "_" + end2[i];
+        }
+        return keys;
+    }
+
+    private static int[] getInts(Group resolutionGroup, String name) {
+        Group loopInfo = (Group) resolutionGroup.getChild("loop_info");
+        return (int[]) ((Dataset) loopInfo.getChild(name)).getData();
+    }
+}
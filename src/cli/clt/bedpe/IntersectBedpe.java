@@ -2,10 +2,8 @@ package cli.clt.bedpe;
 
 import cli.Main;
 import cli.clt.CommandLineParser;
+import cli.utils.general.Feature2DIntervalIndex;
 import cli.utils.general.FusionTools;
-import cli.utils.general.OverlapTools;
-import cli.utils.general.QuickGrouping;
-import cli.utils.sift.SimpleLocation;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
 import javastraw.feature2D.Feature2DParser;
@@ -75,28 +73,31 @@ public class IntersectBedpe {
     private static List<Feature2D> intersect(List<Feature2D> listA, List<Feature2D> listB,
                                              boolean doSubtraction, boolean useExactMatch, int window,
                                              boolean doBoundingBox) {
-        Map<SimpleLocation, List<Feature2D>> mapA = QuickGrouping.groupNearbyRecords(listA, 1000000);
-        Map<SimpleLocation, List<Feature2D>> mapB = QuickGrouping.groupNearbyRecordsWithOverlap(listB, 1000000);
+        if (listA == null || listA.isEmpty()) return new ArrayList<>();
+        if (listB == null) listB = new ArrayList<>();
 
-        List<SimpleLocation> keys = new ArrayList<>(mapA.keySet());
+        List<Feature2D> featuresA = new ArrayList<>(new HashSet<>(listA));
         Set<Feature2D> allCoalesced = new HashSet<>();
 
+        if (useExactMatch) {
+            Set<Feature2D> setA = new HashSet<>(featuresA);
+            if (doSubtraction) {
+                listB.forEach(setA::remove);
+            } else {
+                setA.retainAll(listB);
+            }
+            return new ArrayList<>(setA);
+        }
+
+        Feature2DIntervalIndex indexB = new Feature2DIntervalIndex(new HashSet<>(listB));
+
         AtomicInteger index = new AtomicInteger(0);
         ParallelizationTools.launchParallelizedCode(() -> {
 
             Set<Feature2D> coalesced = new HashSet<>();
             int i = index.getAndIncrement();
-            while (i < keys.size()) {
-
-                SimpleLocation location = keys.get(i);
-                List<Feature2D> featuresA = mapA.get(location);
-                List<Feature2D> featuresB = new ArrayList<>();
-                if (mapB.containsKey(location)) {
-                    featuresB = mapB.get(location);
-                }
-
-                processFeatures(coalesced, featuresA, featuresB, doSubtraction, useExactMatch, window, doBoundingBox);
-
+            while (i < featuresA.size()) {
+                processFeature(coalesced, featuresA.get(i), indexB, doSubtraction, window, doBoundingBox);
                 i = index.getAndIncrement();
             }
 
@@ -105,40 +106,21 @@ public class IntersectBedpe {
             }
         });
 
-        mapA.clear();
-        mapB.clear();
-
         return new ArrayList<>(allCoalesced);
     }
 
-    private static void processFeatures(Set<Feature2D> coalesced, List<Feature2D> featuresA, List<Feature2D> featuresB,
-                                        boolean doSubtraction, boolean useExactMatch, int window,
-                                        boolean doBoundingBox) {
-        if (useExactMatch) {
-            Set<Feature2D> setA = new HashSet<>(featuresA);
-            if (doSubtraction) {
-                featuresB.forEach(setA::remove);
-            } else {
-                setA.retainAll(featuresB);
-            }
-            coalesced.addAll(setA);
-            setA.clear();
-            return;
-        }
-
-        for (Feature2D pixelA : featuresA) {
-            List<Feature2D> pixelList = OverlapTools.getMatchesWithOverlap(pixelA, featuresB, window);
-
-            if (doSubtraction) {
-                if (pixelList.isEmpty()) coalesced.add(pixelA);
-            } else if (pixelList.size() > 0) {
-                if (doBoundingBox) {
-                    pixelList.add(pixelA);
-                    coalesced.add(FusionTools.getFeatureFromBounds(pixelList));
-                } else {
-                    coalesced.add(pixelA);
-                }
+    private static void processFeature(Set<Feature2D> coalesced, Feature2D pixelA, Feature2DIntervalIndex indexB,
+                                       boolean doSubtraction, int window, boolean doBoundingBox) {
+        if (doSubtraction) {
+            if (!indexB.hasOverlap(pixelA, window)) coalesced.add(pixelA);
+        } else if (doBoundingBox) {
+            List<Feature2D> pixelList = indexB.getOverlaps(pixelA, window);
+            if (pixelList.size() > 0) {
+                pixelList.add(pixelA);
+                coalesced.add(FusionTools.getFeatureFromBounds(pixelList));
             }
+        } else if (indexB.hasOverlap(pixelA, window)) {
+            coalesced.add(pixelA);
         }
     }
 
@@ -91,10 +91,8 @@ public class SubtractSharedAnchors {
     }
 
     private static boolean hasAnchor(BitSet stream, long start1, long end1) {
-        for (int x = (int) (start1 / resolution); x < end1 / resolution; x++) {
-            if (stream.get(x)) return true;
-        }
-        return false;
+        int firstSet = stream.nextSetBit((int) (start1 / resolution));
+        return firstSet > -1 && firstSet < end1 / resolution;
     }
 
     private static void populateFilteringAnchors(Map<Integer, BitSet> upstreamAnchors,
@@ -2,7 +2,10 @@ package cli.clt.enhance;
 
 import cli.Main;
 import cli.clt.CommandLineParser;
+import cli.utils.data.SparseContactStore;
+import cli.utils.enhance.PipelinedWindowFetcher;
 import cli.utils.flags.RegionConfiguration;
+import cli.utils.general.CompactContactWriter;
 import cli.utils.general.HiCUtils;
 import cli.utils.general.Utils;
 import cli.utils.general.WritingTools;
@@ -23,11 +26,13 @@ import javastraw.tools.UNIXTools;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -35,7 +40,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class Enhance {
 
-    // "enhance [--res int] [--norm string] <out_folder> <loops.bedpe> <hic_files>\n" +
+    private static final String BINARY_FILE_NAME = "enhance.contacts.bin";
+    private static final int BATCH_SIZE = 256;
+
+    // "enhance[-bin][-pipelined] [--res int] [--norm string] <out_folder> <loops.bedpe> <hic_files>\n" +
+    // by default contacts are written as MND text for pre; -bin streams them into a compact binary file
+    // instead. That file is an intermediate only (smaller to keep or move around): pre cannot read it, so
+    // enhance-unpack must turn it back into MND text before a .hic can be built. Both paths round each
+    // window before summing, so they hold the same contacts
+    // -pipelined gives each dataset its own reader so block decompression overlaps across datasets
 
     public static void run(String[] args, CommandLineParser parser) {
         if (args.length < 4) {
@@ -49,12 +62,11 @@ public class Enhance {
 
         int resolution = parser.getResolutionOption(1000);
         boolean exportNPY = parser.getNpyOption();
+        boolean writeMND = !args[0].toLowerCase().contains("bin");
 
-        final Object[] keys = new Object[hicFiles.length];
         Dataset[] datasets = new Dataset[hicFiles.length];
         for (int q = 0; q < hicFiles.length; q++) {
             datasets[q] = HiCFileTools.extractDatasetForCLT(hicFiles[q], false, true, true);
-            keys[q] = new Object();
         }
 
         ChromosomeHandler handler = datasets[0].getChromosomeHandler();
@@ -65,12 +77,13 @@ public class Enhance {
 
         UNIXTools.makeDir(outFolder);
 
-        amplifyLoops(datasets, loopList, handler, resolution, outFolder, keys, exportNPY);
+        boolean pipelined = args[0].toLowerCase().contains("pipe");
+        amplifyLoops(datasets, loopList, handler, resolution, outFolder, exportNPY, writeMND, pipelined);
     }
 
     private static void amplifyLoops(final Dataset[] datasets, Feature2DList loopList, ChromosomeHandler handler,
-                                     int resolution, String outFolder, Object[] keys,
-                                     boolean exportNPY) {
+                                     int resolution, String outFolder,
+                                     boolean exportNPY, boolean writeMND, boolean pipelined) {
 
         if (Main.printVerboseComments) {
             System.out.println("Processing AMPLIFI for resolution " + resolution);
@@ -89,8 +102,17 @@ public class Enhance {
 
         final Object mndKey = new Object();
         List<String> filePaths = Collections.synchronizedList(new ArrayList<>());
+        final CompactContactWriter binaryWriter = writeMND ? null : createBinaryWriter(outFolder, resolution,
+                WritingTools.cleanGenome(datasets[0].getGenomeId()));
+
+        final PipelinedWindowFetcher fetcher = pipelined ? new PipelinedWindowFetcher(datasets, zoom,
+                NormalizationHandler.NONE, PipelinedWindowFetcher.getDefaultNumReaders(datasets.length)) : null;
+        int numPairThreads = Runtime.getRuntime().availableProcessors();
+        if (pipelined) {
+            numPairThreads = Math.max(1, numPairThreads / PipelinedWindowFetcher.getDefaultNumReaders(datasets.length));
+        }
 
-        ParallelizationTools.launchParallelizedCode(() -> {
+        ParallelizationTools.launchParallelizedCode(numPairThreads, () -> {
 
             int threadPair = chromosomePair.getAndIncrement();
             while (threadPair < chromosomePairCounter) {
@@ -102,50 +124,74 @@ public class Enhance {
                 if(loops.size() > 0) {
                     String newMND = (new File(outFolder, config.getPairKey() + ".mnd")).getAbsolutePath();
                     try {
-                        BufferedWriter bwMND = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(newMND))));
-                        for (Feature2D loop : loops) {
-                            int window = (int) (Math.max(loop.getWidth1(), loop.getWidth2()) / resolution + 1);
-                            window = Math.max(window, 10000 / resolution);
-                            int binXStart = (int) ((loop.getMidPt1() / resolution) - window);
-                            int binYStart = (int) ((loop.getMidPt2() / resolution) - window);
-
-                            int matrixWidth = 2 * window + 1;
-                            float[][] output = new float[matrixWidth][matrixWidth];
-
-                            for (int di = 0; di < datasets.length; di++) {
-                                final Dataset ds = datasets[di];
-                                MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chr1, chr2, zoom);
-                                if (zd != null) {
-                                    try {
-                                        Utils.addLocalBoundedRegion(output, zd,
-                                                binXStart, binYStart, matrixWidth,
-                                                NormalizationHandler.NONE);
-                                    } catch (Exception e) {
-                                        System.err.println(e.getMessage());
-                                        System.err.println("Unable to find data for loop: " + loop);
-                                    }
+                        BufferedWriter bwMND = writeMND ? new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(newMND)))) : null;
+                        SparseContactStore aggregate = writeMND ? null : new SparseContactStore();
+                        List<Feature2D> ordered = loops;
+                        if (fetcher != null) {
+                            // batches are cut in genomic order so each one sweeps a compact set of blocks
+                            ordered = new ArrayList<>(loops);
+                            ordered.sort(Comparator.comparingLong(Feature2D::getMidPt1)
+                                    .thenComparingLong(Feature2D::getMidPt2));
+                        }
+                        for (int batchStart = 0; batchStart < ordered.size(); batchStart += BATCH_SIZE) {
+                            List<Feature2D> batch = ordered.subList(batchStart,
+                                    Math.min(ordered.size(), batchStart + BATCH_SIZE));
+                            int[] binXStarts = new int[batch.size()];
+                            int[] binYStarts = new int[batch.size()];
+                            float[][][] outputs = new float[batch.size()][][];
+                            for (int i = 0; i < batch.size(); i++) {
+                                Feature2D loop = batch.get(i);
+                                int window = (int) (Math.max(loop.getWidth1(), loop.getWidth2()) / resolution + 1);
+                                window = Math.max(window, 10000 / resolution);
+                                binXStarts[i] = (int) ((loop.getMidPt1() / resolution) - window);
+                                binYStarts[i] = (int) ((loop.getMidPt2() / resolution) - window);
+
+                                int matrixWidth = 2 * window + 1;
+                                outputs[i] = new float[matrixWidth][matrixWidth];
+                            }
+
+                            if (fetcher != null) {
+                                fetcher.fetch(chr1, chr2, binXStarts, binYStarts, outputs);
+                            } else {
+                                for (int i = 0; i < batch.size(); i++) {
+                                    fetchSequentially(datasets, chr1, chr2, zoom, binXStarts[i], binYStarts[i],
+                                            outputs[i], batch.get(i));
                                 }
                             }
 
-                            String saveString = loop.simpleString();
-                            String[] saveStrings = saveString.split("\\s+");
-                            saveString = String.join("_", saveStrings);
+                            for (int i = 0; i < batch.size(); i++) {
+                                float[][] output = outputs[i];
+                                String saveString = batch.get(i).simpleString();
+                                String[] saveStrings = saveString.split("\\s+");
+                                saveString = String.join("_", saveStrings);
 
-                            if (exportNPY) {
-                                MatrixTools.saveMatrixTextNumpy((new File(outFolder, saveString + ".npy")).getAbsolutePath(),
-                                        output);
+                                if (exportNPY) {
+                                    MatrixTools.saveMatrixTextNumpy((new File(outFolder, saveString + ".npy")).getAbsolutePath(),
+                                            output);
+                                }
+                                if (writeMND) {
+                                    WritingTools.writeToMND(output, resolution, chr1.getName(), chr2.getName(),
+                                            binXStarts[i], binYStarts[i], bwMND);
+                                } else {
+                                    WritingTools.addToAggregate(output, binXStarts[i], binYStarts[i], aggregate);
+                                }
+                                outputs[i] = null;
                             }
-                            WritingTools.writeToMND(output, resolution, chr1.getName(), chr2.getName(),
-                                    binXStart, binYStart, bwMND);
-                            output = null;
                         }
-                        bwMND.close();
+                        if (writeMND) {
+                            bwMND.close();
+                        } else {
+                            binaryWriter.writePair(chr1.getName(), chr2.getName(), aggregate);
+                            aggregate.clear();
+                        }
                     } catch (Exception e){
                         e.printStackTrace();
                         System.exit(9);
                     }
-                    synchronized (mndKey) {
-                        filePaths.add(newMND);
+                    if (writeMND) {
+                        synchronized (mndKey) {
+                            filePaths.add(newMND);
+                        }
                     }
                 }
 
@@ -161,6 +207,25 @@ public class Enhance {
             }
         });
 
+        if (fetcher != null) {
+            fetcher.shutdown();
+        }
+
+        if (!writeMND) {
+            try {
+                binaryWriter.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(31);
+            }
+            String binaryPath = new File(outFolder, BINARY_FILE_NAME).getAbsolutePath();
+            System.out.println("Compact contact file complete: " + binaryPath);
+            System.out.println("This is an intermediate format; pre needs it unpacked to MND text first: \n" +
+                    "   enhance-unpack " + binaryPath + " " +
+                    new File(outFolder, "enhance.short.mnd.txt").getAbsolutePath());
+            return;
+        }
+
         System.out.println("MND lists complete");
 
         String mndPath = WritingTools.buildCatScript(filePaths, outFolder);
@@ -177,4 +242,31 @@ public class Enhance {
 
         //if no data return null
     }
+
+    private static void fetchSequentially(Dataset[] datasets, Chromosome chr1, Chromosome chr2, HiCZoom zoom,
+                                          int binXStart, int binYStart, float[][] output, Feature2D loop) {
+        for (final Dataset ds : datasets) {
+            MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chr1, chr2, zoom);
+            if (zd != null) {
+                try {
+                    Utils.addLocalBoundedRegion(output, zd,
+                            binXStart, binYStart, output.length,
+                            NormalizationHandler.NONE);
+                } catch (Exception e) {
+                    System.err.println(e.getMessage());
+                    System.err.println("Unable to find data for loop: " + loop);
+                }
+            }
+        }
+    }
+
+    private static CompactContactWriter createBinaryWriter(String outFolder, int resolution, String genomeID) {
+        try {
+            return new CompactContactWriter(new File(outFolder, BINARY_FILE_NAME), resolution, genomeID);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(31);
+        }
+        return null;
+    }
 }
@@ -0,0 +1,40 @@
+package cli.clt.enhance;
+
+import cli.Main;
+import cli.utils.general.CompactContactReader;
+import cli.utils.general.WritingTools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class EnhanceUnpack {
+
+    public static String usage = "enhance-unpack <enhance.contacts.bin> <output.mnd.txt>\n" +
+            "\t\tconvert the compact intermediate written by enhance-bin into short-with-score text;\n" +
+            "\t\tpre cannot read the compact file directly, so this step is required before building a .hic";
+
+    public static void run(String[] args) {
+        if (args.length != 3) {
+            Main.printGeneralUsageAndExit(5, usage);
+        }
+
+        File outFile = new File(args[2]);
+        int resolution = 0;
+        String genomeID = null;
+        try (CompactContactReader reader = new CompactContactReader(new File(args[1]));
+             BufferedWriter writer = new BufferedWriter(new FileWriter(outFile), 1 << 16)) {
+            resolution = reader.getResolution();
+            genomeID = reader.getGenomeId();
+            reader.exportAllToMND(writer);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(31);
+        }
+
+        String newHiCFile = new File(outFile.getAbsoluteFile().getParentFile(), "enhance.hic").getAbsolutePath();
+        System.out.println("Run HiCTools Pre: \n   pre -n -r" + WritingTools.getResolutionsToBuild(resolution) + " " +
+                outFile.getAbsolutePath() + " " + newHiCFile + " " + genomeID);
+    }
+}
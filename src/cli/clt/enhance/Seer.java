@@ -1,9 +1,10 @@
 package cli.clt.enhance;
 
 import cli.clt.CommandLineParser;
+import cli.utils.seer.ContactLineBuffer;
 import cli.utils.seer.CumulativeDistributionFunction;
+import cli.utils.seer.OrderedChunkWriter;
 import cli.utils.seer.SeerUtils;
-import cli.utils.sift.SimpleLocation;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.block.ContactRecord;
@@ -15,14 +16,14 @@ import javastraw.tools.HiCFileTools;
 import javastraw.tools.ParallelizationTools;
 import javastraw.tools.UNIXTools;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Seer {
 
+    private static final int CHUNK_SIZE = 1 << 18;
+
     // "seer [--res int] [--low-res int] [-k norm] [--seed seed] <file> <out_folder> <num_contacts>\n" +
 
 
@@ -40,61 +41,88 @@ public class Seer {
         Map<Chromosome, Long> countsToGeneratePerChr = generateCountsToMake(numberOfContacts, contactsPerChromosome);
 
         contactsPerChromosome.clear();
-        Random rand = new Random(seed);
-        Random rand2 = new Random(seed * 3 + 5);
+        SplittableRandom rand = new SplittableRandom(seed);
 
-        AtomicInteger index0 = new AtomicInteger(0);
+        // chromosomes are loaded one at a time; contact generation for each is split into parallel chunks
         Chromosome[] chromosomes = ds.getChromosomeHandler().getChromosomeArrayWithoutAllByAll();
-        ParallelizationTools.launchParallelizedCode(() -> {
-            int indexForJob = index0.getAndIncrement();
-            while (indexForJob < chromosomes.length) {
-                Chromosome chromosome = chromosomes[indexForJob];
-                Matrix matrix = ds.getMatrix(chromosome, chromosome);
-                if (matrix != null) {
-                    MatrixZoomData zdHigh = matrix.getZoomData(new HiCZoom(highResolution));
-                    if (zdHigh != null) {
-                        double[] rowSums = SeerUtils.convertToCDF(SeerUtils.getRowSumsForZD(chromosome, highResolution,
-                                zdHigh.getDirectIterator()));
-                        matrix.clearCacheForZoom(new HiCZoom(highResolution));
-
-                        MatrixZoomData zdLow = matrix.getZoomData(new HiCZoom(lowResolution));
-                        if (zdLow != null) {
-
-                            CumulativeDistributionFunction cdf = new CumulativeDistributionFunction(zdLow.
-                                    getNormalizedIterator(norm), 10000000, lowResolution);
-                            String name = chromosome.getName();
-                            matrix.clearCacheForZoom(new HiCZoom(lowResolution));
-
-                            try {
-                                File outputFileName = new File(outFolderPath, name + ".generated.contacts.mnd.txt");
-                                outputFileName.createNewFile();
-                                FileWriter fw = new FileWriter(outputFileName);
-                                BufferedWriter bw = new BufferedWriter(fw);
-
-                                // generate points at random
-                                long numPointsToGenerate = countsToGeneratePerChr.get(chromosome);
-                                for (long i = 0; i < numPointsToGenerate; i++) {
-                                    SimpleLocation position = cdf.createRandomPoint(rand);
-                                    position = SeerUtils.updateToHigherResPosition(position, rowSums, lowResolution,
-                                            highResolution, rand2);
-                                    bw.write(name + " " + position.getBinX() + " " + name + " " + position.getBinY());
-                                    bw.newLine();
-                                }
-                                bw.close();
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                                System.exit(9);
-                            }
+        for (Chromosome chromosome : chromosomes) {
+            // split for every chromosome so each stream depends only on the seed and chromosome order
+            SplittableRandom chromRandom = rand.split();
+            Matrix matrix = ds.getMatrix(chromosome, chromosome);
+            if (matrix != null) {
+                MatrixZoomData zdHigh = matrix.getZoomData(new HiCZoom(highResolution));
+                if (zdHigh != null) {
+                    double[] rowSums = SeerUtils.convertToCDF(SeerUtils.getRowSumsForZD(chromosome, highResolution,
+                            zdHigh.getDirectIterator()));
+                    matrix.clearCacheForZoom(new HiCZoom(highResolution));
+
+                    MatrixZoomData zdLow = matrix.getZoomData(new HiCZoom(lowResolution));
+                    if (zdLow != null) {
+
+                        CumulativeDistributionFunction cdf = new CumulativeDistributionFunction(zdLow.
+                                getNormalizedIterator(norm), 10000000, lowResolution);
+                        String name = chromosome.getName();
+                        matrix.clearCacheForZoom(new HiCZoom(lowResolution));
+
+                        long numPointsToGenerate = countsToGeneratePerChr.getOrDefault(chromosome, 0L);
+                        if (cdf.size() > 0 && numPointsToGenerate > 0) {
+                            File outputFileName = new File(outFolderPath, name + ".generated.contacts.mnd.txt");
+                            generateContactsInParallel(outputFileName, name, cdf, rowSums, lowResolution,
+                                    highResolution, numPointsToGenerate, chromRandom);
                         }
                     }
                 }
-                indexForJob = index0.getAndIncrement();
             }
-        });
+        }
 
         System.out.println("Seer completed");
     }
 
+    private static void generateContactsInParallel(File outputFile, String name, CumulativeDistributionFunction cdf,
+                                                   double[] rowSums, int lowResolution, int highResolution,
+                                                   long numPointsToGenerate, SplittableRandom chromRandom) {
+        int numChunks = (int) ((numPointsToGenerate + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        SplittableRandom[] chunkRandoms = new SplittableRandom[numChunks];
+        for (int k = 0; k < numChunks; k++) {
+            chunkRandoms[k] = chromRandom.split();
+        }
+        byte[] nameBytes = ContactLineBuffer.encodeName(name);
+
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 20)) {
+            OrderedChunkWriter writer = new OrderedChunkWriter(stream,
+                    2 * Runtime.getRuntime().availableProcessors());
+            AtomicInteger chunkIndex = new AtomicInteger(0);
+            ParallelizationTools.launchParallelizedCode(() -> {
+                ContactLineBuffer buffer = new ContactLineBuffer(CHUNK_SIZE * 2 * (nameBytes.length + 10));
+                int k = chunkIndex.getAndIncrement();
+                while (k < numChunks) {
+                    long numInChunk = Math.min(CHUNK_SIZE, numPointsToGenerate - (long) k * CHUNK_SIZE);
+                    SplittableRandom random = chunkRandoms[k];
+                    buffer.clear();
+                    for (long i = 0; i < numInChunk; i++) {
+                        int index = cdf.sampleIndex(random);
+                        int x = SeerUtils.updateToHigherResPosition(cdf.getGenomeX(index), rowSums,
+                                lowResolution, highResolution, random);
+                        int y = SeerUtils.updateToHigherResPosition(cdf.getGenomeY(index), rowSums,
+                                lowResolution, highResolution, random);
+                        buffer.addLine(nameBytes, x, nameBytes, y);
+                    }
+                    chunkRandoms[k] = null;
+                    try {
+                        writer.write(k, buffer.toByteArray());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        System.exit(9);
+                    }
+                    k = chunkIndex.getAndIncrement();
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(9);
+        }
+    }
+
     private static Map<Chromosome, Long> generateCountsForEachChromosome(Dataset ds, HiCZoom lowestResolution) {
         Map<Chromosome, Long> results = new HashMap<>();
         for (Chromosome chromosome : ds.getChromosomeHandler().getChromosomeArrayWithoutAllByAll()) {
@@ -2,13 +2,15 @@ package cli.clt.flat.file;
 
 import cli.Main;
 import cli.clt.CommandLineParser;
+import cli.utils.general.FastBedpeReader;
+import cli.utils.general.FastBedpeWriter;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.basics.ChromosomeTools;
 import javastraw.tools.UNIXTools;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -33,14 +35,19 @@ public class GetCommonVsVariableDiffsFromFlatFile {
 
         File folder = UNIXTools.makeDir(new File(outFolder));
 
-        getFromFlatFile(genomeID, flatFile, stems, folder);
+        try {
+            getFromFlatFile(genomeID, flatFile, stems, folder);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(58);
+        }
 
         System.out.println("extraction complete");
     }
 
-    private static void getFromFlatFile(String genomeID, String flatFile, String[] stems, File folder) {
-        Feature2DList flat = Feature2DParser.loadFeatures(flatFile, ChromosomeTools.loadChromosomes(genomeID),
-                true, null, false);
+    private static void getFromFlatFile(String genomeID, String flatFile, String[] stems, File folder) throws IOException {
+        FastBedpeReader reader = FastBedpeReader.open(flatFile);
+        Feature2DList flat = reader.toFeature2DList(ChromosomeTools.loadChromosomes(genomeID), stems);
 
         Feature2DList alwaysPresent = new Feature2DList();
         Feature2DList mostlyPresent = new Feature2DList();
@@ -97,9 +104,9 @@ public class GetCommonVsVariableDiffsFromFlatFile {
             }
         });
 
-        alwaysPresent.exportFeatureList(new File(folder, "always.bedpe"), false, Feature2DList.ListFormat.NA);
-        mostlyPresent.exportFeatureList(new File(folder, "mostly.bedpe"), false, Feature2DList.ListFormat.NA);
-        variablePresent.exportFeatureList(new File(folder, "variable.bedpe"), false, Feature2DList.ListFormat.NA);
-        neverPresent.exportFeatureList(new File(folder, "never.bedpe"), false, Feature2DList.ListFormat.NA);
+        FastBedpeWriter.exportRows(reader, alwaysPresent, new File(folder, "always.bedpe"));
+        FastBedpeWriter.exportRows(reader, mostlyPresent, new File(folder, "mostly.bedpe"));
+        FastBedpeWriter.exportRows(reader, variablePresent, new File(folder, "variable.bedpe"));
+        FastBedpeWriter.exportRows(reader, neverPresent, new File(folder, "never.bedpe"));
     }
 }
@@ -2,13 +2,15 @@ package cli.clt.flat.file;
 
 import cli.Main;
 import cli.clt.CommandLineParser;
+import cli.utils.general.FastBedpeReader;
+import cli.utils.general.FastBedpeWriter;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.basics.ChromosomeTools;
 import javastraw.tools.UNIXTools;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -31,14 +33,19 @@ public class GetDiffsFromFlatFile {
         String outFolder = args[5];
         File folder = UNIXTools.makeDir(new File(outFolder));
 
-        getFromFlatFile(genomeID, flatFile, stem1, stem2, folder);
+        try {
+            getFromFlatFile(genomeID, flatFile, stem1, stem2, folder);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(58);
+        }
 
         System.out.println("extraction complete");
     }
 
-    private static void getFromFlatFile(String genomeID, String flatFile, String stem1, String stem2, File folder) {
-        Feature2DList flat = Feature2DParser.loadFeatures(flatFile, ChromosomeTools.loadChromosomes(genomeID),
-                true, null, false);
+    private static void getFromFlatFile(String genomeID, String flatFile, String stem1, String stem2, File folder) throws IOException {
+        FastBedpeReader reader = FastBedpeReader.open(flatFile);
+        Feature2DList flat = reader.toFeature2DList(ChromosomeTools.loadChromosomes(genomeID), stem1, stem2);
 
         Feature2DList onlyStem1 = new Feature2DList();
         Feature2DList onlyStem2 = new Feature2DList();
@@ -72,9 +79,9 @@ public class GetDiffsFromFlatFile {
             neitherStems.addByKey(s, neither);
         });
 
-        onlyStem1.exportFeatureList(new File(folder, "only." + stem1 + ".bedpe"), false, Feature2DList.ListFormat.NA);
-        onlyStem2.exportFeatureList(new File(folder, "only." + stem2 + ".bedpe"), false, Feature2DList.ListFormat.NA);
-        bothStems.exportFeatureList(new File(folder, "both." + stem1 + "." + stem2 + ".bedpe"), false, Feature2DList.ListFormat.NA);
-        neitherStems.exportFeatureList(new File(folder, "neither." + stem1 + "." + stem2 + ".bedpe"), false, Feature2DList.ListFormat.NA);
+        FastBedpeWriter.exportRows(reader, onlyStem1, new File(folder, "only." + stem1 + ".bedpe"));
+        FastBedpeWriter.exportRows(reader, onlyStem2, new File(folder, "only." + stem2 + ".bedpe"));
+        FastBedpeWriter.exportRows(reader, bothStems, new File(folder, "both." + stem1 + "." + stem2 + ".bedpe"));
+        FastBedpeWriter.exportRows(reader, neitherStems, new File(folder, "neither." + stem1 + "." + stem2 + ".bedpe"));
     }
 }
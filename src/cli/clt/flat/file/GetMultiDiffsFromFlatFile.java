@@ -2,13 +2,15 @@ package cli.clt.flat.file;
 
 import cli.Main;
 import cli.clt.CommandLineParser;
+import cli.utils.general.FastBedpeReader;
+import cli.utils.general.FastBedpeWriter;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.basics.ChromosomeTools;
 import javastraw.tools.UNIXTools;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 import static cli.clt.sieve.RetainOverlap.getLoopCode;
@@ -34,14 +36,19 @@ public class GetMultiDiffsFromFlatFile {
 
         File folder = UNIXTools.makeDir(new File(outFolder));
 
-        getFromFlatFile(genomeID, flatFile, stems, folder);
+        try {
+            getFromFlatFile(genomeID, flatFile, stems, folder);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(58);
+        }
 
         System.out.println("extraction complete");
     }
 
-    private static void getFromFlatFile(String genomeID, String flatFile, String[][] stems, File folder) {
-        Feature2DList flat = Feature2DParser.loadFeatures(flatFile, ChromosomeTools.loadChromosomes(genomeID),
-                true, null, false);
+    private static void getFromFlatFile(String genomeID, String flatFile, String[][] stems, File folder) throws IOException {
+        FastBedpeReader reader = FastBedpeReader.open(flatFile);
+        Feature2DList flat = reader.toFeature2DList(ChromosomeTools.loadChromosomes(genomeID), getAllStems(stems));
 
         Feature2DList[] onlyStemN = new Feature2DList[stems.length];
         Feature2DList[] onlyNotStemN = new Feature2DList[stems.length];
@@ -96,9 +103,17 @@ public class GetMultiDiffsFromFlatFile {
         });
 
         for (int i = 0; i < stems.length; i++) {
-            onlyStemN[i].exportFeatureList(new File(folder, "only." + String.join(".", stems[i]) + ".bedpe"), false, Feature2DList.ListFormat.NA);
-            onlyNotStemN[i].exportFeatureList(new File(folder, "not." + String.join(".", stems[i]) + ".bedpe"), false, Feature2DList.ListFormat.NA);
+            FastBedpeWriter.exportRows(reader, onlyStemN[i], new File(folder, "only." + String.join(".", stems[i]) + ".bedpe"));
+            FastBedpeWriter.exportRows(reader, onlyNotStemN[i], new File(folder, "not." + String.join(".", stems[i]) + ".bedpe"));
+        }
+    }
+
+    private static String[] getAllStems(String[][] stems) {
+        List<String> all = new ArrayList<>();
+        for (String[] group : stems) {
+            all.addAll(Arrays.asList(group));
         }
+        return all.toArray(new String[0]);
     }
 
     private static Map<String, Map<Integer, Float>> makeEmptyMap(Set<String> keySet) {
@@ -2,13 +2,15 @@ package cli.clt.flat.file;
 
 import cli.Main;
 import cli.clt.CommandLineParser;
+import cli.utils.general.FastBedpeReader;
+import cli.utils.general.FastBedpeWriter;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.basics.ChromosomeTools;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 public class LoopDiffFlatFileMaker {
@@ -16,6 +18,7 @@ public class LoopDiffFlatFileMaker {
             "<_positive_suffix.bedpe> <_negative_suffix.bedpe> <stem1,stem2,...,stemN>\n" +
             "creates a flat file, with a 1 if loop is present, -1 if not present," +
             "0 if indeterminate\n";
+    private static final String[] NO_ATTRIBUTES = new String[0];
 
     public static void run(String[] args, String command, CommandLineParser parser) {
         if (args.length != 6) {
@@ -29,30 +32,33 @@ public class LoopDiffFlatFileMaker {
         String negSuffix = args[4];
         String[] stems = args[5].split(",");
 
-        createFlatFile(genomeID, outPath, posSuffix, negSuffix, stems);
+        try {
+            createFlatFile(genomeID, outPath, posSuffix, negSuffix, stems);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(58);
+        }
 
         System.out.println("flat file complete");
     }
 
-    private static void createFlatFile(String genomeID, String outPath, String posSuffix, String negSuffix, String[] stems) {
+    private static void createFlatFile(String genomeID, String outPath, String posSuffix, String negSuffix, String[] stems) throws IOException {
         ChromosomeHandler handler = ChromosomeTools.loadChromosomes(genomeID);
 
         Map<String, Map<String, Integer>> codeToStemToStatus = new HashMap<>();
         Map<String, Set<Feature2D>> chromKeyToLoops = new HashMap<>();
 
         for (String stem : stems) {
-            Feature2DList loops = Feature2DParser.loadFeatures(stem + posSuffix, handler,
-                    false, null, false);
+            Feature2DList loops = FastBedpeReader.open(stem + posSuffix).toFeature2DList(handler, NO_ATTRIBUTES);
             populateForEachLoopInList(codeToStemToStatus, chromKeyToLoops, stem, loops, 1);
 
-            loops = Feature2DParser.loadFeatures(stem + negSuffix, handler,
-                    false, null, false);
+            loops = FastBedpeReader.open(stem + negSuffix).toFeature2DList(handler, NO_ATTRIBUTES);
             populateForEachLoopInList(codeToStemToStatus, chromKeyToLoops, stem, loops, -1);
         }
         fillInIndeterminates(codeToStemToStatus, chromKeyToLoops, stems);
 
         Feature2DList flat = makeFromMapping(chromKeyToLoops, codeToStemToStatus);
-        flat.exportFeatureList(new File(outPath), false, Feature2DList.ListFormat.NA);
+        FastBedpeWriter.export(flat, new File(outPath));
     }
 
     private static Feature2DList makeFromMapping(Map<String, Set<Feature2D>> chromKeyToLoops, Map<String, Map<String, Integer>> codeToStemToStatus) {
@@ -4,6 +4,7 @@ import cli.Main;
 import cli.clt.CommandLineParser;
 import cli.utils.clean.LoopTools;
 import cli.utils.clean.OracleScorer;
+import cli.utils.data.LoopAttributeTable;
 import cli.utils.flags.RegionConfiguration;
 import cli.utils.general.ArrayTools;
 import cli.utils.general.HiCUtils;
@@ -89,6 +90,7 @@ public class Cleaner {
         final AtomicInteger currChromPair = new AtomicInteger(0);
         final Object key = new Object();
         final Feature2DList goodLoopsList = new Feature2DList();
+        final LoopAttributeTable attributes = new LoopAttributeTable(loopList);
 
         ParallelizationTools.launchParallelizedCode(() -> {
 
@@ -108,9 +110,9 @@ public class Cleaner {
                             double z1 = getZscore(loop.getMidPt1(), (int) loop.getWidth1(), vectorMap);
                             double z2 = getZscore(loop.getMidPt2(), (int) loop.getWidth2(), vectorMap);
                             if (justPeek) {
-                                loop.addStringAttribute("VC_zscore1", "" + z1);
-                                loop.addStringAttribute("VC_zscore2", "" + z2);
-                                loop.addStringAttribute("VC_min_zscore", "" + Math.min(z1, z2));
+                                attributes.setDouble(loop, "VC_zscore1", z1);
+                                attributes.setDouble(loop, "VC_zscore2", z2);
+                                attributes.setDouble(loop, "VC_min_zscore", Math.min(z1, z2));
                                 goodLoops.add(loop);
                             } else {
                                 if (!((z1 < -1 && z2 < -1) || z1 < -2 || z2 < -2)) {
@@ -142,6 +144,9 @@ public class Cleaner {
             }
         });
 
+        if (justPeek) {
+            attributes.writeToAll();
+        }
         return goodLoopsList;
     }
 
@@ -71,32 +71,9 @@ public class Clique {
 
     private static List<List<Feature2D>> getCliques(List<Feature2D> loops) {
         NetworkMatrix networkMatrix = new NetworkMatrix(loops, resolution);
-        return retrieveAllCliquesPerAdjMatrix(networkMatrix.getAdjMatrix(),
-                networkMatrix.getIDToNodeMapping(), loops.get(0).getChr1());
+        return ConnectedComponents.getLoopsPerComponent(loops, networkMatrix);
     }
 
-    private static List<List<Feature2D>> retrieveAllCliquesPerAdjMatrix(float[][] adjMatrix, Map<Integer, Node> idToNodeMapping, String chr1) {
-        MatrixUtils.setEverythingBelowDiagonalToZero(adjMatrix);
-        List<List<Feature2D>> cliques = new ArrayList<>();
-        for (int i = 0; i < adjMatrix.length; i++) {
-            if (hasNonZeroEntries(adjMatrix[i])) {
-                List<Feature2D> clique = ConnectedComponents.processClique(adjMatrix, idToNodeMapping, i, chr1, resolution);
-                cliques.add(clique);
-            }
-        }
-        return cliques;
-    }
-
-    private static boolean hasNonZeroEntries(float[] row) {
-        for (float entry : row) {
-            if (entry > 0) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-
     private static void rescueLoops(String inputBedpe, String genomeID, String outStem, boolean noAttributes) {
         Feature2DList output = new Feature2DList();
         ChromosomeHandler handler = ChromosomeTools.loadChromosomes(genomeID);
@@ -117,31 +94,28 @@ public class Clique {
 
     private static List<Feature2D> recoverLoops(List<Feature2D> initialLoops) {
         NetworkMatrix matrix = new NetworkMatrix(initialLoops, resolution);
-        float[][] a3 = MatrixUtils.cube(matrix.getAdjMatrix());
-        MatrixUtils.setEverythingBelowDiagonalToZero(a3);
+        int[][] a3 = MatrixUtils.getUpperTriangleOfCube(matrix.getAdjacency());
         Map<Integer, Node> idToNode = matrix.getIDToNodeMapping();
         return retrieveAllLoopsPerAdjMatrix(a3, idToNode, initialLoops.get(0).getChr1(), initialLoops.size());
     }
 
-    private static List<Feature2D> retrieveAllLoopsPerAdjMatrix(float[][] adjMatrix, Map<Integer, Node> idToNode,
+    private static List<Feature2D> retrieveAllLoopsPerAdjMatrix(int[][] upperTriangle, Map<Integer, Node> idToNode,
                                                                 String chrom, int numLoops) {
         List<Feature2D> newLoops = new ArrayList<>(2 * numLoops);
-        for (int i = 0; i < adjMatrix.length; i++) {
-            for (int j = i + 1; j < adjMatrix[0].length; j++) {
-                if (adjMatrix[i][j] > 0) {
-                    Node node1 = idToNode.get(i);
-                    Node node2 = idToNode.get(j);
-                    if (node1.getMinPosition() < node2.getMinPosition()) {
-                        newLoops.add(new Feature2D(Feature2D.FeatureType.PEAK,
-                                chrom, node1.getMinPosition() - resolution, node1.getMaxPosition() + resolution,
-                                chrom, node2.getMinPosition() - resolution, node2.getMaxPosition() + resolution,
-                                Color.BLACK, new HashMap<>()));
-                    } else {
-                        newLoops.add(new Feature2D(Feature2D.FeatureType.PEAK,
-                                chrom, node2.getMinPosition() - resolution, node2.getMaxPosition() + resolution,
-                                chrom, node1.getMinPosition() - resolution, node1.getMaxPosition() + resolution,
-                                Color.BLACK, new HashMap<>()));
-                    }
+        for (int i = 0; i < upperTriangle.length; i++) {
+            for (int j : upperTriangle[i]) {
+                Node node1 = idToNode.get(i);
+                Node node2 = idToNode.get(j);
+                if (node1.getMinPosition() < node2.getMinPosition()) {
+                    newLoops.add(new Feature2D(Feature2D.FeatureType.PEAK,
+                            chrom, node1.getMinPosition() - resolution, node1.getMaxPosition() + resolution,
+                            chrom, node2.getMinPosition() - resolution, node2.getMaxPosition() + resolution,
+                            Color.BLACK, new HashMap<>()));
+                } else {
+                    newLoops.add(new Feature2D(Feature2D.FeatureType.PEAK,
+                            chrom, node2.getMinPosition() - resolution, node2.getMaxPosition() + resolution,
+                            chrom, node1.getMinPosition() - resolution, node1.getMaxPosition() + resolution,
+                            Color.BLACK, new HashMap<>()));
                 }
             }
         }
@@ -2,7 +2,7 @@ package cli.clt.loops;
 
 import cli.clt.CommandLineParser;
 import cli.utils.hotspot.HotSpotUtils;
-import cli.utils.sift.SimpleLocation;
+import cli.utils.hotspot.StreamingHotSpotAccumulator;
 import javastraw.expected.ExpectedModel;
 import javastraw.expected.ExpectedUtils;
 import javastraw.expected.LogExpectedSpline;
@@ -11,6 +11,7 @@ import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.Chromosome;
+import javastraw.reader.block.Block;
 import javastraw.reader.block.ContactRecord;
 import javastraw.reader.mzd.Matrix;
 import javastraw.reader.mzd.MatrixZoomData;
@@ -89,32 +90,60 @@ public class HotSpot {
 
     private static List<Feature2D> findTheHotspots(Chromosome chrom, Dataset[] datasets, int resolution,
                                                    NormalizationType norm, int countThreshold) {
-        Map<SimpleLocation, Welford> results = new HashMap<>();
         int minBin = MIN_DIST / resolution;
         int maxBin = MAX_DIST / resolution;
 
-        for (Dataset ds : datasets) {
-            Matrix matrix = ds.getMatrix(chrom, chrom, resolution);
-            if (matrix != null) {
-                MatrixZoomData zd = matrix.getZoomData(new HiCZoom(resolution));
-                if (zd != null) {
-                    // iterating through chrom using type 1 iteration
+        Matrix[] matrices = new Matrix[datasets.length];
+        MatrixZoomData[] zds = new MatrixZoomData[datasets.length];
+        ExpectedModel[] polys = new ExpectedModel[datasets.length];
+        double[][] vectors1 = new double[datasets.length][];
+        double[][] vectors2 = new double[datasets.length][];
+
+        for (int k = 0; k < datasets.length; k++) {
+            Dataset ds = datasets[k];
+            matrices[k] = ds.getMatrix(chrom, chrom, resolution);
+            if (matrices[k] != null) {
+                zds[k] = matrices[k].getZoomData(new HiCZoom(resolution));
+                if (zds[k] != null) {
                     NormalizationType scaleNorm = ds.getNormalizationHandler().getNormTypeFromString("SCALE");
                     NormalizationType vcNorm = ds.getNormalizationHandler().getNormTypeFromString("VC");
 
-                    double[] vector1 = ds.getNormalizationVector(chrom.getIndex(), new HiCZoom(resolution), scaleNorm).getData().getValues().get(0);
-                    double[] vector2 = ds.getNormalizationVector(chrom.getIndex(), new HiCZoom(resolution), vcNorm).getData().getValues().get(0);
+                    vectors1[k] = ds.getNormalizationVector(chrom.getIndex(), new HiCZoom(resolution), scaleNorm).getData().getValues().get(0);
+                    vectors2[k] = ds.getNormalizationVector(chrom.getIndex(), new HiCZoom(resolution), vcNorm).getData().getValues().get(0);
+                    polys[k] = new LogExpectedSpline(zds[k], norm, chrom, resolution);
+                }
+            }
+        }
 
-                    iterateThruAndGrabPercentContact(zd, maxBin, minBin, norm, results, vector1, vector2, chrom, resolution);
+        // walk all datasets in lockstep, one slab of rows at a time
+        StreamingHotSpotAccumulator accumulator = new StreamingHotSpotAccumulator(minBin, maxBin,
+                datasets.length, countThreshold);
+        int numBins = (int) (chrom.getLength() / resolution) + 1;
+        int slabRows = accumulator.getSlabRows();
+        for (int rowStart = 0; rowStart < numBins; rowStart += slabRows) {
+            int rowEnd = Math.min(numBins, rowStart + slabRows);
+            accumulator.startSlab(rowStart, rowEnd);
+            for (int k = 0; k < datasets.length; k++) {
+                if (zds[k] != null) {
+                    grabPercentContactForSlab(zds[k], k, rowStart, rowEnd, minBin, maxBin, norm,
+                            accumulator, vectors1[k], vectors2[k], polys[k]);
+                    if (rowEnd < numBins && crossesBlockRow(zds[k], rowStart, rowEnd)) {
+                        zds[k].clearCache();
+                    }
                 }
-                matrix.clearCache();
             }
+            accumulator.finishSlab();
         }
 
-        initialHighIntensityFilter(results, countThreshold);
+        for (Matrix matrix : matrices) {
+            if (matrix != null) {
+                matrix.clearCache();
+                System.out.print(".");
+            }
+        }
 
-        Set<ContactRecord> candidateHotSpotsSet = secondPassLowRangeFilter(results);
-        Set<ContactRecord> ubiquitousPeaksSet = findUbiquitousLoops(results);
+        Set<ContactRecord> candidateHotSpotsSet = accumulator.getCandidateHotSpots();
+        Set<ContactRecord> ubiquitousPeaksSet = accumulator.getUbiquitousPeaks();
 
         Set<ContactRecord> records = new HashSet<>(candidateHotSpotsSet);
         records.addAll(ubiquitousPeaksSet);
@@ -126,80 +155,23 @@ public class HotSpot {
         List<Feature2D> hotspots = new ArrayList<>();
         if (records.size() > 1) {
             for (ContactRecord record : records) {
-                SimpleLocation location = new SimpleLocation(record.getBinX(), record.getBinY());
-                Welford welford = results.get(location);
+                Welford welford = accumulator.getStats(record.getBinX(), record.getBinY());
                 Map<String, String> attributes = getStats(welford);
-                long startX = (long) location.getBinX() * resolution;
+                long startX = (long) record.getBinX() * resolution;
                 long endX = startX + resolution;
-                long startY = (long) location.getBinY() * resolution;
+                long startY = (long) record.getBinY() * resolution;
                 long endY = startY + resolution;
                 Feature2D feature = new Feature2D(Feature2D.FeatureType.PEAK, chrom.getName(), startX, endX, chrom.getName(), startY, endY, Color.BLACK, attributes);
                 hotspots.add(feature);
             }
         }
+        accumulator.clear();
         return hotspots;
     }
 
-    private static Set<ContactRecord> findUbiquitousLoops(Map<SimpleLocation, Welford> results) {
-        Set<ContactRecord> ubiquitousLoopsSet = new HashSet<>();
-        for (SimpleLocation key : results.keySet()) {
-            double range = results.get(key).getRange();
-            double min = results.get(key).getMin();
-            if (range < .05 && min > .05) {
-                ubiquitousLoopsSet.add(new ContactRecord(key.getBinX(), key.getBinY(),
-                        (float) results.get(key).getMax()));
-            }
-        }
-        return ubiquitousLoopsSet;
-    }
-
-    private static Set<ContactRecord> secondPassLowRangeFilter(Map<SimpleLocation, Welford> results) {
-        Set<ContactRecord> candidateRecordsSet = new HashSet<>();
-        for (SimpleLocation key : results.keySet()) {
-            double range = results.get(key).getRange();
-            double min = results.get(key).getMin();
-            if (range > .05 && min < .05) {
-                candidateRecordsSet.add(new ContactRecord(key.getBinX(), key.getBinY(),
-                        (float) results.get(key).getMax()));
-            }
-
-            /*
-            if (range < .05 || min > .05) {
-                results.remove(key);
-                removeList.add(key);
-            }
-            */
-        }
-        return candidateRecordsSet;
-    }
-
-    private static void initialHighIntensityFilter(Map<SimpleLocation, Welford> results, int countThreshold) {
-        List<SimpleLocation> removeList = new ArrayList<>();
-        for (SimpleLocation key : results.keySet()) {
-            double range = results.get(key).getRange();
-            int counts = (int) results.get(key).getCounts();
-            double max = results.get(key).getMax();
-            if (range > 0.35 || counts < countThreshold || max > 0.35) {
-                removeList.add(key);
-            }
-        }
-        removeAllAndClear(results, removeList);
-    }
-
-    private static Set<ContactRecord> convert(Set<SimpleLocation> locations, Map<SimpleLocation, Welford> results) {
-        Set<ContactRecord> records = new HashSet<>();
-        for (SimpleLocation location : locations) {
-            records.add(new ContactRecord(location.getBinX(), location.getBinY(),
-                    (float) results.get(location).getMax()));
-        }
-        return records;
-    }
-
-    private static void removeAllAndClear(Map<SimpleLocation, Welford> results, List<SimpleLocation> removeList) {
-        for (SimpleLocation key : removeList) {
-            results.remove(key);
-        }
-        removeList.clear();
+    private static boolean crossesBlockRow(MatrixZoomData zd, int rowStart, int rowEnd) {
+        int blockBinCount = Math.max(1, zd.getBlockBinCount());
+        return rowStart / blockBinCount != rowEnd / blockBinCount;
     }
 
     private static Map<String, String> getStats(Welford welford) {
@@ -211,33 +183,28 @@ public class HotSpot {
         return attributes;
     }
 
-    private static void iterateThruAndGrabPercentContact(MatrixZoomData zd, int maxBin, int minBin,
-                                                         NormalizationType norm,
-                                                         Map<SimpleLocation, Welford> results,
-                                                         double[] vector1, double[] vector2,
-                                                         Chromosome chrom, int resolution) {
-
-        ExpectedModel poly = new LogExpectedSpline(zd, norm, chrom, resolution);
-
-        Iterator<ContactRecord> iterator = zd.getNormalizedIterator(norm);
-        while (iterator.hasNext()) {
-            ContactRecord cr = iterator.next();
-            if (cr.getCounts() > 0) {
-                int dist = ExpectedUtils.getDist(cr);
-                if (vector1[cr.getBinX()] > 1 && vector1[cr.getBinY()] > 1 && vector2[cr.getBinX()] > 1 && vector2[cr.getBinY()] > 1) {
-                    if (dist > minBin && dist < maxBin) {
-                        float percentContact = poly.getPercentContact(cr);
-                        percentContact = Math.min(1, Math.max(0, percentContact));
-                        //percentContact2 = Math.exp(percentContact0 - 1);
-
-                        SimpleLocation location = new SimpleLocation(cr);
-                        results.putIfAbsent(location, new Welford());
-                        results.get(location).addValue(percentContact);
+    private static void grabPercentContactForSlab(MatrixZoomData zd, int datasetIndex, int rowStart, int rowEnd,
+                                                  int minBin, int maxBin, NormalizationType norm,
+                                                  StreamingHotSpotAccumulator accumulator,
+                                                  double[] vector1, double[] vector2, ExpectedModel poly) {
+
+        List<Block> blocks = zd.getNormalizedBlocksOverlapping(rowStart, rowStart + minBin + 1,
+                rowEnd, rowEnd + maxBin, norm, false);
+        for (Block block : blocks) {
+            if (block == null) continue;
+            for (ContactRecord cr : block.getContactRecords()) {
+                if (cr.getCounts() > 0 && accumulator.isInSlab(cr.getBinX())) {
+                    int dist = ExpectedUtils.getDist(cr);
+                    if (vector1[cr.getBinX()] > 1 && vector1[cr.getBinY()] > 1 && vector2[cr.getBinX()] > 1 && vector2[cr.getBinY()] > 1) {
+                        if (dist > minBin && dist < maxBin) {
+                            float percentContact = poly.getPercentContact(cr);
+                            percentContact = Math.min(1, Math.max(0, percentContact));
+                            accumulator.add(datasetIndex, cr.getBinX(), cr.getBinY(), percentContact);
+                        }
                     }
                 }
             }
         }
-        System.out.print(".");
-        //System.out.println("Finished recording locations for this file");
+        blocks.clear();
     }
 }
@@ -5,13 +5,15 @@ import cli.clt.CommandLineParser;
 import cli.utils.FeatureStats;
 import cli.utils.flags.RegionConfiguration;
 import cli.utils.general.HiCUtils;
+import cli.utils.general.LoopListCache;
 import cli.utils.general.QuickGrouping;
 import cli.utils.general.Utils;
 import cli.utils.pinpoint.Convolution2DTools;
+import cli.utils.pinpoint.ConvolutionScratch;
+import cli.utils.pinpoint.DenseTile;
 import cli.utils.pinpoint.LandScape;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
@@ -27,6 +29,7 @@ import javastraw.tools.ParallelizationTools;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -34,7 +37,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class Pinpoint {
     private static final NormalizationType NONE = NormalizationHandler.NONE;
-    public static String usage = "pinpoint [--only-one] [--res int] <input.hic> <loops.bedpe> <outstem>";
+    public static String usage = "pinpoint[-tiled] [--only-one] [--res int] <input.hic> <loops.bedpe> <outstem>";
+    private static final int TILE_SCALE = 4;
 
     public static void run(String[] args, CommandLineParser parser) {
         if (args.length != 4) {
@@ -48,8 +52,9 @@ public class Pinpoint {
         ChromosomeHandler handler = dataset.getChromosomeHandler();
 
         boolean onlyGetOne = parser.getOnlyOneOption();
+        boolean useTiles = args[0].toLowerCase().contains("tile");
 
-        Feature2DList loopList = Feature2DParser.loadFeatures(loopListPath, handler,
+        Feature2DList loopList = LoopListCache.loadFeatures(loopListPath, handler,
                 true, null, false);
 
         System.out.println("Number of loops: " + loopList.getNumTotalFeatures());
@@ -65,7 +70,7 @@ public class Pinpoint {
         final Feature2DList pinpointBounds = new Feature2DList();
 
         localize(dataset, loopList, handler, resolution, onlyGetOne, pinpointLoopsNoNorm, pinpointBounds,
-                halfMatrixWidth);
+                halfMatrixWidth, useTiles);
         pinpointLoopsNoNorm.exportFeatureList(new File(outFile + "_raw.bedpe"), false, Feature2DList.ListFormat.NA);
         pinpointBounds.exportFeatureList(new File(outFile + "_bounds.bedpe"), false, Feature2DList.ListFormat.NA);
         System.out.println("pinpoint complete");
@@ -88,7 +93,7 @@ public class Pinpoint {
     private static void localize(final Dataset dataset, Feature2DList loopList, ChromosomeHandler handler,
                                  int resolution, boolean onlyGetOne,
                                  Feature2DList finalLoops, Feature2DList finalBounds,
-                                 int halfMatrixWidth) {
+                                 int halfMatrixWidth, boolean useTiles) {
 
         if (Main.printVerboseComments) {
             System.out.println("Pinpointing location for loops");
@@ -117,6 +122,9 @@ public class Pinpoint {
 
 
         ParallelizationTools.launchParallelizedCode(() -> {
+            // reused by every group this thread handles
+            DenseTile tile = useTiles ? new DenseTile() : null;
+            ConvolutionScratch scratch = useTiles ? new ConvolutionScratch() : null;
 
             int threadPair = currChromPair.getAndIncrement();
             while (threadPair < chromosomePairCounter) {
@@ -133,6 +141,9 @@ public class Pinpoint {
                             try {
                                 Collection<List<Feature2D>> loopGroups = QuickGrouping.groupNearbyRecords(
                                         loops, matrixWidth * resolution).values();
+                                if (useTiles) {
+                                    loopGroups = sortGroupsForTiling(loopGroups);
+                                }
 
                                 List<Feature2D> pinpointedLoops = new ArrayList<>();
                                 List<Feature2D> pinpointedBounds = new ArrayList<>();
@@ -145,11 +156,22 @@ public class Pinpoint {
                                     int maxR = (int) ((FeatureStats.maxEnd1(group) / resolution) + halfMatrixWidth);
                                     int maxC = (int) ((FeatureStats.maxEnd2(group) / resolution) + halfMatrixWidth);
 
-                                    List<ContactRecord> records = Utils.getRecords(zd, minR, minC, maxR, maxC, NONE);
-
-                                    LandScape.extractMaxima(records, minR, minC, resolution,
-                                            pinpointedLoops, pinpointedBounds, loop, saveString,
-                                            onlyGetOne, matrixWidth, kernel, compressedKernel);
+                                    if (useTiles) {
+                                        if (!tile.contains(minR, minC, maxR, maxC)) {
+                                            int tileWidth = TILE_SCALE * matrixWidth;
+                                            tile.load(zd, minR, minC, Math.max(tileWidth, maxR - minR),
+                                                    Math.max(tileWidth, maxC - minC), NONE);
+                                        }
+                                        LandScape.extractMaxima(tile.getRegion(minR, minC, maxR, maxC), minR, minC,
+                                                resolution, pinpointedLoops, pinpointedBounds, loop, saveString,
+                                                onlyGetOne, matrixWidth, kernel, compressedKernel, scratch);
+                                    } else {
+                                        List<ContactRecord> records = Utils.getRecords(zd, minR, minC, maxR, maxC, NONE);
+
+                                        LandScape.extractMaxima(records, minR, minC, resolution,
+                                                pinpointedLoops, pinpointedBounds, loop, saveString,
+                                                onlyGetOne, matrixWidth, kernel, compressedKernel);
+                                    }
                                     if (currNumLoops.addAndGet(group.size()) % 100 == 0) {
                                         System.out.print(((int) Math.floor((100.0 * currNumLoops.get()) / numTotalLoops)) + "% ");
                                     }
@@ -169,11 +191,24 @@ public class Pinpoint {
                     }
                     matrix.clearCache();
                 }
+                if (tile != null) {
+                    tile.reset();
+                }
                 threadPair = currChromPair.getAndIncrement();
             }
         });
     }
 
+    /**
+     * Order groups by their top-left corner so consecutive groups usually fall in the same tile
+     */
+    private static List<List<Feature2D>> sortGroupsForTiling(Collection<List<Feature2D>> groups) {
+        List<List<Feature2D>> sorted = new ArrayList<>(groups);
+        sorted.sort(Comparator.comparingLong((List<Feature2D> g) -> FeatureStats.minStart1(g))
+                .thenComparingLong(FeatureStats::minStart2));
+        return sorted;
+    }
+
     private static String generateLoopInfo(Feature2D loop) {
         String info = loop.simpleString();
         String[] saveStrings = info.split("\\s+");
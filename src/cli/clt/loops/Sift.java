@@ -5,6 +5,7 @@ import cli.clt.CommandLineParser;
 import cli.utils.sift.ContactRecordBox;
 import cli.utils.sift.ExtremePixels;
 import cli.utils.sift.FeatureUtils;
+import cli.utils.sift.PixelBuffer;
 import cli.utils.sift.SimpleLocation;
 import cli.utils.sift.collapse.MultiResCentroidCollapser;
 import javastraw.expected.ExpectedModel;
@@ -14,7 +15,6 @@ import javastraw.feature2D.Feature2DList;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
-import javastraw.reader.block.ContactRecord;
 import javastraw.reader.mzd.Matrix;
 import javastraw.reader.mzd.MatrixZoomData;
 import javastraw.reader.type.HiCZoom;
@@ -54,6 +54,8 @@ public class Sift {
     private NormalizationType norm = NormalizationHandler.NONE;
     private static final int MAX_DIST = 10000000;
     private static final int MIN_DIST = 10000;
+    // rough peak heap of one (chromosome, resolution) task at the finest resolutions
+    private static final long MEMORY_PER_TASK = 1L << 30;
 
     public Sift(String[] args, CommandLineParser parser) {
         if (args.length != 3) {
@@ -79,73 +81,97 @@ public class Sift {
 
         Chromosome[] chromosomes = handler.getChromosomeArrayWithoutAllByAll();
 
-        AtomicInteger cIndex = new AtomicInteger(0);
-        ParallelizationTools.launchParallelizedCode(() -> {
-            int currIndex = cIndex.getAndIncrement();
-            while (currIndex < chromosomes.length) {
-                Chromosome chromosome = chromosomes[currIndex];
-                List<Feature2D> sharpLoops = findSiftedFeatures(chromosome, ds, outname);
-                if (sharpLoops.size() > 0) {
-                    synchronized (output) {
-                        output.addByKey(Feature2DList.getKey(chromosome, chromosome), sharpLoops);
+        // one queue of (chromosome, resolution) tasks; whichever thread finishes the last resolution
+        // of a chromosome collapses it, so its pixels are released while other tasks keep running
+        int numTasks = chromosomes.length * resolutions.length;
+        PixelBuffer[][] buffers = new PixelBuffer[chromosomes.length][];
+        AtomicInteger[] resolutionsLeft = new AtomicInteger[chromosomes.length];
+        for (int c = 0; c < chromosomes.length; c++) {
+            buffers[c] = new PixelBuffer[resolutions.length];
+            resolutionsLeft[c] = new AtomicInteger(resolutions.length);
+        }
+
+        int numThreads = getNumThreads();
+        AtomicInteger tIndex = new AtomicInteger(0);
+        AtomicInteger numRunning = new AtomicInteger(0);
+        ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+            int currIndex = tIndex.getAndIncrement();
+            while (currIndex < numTasks) {
+                int c = currIndex / resolutions.length;
+                int r = currIndex % resolutions.length;
+
+                numRunning.incrementAndGet();
+                buffers[c][r] = findExtremePixels(chromosomes[c], resolutions[r], ds,
+                        getIdleThreads(numThreads, numRunning, tIndex, numTasks));
+
+                if (resolutionsLeft[c].decrementAndGet() == 0) {
+                    List<Feature2D> sharpLoops = collapseResolutions(chromosomes[c], buffers[c], ds,
+                            getIdleThreads(numThreads, numRunning, tIndex, numTasks));
+                    buffers[c] = null;
+                    if (sharpLoops.size() > 0) {
+                        synchronized (output) {
+                            output.addByKey(Feature2DList.getKey(chromosomes[c], chromosomes[c]), sharpLoops);
+                        }
                     }
                 }
-                currIndex = cIndex.getAndIncrement();
+                numRunning.decrementAndGet();
+                currIndex = tIndex.getAndIncrement();
             }
         });
 
         return output;
     }
 
-    private List<Feature2D> findSiftedFeatures(Chromosome chromosome, Dataset ds, String outname) {
-        Matrix matrix = ds.getMatrix(chromosome, chromosome);
-        if (matrix == null) return new ArrayList<>();
+    /**
+     * Threads a collapse may use: just its own while the queue has work, plus every idle thread once
+     * it is drained
+     */
+    private static int getIdleThreads(int numThreads, AtomicInteger numRunning, AtomicInteger tIndex, int numTasks) {
+        if (tIndex.get() < numTasks) return 1;
+        return Math.max(1, numThreads - numRunning.get() + 1);
+    }
 
-        final Map<Integer, Set<ContactRecord>> pixelsForResolutions = new HashMap<>();
+    private static int getNumThreads() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        int byMemory = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxMemory / MEMORY_PER_TASK));
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), byMemory));
+    }
 
-        AtomicInteger rIndex = new AtomicInteger(0);
-        ParallelizationTools.launchParallelizedCode(() -> {
-            int currResIndex = rIndex.getAndIncrement();
-            while (currResIndex < resolutions.length) {
-                int lowRes = resolutions[currResIndex];
+    private PixelBuffer findExtremePixels(Chromosome chromosome, int res, Dataset ds, int collapseThreads) {
+        Matrix matrix = ds.getMatrix(chromosome, chromosome);
+        if (matrix == null) return null;
 
-                MatrixZoomData zd = matrix.getZoomData(new HiCZoom(lowRes));
-                if (zd != null) {
-                    ExpectedModel poly = new LogExpectedSpline(zd, norm, chromosome, lowRes);
-                    Set<ContactRecord> points = ExtremePixels.getExtremePixelsForResolution(ds, zd,
-                            chromosome, lowRes, norm, MAX_DIST / lowRes, MIN_DIST / lowRes, poly);
-                    matrix.clearCacheForZoom(new HiCZoom(lowRes));
+        MatrixZoomData zd = matrix.getZoomData(new HiCZoom(res));
+        if (zd == null) return null;
 
-                    synchronized (pixelsForResolutions) {
-                        pixelsForResolutions.put(lowRes, points);
-                        System.out.println(lowRes + " found (" + points.size() + ")");
-                    }
-                }
-                currResIndex = rIndex.getAndIncrement();
-            }
-        });
+        ExpectedModel poly = new LogExpectedSpline(zd, norm, chromosome, res);
+        PixelBuffer points = ExtremePixels.getExtremePixelsForResolution(ds, zd,
+                chromosome, res, norm, MAX_DIST / res, MIN_DIST / res, poly, collapseThreads);
+        matrix.clearCacheForZoom(new HiCZoom(res));
 
+        System.out.println(res + " found (" + points.size() + ")");
+        return points;
+    }
+
+    private List<Feature2D> collapseResolutions(Chromosome chromosome, PixelBuffer[] buffers, Dataset ds,
+                                                int numThreads) {
+        Matrix matrix = ds.getMatrix(chromosome, chromosome);
+        if (matrix == null) return new ArrayList<>();
         matrix.clearCache();
 
-        Set<ContactRecordBox> allRecords = collapse(pixelsForResolutions);
-        pixelsForResolutions.clear();
+        Set<ContactRecordBox> allRecords = new HashSet<>();
+        for (PixelBuffer buffer : buffers) {
+            if (buffer != null) {
+                buffer.addBoxesTo(allRecords);
+            }
+        }
 
-        Set<ContactRecordBox> finalBoxes = MultiResCentroidCollapser.coalesce(allRecords, NUM_RES_TO_PASS);
+        Set<ContactRecordBox> finalBoxes = MultiResCentroidCollapser.coalesce(allRecords, NUM_RES_TO_PASS, numThreads);
         allRecords.clear();
 
         return FeatureUtils.convertToFeature2Ds(finalBoxes, chromosome);
     }
 
-    private Set<ContactRecordBox> collapse(Map<Integer, Set<ContactRecord>> recordMap) {
-        HashSet<ContactRecordBox> records = new HashSet<>();
-        for (Integer res : recordMap.keySet()) {
-            for (ContactRecord record : recordMap.get(res)) {
-                records.add(new ContactRecordBox(record, res));
-            }
-        }
-        return records;
-    }
-
     private Feature2DList convert(Set<SimpleLocation> locations, Chromosome chromosome, int res) {
         Feature2DList list = new Feature2DList();
         List<Feature2D> features = new ArrayList<>();
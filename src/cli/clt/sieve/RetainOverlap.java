@@ -2,6 +2,7 @@ package cli.clt.sieve;
 
 import cli.Main;
 import cli.clt.CommandLineParser;
+import cli.utils.general.Feature2DIntervalIndex;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
 import javastraw.feature2D.Feature2DParser;
@@ -9,10 +10,9 @@ import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.basics.ChromosomeTools;
 
 import java.io.File;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 
 public class RetainOverlap {
     public static String usage = "retain-exact-overlap <genomeID> <file1.bedpe> <file2.bedpe> " +
@@ -44,10 +44,11 @@ public class RetainOverlap {
 
         Feature2DList retained = new Feature2DList();
         loopList1.processLists((key, list) -> {
-            Set<String> anchors = getLoopCodes(loopList2.get(key));
+            List<Feature2D> others = loopList2.get(key);
+            Feature2DIntervalIndex index = new Feature2DIntervalIndex(others == null ? new ArrayList<>() : others);
             List<Feature2D> toKeep = new LinkedList<>();
             for (Feature2D loop : list) {
-                if (anchors.contains(getLoopCode(loop))) {
+                if (index.hasExactMatch(loop)) {
                     toKeep.add(loop);
                 }
             }
@@ -57,14 +58,6 @@ public class RetainOverlap {
         retained.exportFeatureList(new File(outPath), false, Feature2DList.ListFormat.NA);
     }
 
-    private static Set<String> getLoopCodes(List<Feature2D> feature2DS) {
-        Set<String> codes = new HashSet<>();
-        for (Feature2D loop : feature2DS) {
-            codes.add(getLoopCode(loop));
-        }
-        return codes;
-    }
-
     public static String getLoopCode(Feature2D loop) {
         return loop.getChr1() + "_" + loop.getStart1() + "_" + loop.getEnd1() + "_" +
                 loop.getChr2() + "_" + loop.getStart2() + "_" + loop.getEnd2();
@@ -3,16 +3,18 @@ package cli.clt.sieve;
 import cli.Main;
 import cli.clt.CommandLineParser;
 import cli.utils.FeatureStats;
+import cli.utils.data.LoopAttributeTable;
 import cli.utils.data.SparseContactMatrixWithMasking;
+import cli.utils.data.SparseContactStore;
 import cli.utils.flags.RegionConfiguration;
 import cli.utils.general.HiCUtils;
+import cli.utils.general.LoopListCache;
 import cli.utils.general.QuickGrouping;
 import cli.utils.general.ZscoreTools;
 import javastraw.expected.LogExpectedZscoreSpline;
 import javastraw.expected.Welford;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.Dataset;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.basics.ChromosomeHandler;
@@ -37,8 +39,11 @@ public class Sieve {
     private static final float oeHighCutoff = (float) Math.log(2);
     // [-strict][-peek]
     // ; peek just saves values\n\t\tstrict requires each resolution to meet the criteria
-    public static String usage = "sieve[-easy][-skip-global] [--threads num_threads] [-k NORM] <loops.bedpe> <out.stem> <file.hic> [res1,...]\n" +
+    public static String usage = "sieve[-easy][-skip-global][-single-pass] [--threads num_threads] [-k NORM] <loops.bedpe> <out.stem> <file.hic> [res1,...]\n" +
             "\t\tretain loop if at a loop-y location\n" +
+            "\t\tsingle-pass reads only the finest resolution and sums it into the coarser ones (must be multiples);\n" +
+            "\t\tcoarse values then come from the finest resolution's normalization, so they differ from sieve's,\n" +
+            "\t\tand global z-score/percent contact are only reported at the finest resolution\n" +
             "\t\tsieve-post-filter <loops.bedpe> <out.stem> <genomeID>";
     private static int zLowCutoff = 1;
     public static String GLOBAL_OE = "_sieve_obs_over_global_expected";
@@ -51,6 +56,8 @@ public class Sieve {
 
     public int[] resolutions = new int[]{1000, 2000, 5000, 10000};
     private static boolean skipGlobal = false;
+    private static boolean singlePass = false;
+    private LoopAttributeTable attributes;
 
     public Sieve(String[] args, CommandLineParser parser, String command) {
         // sieve <loops.bedpe> <output.bedpe> <file1.hic> <res1,res2,...>
@@ -70,12 +77,17 @@ public class Sieve {
             skipGlobal = true;
         }
 
+        if (command.contains("single")) {
+            singlePass = true;
+        }
+
         numThreads = parser.getNumThreads(numThreads);
 
         if (command.contains("post")) {
             // just filter using values in list
             ChromosomeHandler handler = ChromosomeTools.loadChromosomes(hicPath);
-            Feature2DList result = Feature2DParser.loadFeatures(loopListPath, handler, true, null, false);
+            Feature2DList result = LoopListCache.loadFeatures(loopListPath, handler, true, null, false);
+            attributes = new LoopAttributeTable(result);
             Feature2DList[] goodAndBad = filterByScore(result);
             goodAndBad[0].exportFeatureList(new File(outStem + ".good.loops.bedpe"), false, Feature2DList.ListFormat.NA);
             goodAndBad[1].exportFeatureList(new File(outStem + ".weak.loops.bedpe"), false, Feature2DList.ListFormat.NA);
@@ -85,10 +97,15 @@ public class Sieve {
             if (args.length > 4) {
                 resolutions = parseInts(args[4]);
             }
+            if (singlePass && !allMultiplesOfFinest(resolutions)) {
+                System.err.println("Single pass requires every resolution to be a multiple of " + getFinest(resolutions)
+                        + "; reading each resolution separately");
+                singlePass = false;
+            }
 
             Dataset ds = HiCFileTools.extractDatasetForCLT(hicPath, false, false, true);
             ChromosomeHandler handler = ds.getChromosomeHandler();
-            Feature2DList loopList = Feature2DParser.loadFeatures(loopListPath, handler, true, null, false);
+            Feature2DList loopList = LoopListCache.loadFeatures(loopListPath, handler, true, null, false);
 
             String possibleNorm = parser.getNormalizationStringOption();
             NormalizationType norm = NormalizationHandler.VC;
@@ -106,7 +123,9 @@ public class Sieve {
                 window = 10;
             }
 
-            Feature2DList result = sieveFilter(ds, loopList, handler, resolutions, window, norm);
+            attributes = new LoopAttributeTable(loopList);
+            Feature2DList result = sieveFilter(ds, loopList, handler, resolutions, window, norm, attributes);
+            attributes.writeToAll();
             result.exportFeatureList(new File(outStem + ".attributes.bedpe"), false, Feature2DList.ListFormat.NA);
 
             if (command.contains("easy")) {
@@ -119,7 +138,7 @@ public class Sieve {
 
     private static Feature2DList sieveFilter(Dataset ds, Feature2DList loopList,
                                              ChromosomeHandler handler, int[] resolutions, int window,
-                                             NormalizationType norm) {
+                                             NormalizationType norm, LoopAttributeTable attributes) {
 
         if (Main.printVerboseComments) {
             System.out.println("Start Sieve process");
@@ -149,69 +168,35 @@ public class Sieve {
                 boolean thisChromHadData = true;
 
                 if (matrix != null) {
-                    for (int resolution : resolutions) {
-                        HiCZoom zoom = new HiCZoom(resolution);
-                        MatrixZoomData zd = matrix.getZoomData(zoom);
-                        if (zd != null) {
-
-                            NormalizationVector nv1 = ds.getNormalizationVector(chrom1.getIndex(), zoom, norm);
-                            NormalizationVector nv2 = ds.getNormalizationVector(chrom2.getIndex(), zoom, norm);
-
-                            if (nv1 == null) {
-                                System.err.println("Error getting normalization " + norm.getLabel() + " for " + chrom1.getName() + " at " + resolution);
-                                thisChromHadData = false;
-                            } else if (nv2 == null) {
-                                System.err.println("Error getting normalization " + norm.getLabel() + " for " + chrom2.getName() + " at " + resolution);
-                                thisChromHadData = false;
-                            } else if (loopsToAssessGlobal.size() > 0) {
-                                setDefaultAttributes(loopsToAssessGlobal, resolution);
-                                Collection<List<Feature2D>> loopGroups = QuickGrouping.groupNearbyRecords(
-                                        loopsToAssessGlobal, 500 * resolution).values();
-
-                                LogExpectedZscoreSpline poly = null;
-                                if (!skipGlobal) {
-                                    poly = new LogExpectedZscoreSpline(zd, norm, chrom1, resolution);
-                                }
-                                SparseContactMatrixWithMasking sparseMatrix = new SparseContactMatrixWithMasking(zd,
-                                        loopsToAssessGlobal, resolution, buffer, 2 * buffer + 1, norm,
-                                        chrom1.getIndex() == chrom2.getIndex());
-
-                                for (List<Feature2D> group : loopGroups) {
-                                    int minR = (int) ((FeatureStats.minStart1(group) / resolution) - buffer);
-                                    int minC = (int) ((FeatureStats.minStart2(group) / resolution) - buffer);
-                                    int maxR = (int) ((FeatureStats.maxEnd1(group) / resolution) + buffer);
-                                    int maxC = (int) ((FeatureStats.maxEnd2(group) / resolution) + buffer);
-                                    float[][] regionMatrix = sparseMatrix.getRegion(minR, minC, maxR, maxC);
-                                    for (Feature2D loop : group) {
-                                        int absCoordBinX = (int) (loop.getMidPt1() / resolution);
-                                        int absCoordBinY = (int) (loop.getMidPt2() / resolution);
-                                        int dist = Math.abs(absCoordBinX - absCoordBinY);
-                                        int midX = absCoordBinX - minR;
-                                        int midY = absCoordBinY - minC;
-
-                                        float observed = regionMatrix[midX][midY];
-
-                                        Welford localWelford = ZscoreTools.getLocalWelford(regionMatrix, midX, midY, window);
-                                        float localOE = (float) (observed / localWelford.getMean());
-                                        float localZScore = (float) localWelford.getZscore().getZscore(observed);
-                                        loop.addStringAttribute(resolution + LOCAL_Z, "" + localZScore);
-                                        loop.addStringAttribute(resolution + LOCAL_OE, "" + localOE);
-
-                                        if (poly != null) {
-                                            float globalOE = (float) (observed / poly.getExpectedFromUncompressedBin(dist));
-                                            float globalZScore = (float) poly.getZscoreForObservedUncompressedBin(dist, observed);
-                                            loop.addStringAttribute(resolution + GLOBAL_Z, "" + globalZScore);
-                                            loop.addStringAttribute(resolution + GLOBAL_OE, "" + globalOE);
-
-                                            loop.addStringAttribute(resolution + GLOBAL_PERCENT, "" + poly.getPercentContact(dist, observed));
-                                        }
+                    if (singlePass) {
+                        thisChromHadData = sieveAllResolutionsFromFinest(ds, matrix, chrom1, chrom2,
+                                loopsToAssessGlobal, resolutions, window, norm, attributes);
+                    } else {
+                        for (int resolution : resolutions) {
+                            HiCZoom zoom = new HiCZoom(resolution);
+                            MatrixZoomData zd = matrix.getZoomData(zoom);
+                            if (zd != null) {
+                                if (!hasNormVectors(ds, chrom1, chrom2, zoom, norm)) {
+                                    thisChromHadData = false;
+                                } else if (loopsToAssessGlobal.size() > 0) {
+                                    setDefaultAttributes(loopsToAssessGlobal, resolution, attributes);
+
+                                    LogExpectedZscoreSpline poly = null;
+                                    if (!skipGlobal) {
+                                        poly = new LogExpectedZscoreSpline(zd, norm, chrom1, resolution);
                                     }
-                                    regionMatrix = null;
+                                    SparseContactMatrixWithMasking sparseMatrix = new SparseContactMatrixWithMasking(zd,
+                                            loopsToAssessGlobal, resolution, buffer, 2 * buffer + 1, norm,
+                                            chrom1.getIndex() == chrom2.getIndex());
+
+                                    scoreLoops(loopsToAssessGlobal, resolution, buffer, window,
+                                            sparseMatrix::getRegion, poly, null, attributes);
+                                    sparseMatrix.eraseAll();
+                                    System.out.print(".");
                                 }
-                                System.out.print(".");
                             }
+                            matrix.clearCacheForZoom(zoom);
                         }
-                        matrix.clearCacheForZoom(zoom);
                     }
                     matrix.clearCache();
 
@@ -236,13 +221,147 @@ public class Sieve {
         return newLoopList;
     }
 
-    private static void setDefaultAttributes(Set<Feature2D> loops, int resolution) {
+    private static boolean hasNormVectors(Dataset ds, Chromosome chrom1, Chromosome chrom2, HiCZoom zoom,
+                                          NormalizationType norm) {
+        NormalizationVector nv1 = ds.getNormalizationVector(chrom1.getIndex(), zoom, norm);
+        NormalizationVector nv2 = ds.getNormalizationVector(chrom2.getIndex(), zoom, norm);
+        if (nv1 == null) {
+            System.err.println("Error getting normalization " + norm.getLabel() + " for " + chrom1.getName() + " at " + zoom.getBinSize());
+            return false;
+        } else if (nv2 == null) {
+            System.err.println("Error getting normalization " + norm.getLabel() + " for " + chrom2.getName() + " at " + zoom.getBinSize());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads only the finest resolution and derives every coarser resolution by summing fine bins
+     * (binX / factor, binY / factor). The sums are of finest-resolution normalized counts, not counts under
+     * each resolution's own norm vector, so local and global values at coarse resolutions approximate (and
+     * are not identical to) those of the per-resolution path. The global expected at a coarse distance is
+     * the sum of the fine expected over the factor x factor sub-bins, so global OE is still reported at
+     * every resolution; global z-scores and percent contact need the per-resolution spline and are only set
+     * at the finest one.
+     */
+    private static boolean sieveAllResolutionsFromFinest(Dataset ds, Matrix matrix, Chromosome chrom1, Chromosome chrom2,
+                                                         Set<Feature2D> loops, int[] resolutions, int window,
+                                                         NormalizationType norm,
+                                                         LoopAttributeTable attributes) {
+        int finestResolution = getFinest(resolutions);
+        int coarsestResolution = getCoarsest(resolutions);
+        int buffer = 2 * window;
+        HiCZoom zoom = new HiCZoom(finestResolution);
+        MatrixZoomData zd = matrix.getZoomData(zoom);
+        if (zd == null) return true;
+        if (!hasNormVectors(ds, chrom1, chrom2, zoom, norm)) return false;
+        if (loops.isEmpty()) return true;
+
+        LogExpectedZscoreSpline poly = null;
+        if (!skipGlobal) {
+            poly = new LogExpectedZscoreSpline(zd, norm, chrom1, finestResolution);
+        }
+
+        int maxFactor = coarsestResolution / finestResolution;
+        int fineBuffer = (buffer + 1) * maxFactor;
+        SparseContactMatrixWithMasking fineMatrix = new SparseContactMatrixWithMasking(zd,
+                loops, finestResolution, fineBuffer, 2 * fineBuffer + 1, norm,
+                chrom1.getIndex() == chrom2.getIndex());
+        matrix.clearCacheForZoom(zoom);
+
+        for (int resolution : resolutions) {
+            setDefaultAttributes(loops, resolution, attributes);
+            int factor = resolution / finestResolution;
+            if (factor == 1) {
+                scoreLoops(loops, resolution, buffer, window, fineMatrix::getRegion, poly, null, attributes);
+            } else {
+                SparseContactStore coarseMatrix = fineMatrix.coarsen(factor);
+                DerivedExpected expected = null;
+                if (poly != null) {
+                    final LogExpectedZscoreSpline finePoly = poly;
+                    expected = dist -> getCoarseExpected(finePoly, dist, factor);
+                }
+                scoreLoops(loops, resolution, buffer, window, coarseMatrix::getRegion, null, expected, attributes);
+                coarseMatrix.clear();
+            }
+            System.out.print(".");
+        }
+        fineMatrix.eraseAll();
+        return true;
+    }
+
+    /**
+     * On the diagonal only the upper triangle of the sub-bins is stored, so only those are counted
+     */
+    private static double getCoarseExpected(LogExpectedZscoreSpline finePoly, int coarseDist, int factor) {
+        double expected = 0;
+        for (int i = 0; i < factor; i++) {
+            for (int j = coarseDist == 0 ? i : 0; j < factor; j++) {
+                int fineDist = Math.abs(coarseDist * factor + j - i);
+                expected += finePoly.getExpectedFromUncompressedBin(fineDist);
+            }
+        }
+        return expected;
+    }
+
+    private static void scoreLoops(Set<Feature2D> loops, int resolution, int buffer, int window,
+                                   RegionSource source, LogExpectedZscoreSpline poly, DerivedExpected derivedExpected,
+                                   LoopAttributeTable attributes) {
+        Collection<List<Feature2D>> loopGroups = QuickGrouping.groupNearbyRecords(
+                loops, 500 * resolution).values();
+
+        for (List<Feature2D> group : loopGroups) {
+            int minR = (int) ((FeatureStats.minStart1(group) / resolution) - buffer);
+            int minC = (int) ((FeatureStats.minStart2(group) / resolution) - buffer);
+            int maxR = (int) ((FeatureStats.maxEnd1(group) / resolution) + buffer);
+            int maxC = (int) ((FeatureStats.maxEnd2(group) / resolution) + buffer);
+            float[][] regionMatrix = source.getRegion(minR, minC, maxR, maxC);
+            for (Feature2D loop : group) {
+                int absCoordBinX = (int) (loop.getMidPt1() / resolution);
+                int absCoordBinY = (int) (loop.getMidPt2() / resolution);
+                int dist = Math.abs(absCoordBinX - absCoordBinY);
+                int midX = absCoordBinX - minR;
+                int midY = absCoordBinY - minC;
+
+                float observed = regionMatrix[midX][midY];
+
+                Welford localWelford = ZscoreTools.getLocalWelford(regionMatrix, midX, midY, window);
+                float localOE = (float) (observed / localWelford.getMean());
+                float localZScore = (float) localWelford.getZscore().getZscore(observed);
+                attributes.setFloat(loop, resolution + LOCAL_Z, localZScore);
+                attributes.setFloat(loop, resolution + LOCAL_OE, localOE);
+
+                if (poly != null) {
+                    float globalOE = (float) (observed / poly.getExpectedFromUncompressedBin(dist));
+                    float globalZScore = (float) poly.getZscoreForObservedUncompressedBin(dist, observed);
+                    attributes.setFloat(loop, resolution + GLOBAL_Z, globalZScore);
+                    attributes.setFloat(loop, resolution + GLOBAL_OE, globalOE);
+
+                    attributes.setFloat(loop, resolution + GLOBAL_PERCENT, poly.getPercentContact(dist, observed));
+                } else if (derivedExpected != null) {
+                    float globalOE = (float) (observed / derivedExpected.getExpected(dist));
+                    attributes.setFloat(loop, resolution + GLOBAL_OE, globalOE);
+                }
+            }
+            regionMatrix = null;
+        }
+    }
+
+    private interface RegionSource {
+        float[][] getRegion(int binXStart, int binYStart, int binXEnd, int binYEnd);
+    }
+
+    private interface DerivedExpected {
+        double getExpected(int dist);
+    }
+
+    private static void setDefaultAttributes(Set<Feature2D> loops, int resolution, LoopAttributeTable attributes) {
         for (Feature2D loop : loops) {
-            loop.addStringAttribute(resolution + LOCAL_OE, "NaN");
-            loop.addStringAttribute(resolution + LOCAL_Z, "NaN");
+            attributes.setFloat(loop, resolution + LOCAL_OE, Float.NaN);
+            attributes.setFloat(loop, resolution + LOCAL_Z, Float.NaN);
             if (!skipGlobal) {
-                loop.addStringAttribute(resolution + GLOBAL_OE, "NaN");
-                loop.addStringAttribute(resolution + GLOBAL_Z, "NaN");
+                attributes.setFloat(loop, resolution + GLOBAL_OE, Float.NaN);
+                attributes.setFloat(loop, resolution + GLOBAL_Z, Float.NaN);
             }
         }
     }
@@ -346,13 +465,33 @@ public class Sieve {
     }
 
     private float getAttribute(Feature2D feature, String key, float defaultValue) {
-        if (feature.hasAttributeKey(key)) {
-            try {
-                return Float.parseFloat(feature.getAttribute(key));
-            } catch (Exception ignored) {
+        return attributes.getFloat(feature, key, defaultValue);
+    }
+
+    private static int getFinest(int[] resolutions) {
+        int finest = resolutions[0];
+        for (int res : resolutions) {
+            finest = Math.min(finest, res);
+        }
+        return finest;
+    }
+
+    private static int getCoarsest(int[] resolutions) {
+        int coarsest = resolutions[0];
+        for (int res : resolutions) {
+            coarsest = Math.max(coarsest, res);
+        }
+        return coarsest;
+    }
+
+    private static boolean allMultiplesOfFinest(int[] resolutions) {
+        int finest = getFinest(resolutions);
+        for (int res : resolutions) {
+            if (res % finest != 0) {
+                return false;
             }
         }
-        return defaultValue;
+        return true;
     }
 
     private int[] parseInts(String input) {
@@ -28,6 +28,8 @@ package cli.utils.apa;
 import javastraw.tools.MatrixTools;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -70,6 +72,25 @@ public class APADataExporter {
                 finalResult);
     }
 
+    /**
+     * One apa_dist_[lo]_[hi].npy per stratum, plus the loop count of each stratum in strata.txt
+     */
+    public static void exportStratifiedData(File dataDirectory, int[] edges, int[] loopCounts, boolean useAgNorm,
+                                            float[][][] outputs, double[][] rowSums, double[][] colSums) {
+        try (PrintWriter writer = new PrintWriter(new File(dataDirectory, "strata.txt"))) {
+            writer.println("min_dist\tmax_dist\tloops");
+            for (int s = 0; s < outputs.length; s++) {
+                String name = "apa_dist_" + edges[s] + "_" + edges[s + 1] + ".npy";
+                simpleExportGenomeWideData(new File(dataDirectory, name).getAbsolutePath(), useAgNorm,
+                        outputs[s], rowSums[s], colSums[s]);
+                writer.println(edges[s] + "\t" + edges[s + 1] + "\t" + loopCounts[s]);
+                System.out.println("Stratum " + edges[s] + "-" + edges[s + 1] + ": " + loopCounts[s] + " loops");
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void normalizeBySum(double[] globalSum) {
         double average = getAverage(globalSum);
         if (average > 0) {
@@ -26,12 +26,15 @@ package cli.utils.apa;
 
 import javastraw.feature2D.Feature2D;
 import javastraw.tools.MatrixTools;
+import javastraw.tools.ParallelizationTools;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * Created by Muhammad Shamim on 1/21/15.
@@ -98,9 +101,7 @@ public class APAUtils {
         ArrayList<Feature2D> sizeFilteredFeatures = new ArrayList<>();
 
         for (Feature2D feature : features) {
-            double xMidPt = feature.getMidPt1();
-            double yMidPt = feature.getMidPt2();
-            int dist = (int) Math.round(Math.abs(xMidPt - yMidPt) / resolution);
+            int dist = getDistanceInBins(feature, resolution);
 
             if (dist >= minPeakDist) {
                 if (dist <= maxPeakDist) {
@@ -111,6 +112,32 @@ public class APAUtils {
         return new ArrayList<>(sizeFilteredFeatures);
     }
 
+    public static int getDistanceInBins(Feature2D feature, int resolution) {
+        return (int) Math.round(Math.abs((double) feature.getMidPt1() - feature.getMidPt2()) / resolution);
+    }
+
+    /**
+     * Stratum s covers [edges[s], edges[s+1]) in bins, with the last upper edge inclusive
+     * (as maxPeakDist is in filterFeaturesBySize)
+     *
+     * @return the stratum index, or -1 if the distance is outside all strata
+     */
+    public static int getDistanceStratum(int dist, int[] edges) {
+        int numStrata = edges.length - 1;
+        if (numStrata < 1 || dist < edges[0] || dist > edges[numStrata]) return -1;
+        if (dist == edges[numStrata]) return numStrata - 1;
+        int lo = 0, hi = numStrata;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (edges[mid] <= dist) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
     public static void inPlaceSumVectors(double[] globalSum, double[] vector) {
         for (int j = 0; j < globalSum.length; j++) {
             if (vector[j] > 0) {
@@ -138,6 +165,74 @@ public class APAUtils {
         }
     }
 
+    /**
+     * Same as addLocalRowSums, for the block [offset, offset + length) of a slab
+     */
+    public static void addLocalRowSums(double[] sums, int offset, int length, double[] vector, int binStart) {
+        for (int i = 0; i < length; i++) {
+            double val = vector[binStart + i];
+            if (val > 0) {
+                sums[offset + i] += val;
+            }
+        }
+    }
+
+    /**
+     * Pairwise (stride 1, 2, 4, ...) sum of per-thread slabs into slabs[0]; each level runs in parallel
+     * over disjoint pairs, so no locking is needed. Null entries (threads that never started) are skipped.
+     */
+    public static float[] treeReduce(float[][] slabs) {
+        return treeReduce(slabs, APAUtils::inPlaceSumVectors);
+    }
+
+    public static double[] treeReduce(double[][] slabs) {
+        return treeReduce(slabs, APAUtils::inPlaceSumVectors);
+    }
+
+    private static <T> T treeReduce(T[] slabs, BiConsumer<T, T> merge) {
+        for (int stride = 1; stride < slabs.length; stride *= 2) {
+            final int step = stride;
+            int numPairs = (slabs.length + 2 * step - 1) / (2 * step);
+            AtomicInteger pairIndex = new AtomicInteger(0);
+            ParallelizationTools.launchParallelizedCode(Math.min(numPairs, Runtime.getRuntime().availableProcessors()), () -> {
+                int p = pairIndex.getAndIncrement();
+                while (p < numPairs) {
+                    int a = 2 * step * p;
+                    int b = a + step;
+                    if (b < slabs.length && slabs[b] != null) {
+                        if (slabs[a] == null) {
+                            slabs[a] = slabs[b];
+                        } else {
+                            merge.accept(slabs[a], slabs[b]);
+                        }
+                        slabs[b] = null;
+                    }
+                    p = pairIndex.getAndIncrement();
+                }
+            });
+        }
+        return slabs[0];
+    }
+
+    public static void inPlaceSumVectors(float[] globalSum, float[] vector) {
+        for (int j = 0; j < globalSum.length; j++) {
+            if (vector[j] > 0) {
+                globalSum[j] += vector[j];
+            }
+        }
+    }
+
+    /**
+     * Block i of a row-major slab of width x width blocks, as a matrix
+     */
+    public static float[][] getBlock(float[] slab, int i, int width) {
+        float[][] matrix = new float[width][width];
+        for (int r = 0; r < width; r++) {
+            System.arraycopy(slab, (i * width + r) * width, matrix[r], 0, width);
+        }
+        return matrix;
+    }
+
     public static void addLocalSums(float[] sums, double[] vector, int binStart) {
         for (int i = 0; i < sums.length; i++) {
             float val = (float) vector[binStart + i];
@@ -0,0 +1,151 @@
+package cli.utils.apa;
+
+import java.util.Arrays;
+
+/**
+ * Per-anchor accumulators for only the pixels the anchor APA score reads (the center and the lower-left
+ * corner of the window), stored in flat arrays indexed by anchor id.
+ * <p>
+ * The score is a mean over the positive pixels of each region, and with aggregate normalization every
+ * pixel is divided by its own row/column factor, so neither collapses to a plain region sum; the region
+ * pixels themselves are kept instead, plus the (window-length) row and column sums. Scores match the
+ * full-matrix computation exactly.
+ */
+class AnchorRegionStats {
+
+    private final int[] bins;
+    private final int matrixWidth;
+    private final int[] pixelRows, pixelCols;
+    private final int numCenterPixels;
+    private final float[] values;
+    private final float[] rowSums, colSums;
+
+    /**
+     * @param bins sorted, unique anchor bins; an anchor's id is its index here
+     */
+    AnchorRegionStats(int[] bins, int matrixWidth, int resolution, boolean isAggNorm) {
+        this.bins = bins;
+        this.matrixWidth = matrixWidth;
+        int n = matrixWidth;
+
+        int c0 = n / 2, c1 = n / 2 + 1;
+        if (resolution < 50) {
+            int width = 50 / resolution;
+            c0 = Math.max(0, n / 2 - width);
+            c1 = Math.min(n, n / 2 + width + 1);
+        }
+        numCenterPixels = (c1 - c0) * (c1 - c0);
+        int numPixels = numCenterPixels + (n - 3 * n / 4) * (n / 4);
+        pixelRows = new int[numPixels];
+        pixelCols = new int[numPixels];
+        int p = 0;
+        p = addBox(p, c0, c1, c0, c1);
+        addBox(p, 3 * n / 4, n, 0, n / 4);
+        values = new float[bins.length * numPixels];
+        rowSums = isAggNorm ? new float[bins.length * n] : null;
+        colSums = isAggNorm ? new float[bins.length * n] : null;
+    }
+
+    private int addBox(int p, int r0, int r1, int c0, int c1) {
+        for (int r = r0; r < r1; r++) {
+            for (int c = c0; c < c1; c++) {
+                pixelRows[p] = r;
+                pixelCols[p] = c;
+                p++;
+            }
+        }
+        return p;
+    }
+
+    int getNumAnchors() {
+        return bins.length;
+    }
+
+    int getBin(int id) {
+        return bins[id];
+    }
+
+    int getId(int bin) {
+        return Arrays.binarySearch(bins, bin);
+    }
+
+    /**
+     * Adds the score pixels of one window (row-major, matrixWidth x matrixWidth)
+     */
+    void addWindow(int id, float[] window) {
+        int offset = id * pixelRows.length;
+        for (int k = 0; k < pixelRows.length; k++) {
+            values[offset + k] += window[pixelRows[k] * matrixWidth + pixelCols[k]];
+        }
+    }
+
+    /**
+     * Same as APAUtils.addLocalSums on the full row and column sums of this anchor
+     */
+    void addLocalSums(int id, double[] vector, int binXStart, int binYStart) {
+        addLocalSums(rowSums, id * matrixWidth, vector, binXStart);
+        addLocalSums(colSums, id * matrixWidth, vector, binYStart);
+    }
+
+    private void addLocalSums(float[] sums, int offset, double[] vector, int binStart) {
+        for (int i = 0; i < matrixWidth; i++) {
+            float val = (float) vector[binStart + i];
+            if (val > 0) {
+                sums[offset + i] += val;
+            }
+        }
+    }
+
+    void copySums(int id, float[] rowOut, float[] colOut) {
+        System.arraycopy(rowSums, id * matrixWidth, rowOut, 0, matrixWidth);
+        System.arraycopy(colSums, id * matrixWidth, colOut, 0, matrixWidth);
+    }
+
+    float getScore(int id) {
+        int offset = id * pixelRows.length;
+        float[] pixels = Arrays.copyOfRange(values, offset, offset + pixelRows.length);
+        if (rowSums != null) {
+            normalize(id, pixels);
+        }
+        float numerator = positiveMean(pixels, 0, numCenterPixels);
+        float denom = positiveMean(pixels, numCenterPixels, pixels.length);
+        return (numerator + 1) / (denom + 1);
+    }
+
+    /**
+     * Same arithmetic as normalizeBySum followed by normedCopyFloats
+     */
+    private void normalize(int id, float[] pixels) {
+        int offset = id * matrixWidth;
+        double rowAverage = APADataExporter.getAverage(Arrays.copyOfRange(rowSums, offset, offset + matrixWidth));
+        double colAverage = APADataExporter.getAverage(Arrays.copyOfRange(colSums, offset, offset + matrixWidth));
+        for (int k = 0; k < pixels.length; k++) {
+            float rowFactor = rowSums[offset + pixelRows[k]];
+            float colFactor = colSums[offset + pixelCols[k]];
+            if (rowAverage > 0) rowFactor /= rowAverage;
+            if (colAverage > 0) colFactor /= colAverage;
+            double normVal = (rowFactor * colFactor);
+            if (normVal > 0.0) {
+                pixels[k] = (float) (pixels[k] / normVal);
+            } else {
+                pixels[k] = 0.0F;
+            }
+        }
+    }
+
+    private static float positiveMean(float[] pixels, int start, int end) {
+        float sum = 0;
+        int count = 0;
+        for (int k = start; k < end; k++) {
+            if (pixels[k] > 0) {
+                sum += pixels[k];
+                count++;
+            }
+        }
+        if (count > 0) {
+            return sum / count;
+        } else {
+            return 0;
+        }
+    }
+}
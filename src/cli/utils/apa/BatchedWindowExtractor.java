@@ -0,0 +1,169 @@
+package cli.utils.apa;
+
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.NormalizationType;
+
+import java.util.*;
+
+/**
+ * Extracts many fixed-size windows from one MatrixZoomData in a single sweep over its blocks.
+ * <p>
+ * Windows are sorted into tiles, each tile issues one block query, and every block is walked once per
+ * chromosome pair; its records are scattered into all windows that cover them via a cell-to-windows index.
+ * The result is identical to calling Utils.addLocalBoundedRegion once per window.
+ */
+public class BatchedWindowExtractor {
+
+    public static final int DEFAULT_TILE_WIDTH = 500;
+
+    private final int[] binXStarts;
+    private final int[] binYStarts;
+    private final int matrixWidth;
+    private final int tileWidth;
+    private final Map<Long, int[]> cellToWindows = new HashMap<>();
+
+    public BatchedWindowExtractor(int[] binXStarts, int[] binYStarts, int matrixWidth) {
+        this(binXStarts, binYStarts, matrixWidth, DEFAULT_TILE_WIDTH);
+    }
+
+    public BatchedWindowExtractor(int[] binXStarts, int[] binYStarts, int matrixWidth, int tileWidth) {
+        this.binXStarts = binXStarts;
+        this.binYStarts = binYStarts;
+        this.matrixWidth = matrixWidth;
+        this.tileWidth = Math.max(tileWidth, matrixWidth);
+        buildIndex();
+    }
+
+    public static BatchedWindowExtractor fromMidpoints(long[] midXs, long[] midYs, int resolution,
+                                                       int window, int matrixWidth) {
+        int[] xStarts = new int[midXs.length];
+        int[] yStarts = new int[midYs.length];
+        for (int i = 0; i < xStarts.length; i++) {
+            xStarts[i] = (int) ((midXs[i] / resolution) - window);
+            yStarts[i] = (int) ((midYs[i] / resolution) - window);
+        }
+        return new BatchedWindowExtractor(xStarts, yStarts, matrixWidth);
+    }
+
+    private static long toKey(int cellX, int cellY) {
+        return (((long) cellX) << 32) | (cellY & 0xffffffffL);
+    }
+
+    private void buildIndex() {
+        Map<Long, List<Integer>> temp = new HashMap<>();
+        for (int i = 0; i < binXStarts.length; i++) {
+            int cx0 = Math.floorDiv(binXStarts[i], tileWidth);
+            int cx1 = Math.floorDiv(binXStarts[i] + matrixWidth - 1, tileWidth);
+            int cy0 = Math.floorDiv(binYStarts[i], tileWidth);
+            int cy1 = Math.floorDiv(binYStarts[i] + matrixWidth - 1, tileWidth);
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int cy = cy0; cy <= cy1; cy++) {
+                    temp.computeIfAbsent(toKey(cx, cy), k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+        for (Map.Entry<Long, List<Integer>> entry : temp.entrySet()) {
+            List<Integer> indices = entry.getValue();
+            int[] windows = new int[indices.size()];
+            for (int k = 0; k < windows.length; k++) {
+                windows[k] = indices.get(k);
+            }
+            cellToWindows.put(entry.getKey(), windows);
+        }
+        temp.clear();
+    }
+
+    public int getNumWindows() {
+        return binXStarts.length;
+    }
+
+    public int getBinXStart(int index) {
+        return binXStarts[index];
+    }
+
+    public int getBinYStart(int index) {
+        return binYStarts[index];
+    }
+
+    /**
+     * Sum every window into a single matrix (the standard APA aggregate)
+     */
+    public void addAllToMatrix(MatrixZoomData zd, NormalizationType norm, float[][] output) {
+        extract(zd, norm, (index, relativeX, relativeY, counts) -> output[relativeX][relativeY] += counts);
+    }
+
+    /**
+     * Add each window into its own matrix
+     */
+    public void addEachToMatrices(MatrixZoomData zd, NormalizationType norm, float[][][] outputs) {
+        extract(zd, norm, (index, relativeX, relativeY, counts) -> outputs[index][relativeX][relativeY] += counts);
+    }
+
+    public void extract(MatrixZoomData zd, NormalizationType norm, WindowConsumer consumer) {
+        Set<Integer> blocksDone = new HashSet<>();
+        for (int[] tile : getTilesInSortedOrder()) {
+            int binXStart = tile[0] * tileWidth;
+            int binYStart = tile[1] * tileWidth;
+            int binXEnd = binXStart + tileWidth + 1;
+            int binYEnd = binYStart + tileWidth + 1;
+            List<Block> blocks = zd.getNormalizedBlocksOverlapping(binXStart, binYStart,
+                    binXEnd, binYEnd, norm, false);
+            for (Block block : blocks) {
+                if (block != null && blocksDone.add(block.getNumber())) {
+                    scatter(block.getContactRecords(), consumer);
+                }
+            }
+            blocks.clear();
+        }
+        blocksDone.clear();
+    }
+
+    private List<int[]> getTilesInSortedOrder() {
+        List<int[]> tiles = new ArrayList<>(cellToWindows.size());
+        for (long key : cellToWindows.keySet()) {
+            tiles.add(new int[]{(int) (key >> 32), (int) key});
+        }
+        tiles.sort((a, b) -> {
+            if (a[0] != b[0]) return Integer.compare(a[0], b[0]);
+            return Integer.compare(a[1], b[1]);
+        });
+        return tiles;
+    }
+
+    private void scatter(List<ContactRecord> records, WindowConsumer consumer) {
+        long lastKey = Long.MIN_VALUE;
+        int[] windows = null;
+        for (ContactRecord rec : records) {
+            float counts = rec.getCounts();
+            if (counts > 0) {
+                int x = rec.getBinX();
+                int y = rec.getBinY();
+                long key = toKey(Math.floorDiv(x, tileWidth), Math.floorDiv(y, tileWidth));
+                if (key != lastKey) {
+                    windows = cellToWindows.get(key);
+                    lastKey = key;
+                }
+                if (windows != null) {
+                    for (int index : windows) {
+                        int relativeX = x - binXStarts[index];
+                        int relativeY = y - binYStarts[index];
+                        if (relativeX >= 0 && relativeX < matrixWidth
+                                && relativeY >= 0 && relativeY < matrixWidth) {
+                            consumer.add(index, relativeX, relativeY, counts);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        cellToWindows.clear();
+    }
+
+    public interface WindowConsumer {
+        void add(int windowIndex, int relativeX, int relativeY, float counts);
+    }
+}
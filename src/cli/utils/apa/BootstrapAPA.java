@@ -0,0 +1,201 @@
+package cli.utils.apa;
+
+import javastraw.feature2D.Feature2D;
+import javastraw.tools.MatrixTools;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Poisson bootstrap of the APA aggregate, computed in the same pass as the regular matrix.
+ * <p>
+ * Every loop gets a Poisson(1) weight per replicate, drawn from a generator seeded by the loop's
+ * coordinates, so the replicates do not depend on thread scheduling. Each thread accumulates all
+ * replicates in one flat slab (replicate-major, then row-major window); the slabs are tree-reduced at the
+ * end and summarized per pixel (Welford mean / variance, percentile interval) and by peak enhancement.
+ */
+public class BootstrapAPA {
+
+    private static final double LOWER_QUANTILE = 0.025;
+    private static final double UPPER_QUANTILE = 0.975;
+    private final int numReplicates;
+    private final int matrixWidth;
+    private final int blockSize;
+    private final long seed;
+
+    public BootstrapAPA(int numReplicates, int matrixWidth, long seed) {
+        this.numReplicates = numReplicates;
+        this.matrixWidth = matrixWidth;
+        this.blockSize = matrixWidth * matrixWidth;
+        this.seed = seed;
+    }
+
+    public int getNumReplicates() {
+        return numReplicates;
+    }
+
+    public float[] newMatrixSlab() {
+        return new float[numReplicates * blockSize];
+    }
+
+    public double[] newSumSlab() {
+        return new double[numReplicates * matrixWidth];
+    }
+
+    /**
+     * @return weights[loop * numReplicates + replicate]
+     */
+    public int[] getWeights(List<Feature2D> loops) {
+        int[] weights = new int[loops.size() * numReplicates];
+        for (int i = 0; i < loops.size(); i++) {
+            Feature2D loop = loops.get(i);
+            long loopSeed = seed;
+            loopSeed = 31 * loopSeed + loop.getChr1().hashCode();
+            loopSeed = 31 * loopSeed + loop.getStart1();
+            loopSeed = 31 * loopSeed + loop.getEnd1();
+            loopSeed = 31 * loopSeed + loop.getChr2().hashCode();
+            loopSeed = 31 * loopSeed + loop.getStart2();
+            loopSeed = 31 * loopSeed + loop.getEnd2();
+            Random generator = new Random(loopSeed);
+            for (int k = 0; k < numReplicates; k++) {
+                weights[i * numReplicates + k] = nextPoisson(generator);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Knuth's method for a mean of 1
+     */
+    private static int nextPoisson(Random generator) {
+        double limit = Math.exp(-1);
+        double product = generator.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            product *= generator.nextDouble();
+            count++;
+        }
+        return count;
+    }
+
+    public void add(float[] slab, int[] weights, int windowIndex, int relativeX, int relativeY, float counts) {
+        int weightOffset = windowIndex * numReplicates;
+        int pixel = relativeX * matrixWidth + relativeY;
+        for (int k = 0; k < numReplicates; k++) {
+            int weight = weights[weightOffset + k];
+            if (weight > 0) {
+                slab[k * blockSize + pixel] += weight * counts;
+            }
+        }
+    }
+
+    public void addLocalSums(double[] sums, int[] weights, int windowIndex, double[] vector, int binStart) {
+        int weightOffset = windowIndex * numReplicates;
+        for (int k = 0; k < numReplicates; k++) {
+            int weight = weights[weightOffset + k];
+            if (weight > 0) {
+                int offset = k * matrixWidth;
+                for (int i = 0; i < matrixWidth; i++) {
+                    double val = vector[binStart + i];
+                    if (val > 0) {
+                        sums[offset + i] += weight * val;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes bootstrap_mean/std/ci_lower/ci_upper.npy and bootstrap_peak_enhancement.txt
+     *
+     * @param rowSums, colSums reduced sum slabs, only used with aggregate normalization
+     */
+    public void export(File outputDirectory, float[] slab, boolean useAgNorm, double[] rowSums, double[] colSums) {
+        float[][][] replicates = new float[numReplicates][][];
+        for (int k = 0; k < numReplicates; k++) {
+            float[][] matrix = APAUtils.getBlock(slab, k, matrixWidth);
+            if (useAgNorm) {
+                double[] rowSum = Arrays.copyOfRange(rowSums, k * matrixWidth, (k + 1) * matrixWidth);
+                double[] colSum = Arrays.copyOfRange(colSums, k * matrixWidth, (k + 1) * matrixWidth);
+                APADataExporter.normalizeBySum(rowSum);
+                APADataExporter.normalizeBySum(colSum);
+                matrix = APADataExporter.normedCopyFloats(matrix, rowSum, colSum);
+            }
+            replicates[k] = matrix;
+        }
+
+        // Welford over the replicates, per pixel
+        double[] mean = new double[blockSize];
+        double[] m2 = new double[blockSize];
+        for (int k = 0; k < numReplicates; k++) {
+            for (int r = 0; r < matrixWidth; r++) {
+                for (int c = 0; c < matrixWidth; c++) {
+                    int p = r * matrixWidth + c;
+                    double delta = replicates[k][r][c] - mean[p];
+                    mean[p] += delta / (k + 1);
+                    m2[p] += delta * (replicates[k][r][c] - mean[p]);
+                }
+            }
+        }
+
+        float[][] meanMatrix = new float[matrixWidth][matrixWidth];
+        float[][] stdMatrix = new float[matrixWidth][matrixWidth];
+        float[][] lower = new float[matrixWidth][matrixWidth];
+        float[][] upper = new float[matrixWidth][matrixWidth];
+        float[] values = new float[numReplicates];
+        for (int r = 0; r < matrixWidth; r++) {
+            for (int c = 0; c < matrixWidth; c++) {
+                int p = r * matrixWidth + c;
+                meanMatrix[r][c] = (float) mean[p];
+                stdMatrix[r][c] = numReplicates > 1 ? (float) Math.sqrt(m2[p] / (numReplicates - 1)) : 0;
+                for (int k = 0; k < numReplicates; k++) {
+                    values[k] = replicates[k][r][c];
+                }
+                Arrays.sort(values);
+                lower[r][c] = values[getQuantileIndex(LOWER_QUANTILE)];
+                upper[r][c] = values[getQuantileIndex(UPPER_QUANTILE)];
+            }
+        }
+
+        MatrixTools.saveMatrixTextNumpy(new File(outputDirectory, "bootstrap_mean.npy").getAbsolutePath(), meanMatrix);
+        MatrixTools.saveMatrixTextNumpy(new File(outputDirectory, "bootstrap_std.npy").getAbsolutePath(), stdMatrix);
+        MatrixTools.saveMatrixTextNumpy(new File(outputDirectory, "bootstrap_ci_lower.npy").getAbsolutePath(), lower);
+        MatrixTools.saveMatrixTextNumpy(new File(outputDirectory, "bootstrap_ci_upper.npy").getAbsolutePath(), upper);
+        exportPeakEnhancement(new File(outputDirectory, "bootstrap_peak_enhancement.txt"), replicates);
+    }
+
+    private int getQuantileIndex(double quantile) {
+        return (int) Math.min(numReplicates - 1, Math.max(0, Math.round(quantile * (numReplicates - 1))));
+    }
+
+    private void exportPeakEnhancement(File file, float[][][] replicates) {
+        double[] scores = new double[numReplicates];
+        for (int k = 0; k < numReplicates; k++) {
+            scores[k] = APAUtils.peakEnhancement(new Array2DRowRealMatrix(
+                    MatrixTools.convertToDoubleMatrix(replicates[k])));
+        }
+        double[] sorted = Arrays.copyOf(scores, numReplicates);
+        Arrays.sort(sorted);
+        double mean = 0;
+        for (double score : scores) {
+            mean += score / numReplicates;
+        }
+
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("# replicates " + numReplicates + ", mean " + mean + ", 95% CI ["
+                    + sorted[getQuantileIndex(LOWER_QUANTILE)] + ", " + sorted[getQuantileIndex(UPPER_QUANTILE)] + "]");
+            for (double score : scores) {
+                writer.println(score);
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Bootstrap peak enhancement: mean " + mean + ", 95% CI ["
+                + sorted[getQuantileIndex(LOWER_QUANTILE)] + ", " + sorted[getQuantileIndex(UPPER_QUANTILE)] + "]");
+    }
+}
@@ -5,78 +5,111 @@ import javastraw.feature2D.Feature2D;
 import javastraw.reader.basics.Chromosome;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Anchor APA scores for one chromosome. Each anchor keeps only the pixels its score reads
+ * (see AnchorRegionStats); the full aggregate matrix of an anchor is rebuilt from the shared
+ * SparseContactMatrixWithMasking only when asked for.
+ */
 public class MultiAPAManager {
 
-    private final Map<Integer, float[][]> upStreamAPAMatrices = new HashMap<>();
-    private final Map<Integer, float[][]> downStreamAPAMatrices;
+    private final AnchorRegionStats upStreamStats;
+    private final AnchorRegionStats downStreamStats;
+    private final List<Feature2D> loops;
+    private final int[] upStreamIDs, downStreamIDs;
+    private final int window, resolution, matrixWidth;
+    private final SparseContactMatrixWithMasking scm;
+    private final boolean isAggNorm;
 
     public MultiAPAManager(List<Feature2D> loops, int window, int resolution, int matrixWidth,
                            SparseContactMatrixWithMasking scm, double[] vector, boolean isAggNorm, boolean dontUseOrientation) {
-
-        Map<Integer, float[]> upStreamRowSums = new HashMap<>();
-        Map<Integer, float[]> upStreamColSums = new HashMap<>();
-        Map<Integer, float[]> downStreamRowSums;
-        Map<Integer, float[]> downStreamColSums;
+        this.loops = loops;
+        this.window = window;
+        this.resolution = resolution;
+        this.matrixWidth = matrixWidth;
+        this.scm = scm;
+        this.isAggNorm = isAggNorm;
+
+        int[] upStreamBins = new int[loops.size()];
+        int[] downStreamBins = new int[loops.size()];
+        for (int i = 0; i < loops.size(); i++) {
+            upStreamBins[i] = (int) (loops.get(i).getMidPt1() / resolution);
+            downStreamBins[i] = (int) (loops.get(i).getMidPt2() / resolution);
+        }
         if (dontUseOrientation) {
-            downStreamAPAMatrices = upStreamAPAMatrices;
-            downStreamRowSums = upStreamRowSums;
-            downStreamColSums = upStreamColSums;
+            int[] allBins = Arrays.copyOf(upStreamBins, 2 * upStreamBins.length);
+            System.arraycopy(downStreamBins, 0, allBins, upStreamBins.length, downStreamBins.length);
+            upStreamStats = new AnchorRegionStats(uniqueSorted(allBins), matrixWidth, resolution, isAggNorm);
+            downStreamStats = upStreamStats;
         } else {
-            downStreamAPAMatrices = new HashMap<>();
-            downStreamRowSums = new HashMap<>();
-            downStreamColSums = new HashMap<>();
+            upStreamStats = new AnchorRegionStats(uniqueSorted(upStreamBins), matrixWidth, resolution, isAggNorm);
+            downStreamStats = new AnchorRegionStats(uniqueSorted(downStreamBins), matrixWidth, resolution, isAggNorm);
         }
 
-        for (Feature2D loop : loops) {
-            int upStreamBin = (int) (loop.getMidPt1() / resolution);
-            int downStreamBin = (int) (loop.getMidPt2() / resolution);
-
-            initialize(upStreamBin, upStreamAPAMatrices, upStreamRowSums, upStreamColSums, matrixWidth);
-            initialize(downStreamBin, downStreamAPAMatrices, downStreamRowSums, downStreamColSums, matrixWidth);
+        upStreamIDs = new int[loops.size()];
+        downStreamIDs = new int[loops.size()];
+        float[] windowData = new float[matrixWidth * matrixWidth];
+        for (int i = 0; i < loops.size(); i++) {
+            Feature2D loop = loops.get(i);
+            upStreamIDs[i] = upStreamStats.getId(upStreamBins[i]);
+            downStreamIDs[i] = downStreamStats.getId(downStreamBins[i]);
 
-            addToMatrix(upStreamAPAMatrices.get(upStreamBin), scm, loop, window, resolution, matrixWidth);
-            addToMatrix(downStreamAPAMatrices.get(downStreamBin), scm, loop, window, resolution, matrixWidth);
+            Arrays.fill(windowData, 0);
+            addToMatrix(windowData, 0, scm, loop, window, resolution, matrixWidth);
+            upStreamStats.addWindow(upStreamIDs[i], windowData);
+            downStreamStats.addWindow(downStreamIDs[i], windowData);
 
             if (isAggNorm) {
-                doAggregateNormalization(loop,
-                        upStreamRowSums.get(upStreamBin),
-                        upStreamColSums.get(upStreamBin), vector, resolution, window);
-                doAggregateNormalization(loop,
-                        downStreamRowSums.get(downStreamBin),
-                        downStreamColSums.get(downStreamBin), vector, resolution, window);
+                int binXStart = (int) ((loop.getMidPt1() / resolution) - window);
+                int binYStart = (int) ((loop.getMidPt2() / resolution) - window);
+                upStreamStats.addLocalSums(upStreamIDs[i], vector, binXStart, binYStart);
+                downStreamStats.addLocalSums(downStreamIDs[i], vector, binXStart, binYStart);
             }
         }
+    }
 
-        if (isAggNorm) {
-            finalAggregateNormalization(upStreamAPAMatrices, upStreamRowSums, upStreamColSums);
-            if (!dontUseOrientation) {
-                finalAggregateNormalization(downStreamAPAMatrices, downStreamRowSums, downStreamColSums);
+    private static int[] uniqueSorted(int[] values) {
+        int[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[n - 1] != sorted[i]) {
+                sorted[n++] = sorted[i];
             }
         }
+        return Arrays.copyOf(sorted, n);
     }
 
-    private void finalAggregateNormalization(Map<Integer, float[][]> matrices, Map<Integer, float[]> rowSums,
-                                             Map<Integer, float[]> colSums) {
-        for (int key : matrices.keySet()) {
-            APADataExporter.normalizeBySum(rowSums.get(key));
-            APADataExporter.normalizeBySum(colSums.get(key));
-            float[][] matrix = APADataExporter.normedCopyFloats(matrices.get(key),
-                    rowSums.get(key), colSums.get(key));
-            matrices.put(key, matrix);
+    /**
+     * Builds the full (aggregate normalized, if enabled) APA matrix of one anchor
+     *
+     * @return null if there is no such anchor
+     */
+    public float[][] getMatrix(int bin, boolean isUpStream) {
+        AnchorRegionStats stats = isUpStream ? upStreamStats : downStreamStats;
+        int id = stats.getId(bin);
+        if (id < 0) return null;
+
+        float[][] matrix = new float[matrixWidth][matrixWidth];
+        float[] rowSums = new float[matrixWidth];
+        float[] colSums = new float[matrixWidth];
+        for (int i = 0; i < loops.size(); i++) {
+            int times = 0;
+            if (upStreamIDs[i] == id && (isUpStream || upStreamStats == downStreamStats)) times++;
+            if (downStreamIDs[i] == id && (!isUpStream || upStreamStats == downStreamStats)) times++;
+            for (int t = 0; t < times; t++) {
+                addToMatrix(matrix, scm, loops.get(i), window, resolution, matrixWidth);
+            }
         }
-    }
-
-    private void initialize(int bin, Map<Integer, float[][]> matrices,
-                            Map<Integer, float[]> rowSums, Map<Integer, float[]> colSums, int matrixWidth) {
-        if (!matrices.containsKey(bin)) {
-            matrices.put(bin, new float[matrixWidth][matrixWidth]);
-            rowSums.put(bin, new float[matrixWidth]);
-            colSums.put(bin, new float[matrixWidth]);
+        if (isAggNorm) {
+            stats.copySums(id, rowSums, colSums);
+            APADataExporter.normalizeBySum(rowSums);
+            APADataExporter.normalizeBySum(colSums);
+            matrix = APADataExporter.normedCopyFloats(matrix, rowSums, colSums);
         }
+        return matrix;
     }
 
     public static void addToMatrix(float[][] output, SparseContactMatrixWithMasking scm,
@@ -86,64 +119,32 @@ public class MultiAPAManager {
         scm.addLocalBoundedRegion(output, binXStart, binYStart, matrixWidth);
     }
 
-    private void doAggregateNormalization(Feature2D loop, float[] rowSums, float[] colSums,
-                                          double[] nv, int resolution, int window) {
+    public static void addToMatrix(float[] output, int offset, SparseContactMatrixWithMasking scm,
+                                   Feature2D loop, int window, int resolution, int matrixWidth) {
         int binXStart = (int) ((loop.getMidPt1() / resolution) - window);
         int binYStart = (int) ((loop.getMidPt2() / resolution) - window);
-        APAUtils.addLocalSums(rowSums, nv, binXStart);
-        APAUtils.addLocalSums(colSums, nv, binYStart);
+        scm.addLocalBoundedRegion(output, offset, binXStart, binYStart, matrixWidth);
     }
 
     public List<AnchorAPAScore> getAnchorAPAScores(Chromosome chromosome, int resolution, boolean dontUseOrientation) {
         List<AnchorAPAScore> scores = new ArrayList<>();
         int width = 100;
-        for (int bin : upStreamAPAMatrices.keySet()) {
+        for (int id = 0; id < upStreamStats.getNumAnchors(); id++) {
+            int bin = upStreamStats.getBin(id);
             scores.add(new AnchorAPAScore(chromosome, resolution,
                     bin, width, "Forward_" + bin,
-                    getAPAScore(upStreamAPAMatrices.get(bin), resolution),
+                    upStreamStats.getScore(id),
                     true));
         }
         if (!dontUseOrientation) {
-            for (int bin : downStreamAPAMatrices.keySet()) {
+            for (int id = 0; id < downStreamStats.getNumAnchors(); id++) {
+                int bin = downStreamStats.getBin(id);
                 scores.add(new AnchorAPAScore(chromosome, resolution,
                         bin, width, "Reverse_" + bin,
-                        getAPAScore(downStreamAPAMatrices.get(bin), resolution),
+                        downStreamStats.getScore(id),
                         false));
             }
         }
         return scores;
     }
-
-    private float getAPAScore(float[][] data, int resolution) {
-        float numerator;
-        int n = data.length;
-        if (resolution < 50) {
-            int width = 50 / resolution;
-            numerator = mean(data, n / 2 - width, n / 2 + width + 1, n / 2 - width, n / 2 + width + 1);
-        } else {
-            numerator = data[n / 2][n / 2];
-        }
-
-        float denom = mean(data, 3 * n / 4, n, 0, n / 4);
-
-        return (numerator + 1) / (denom + 1);
-    }
-
-    private float mean(float[][] data, int r0, int r1, int c0, int c1) {
-        float sum = 0;
-        int count = 0;
-        for (int r = r0; r < r1; r++) {
-            for (int c = c0; c < c1; c++) {
-                if (data[r][c] > 0) {
-                    sum += data[r][c];
-                    count++;
-                }
-            }
-        }
-        if (count > 0) {
-            return sum / count;
-        } else {
-            return 0;
-        }
-    }
 }
@@ -24,28 +24,29 @@
 
 package cli.utils.bigarray;
 
+import javastraw.reader.datastructures.ListOfDoubleArrays;
 import javastraw.reader.datastructures.ListOfFloatArrays;
 import javastraw.reader.datastructures.ListOfIntArrays;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
 
 public class BigContactArray {
 
-    protected final List<int[]> binXs = new ArrayList<>();
-    protected final List<int[]> binYs = new ArrayList<>();
-    protected final List<float[]> binVals = new ArrayList<>();
+    protected final List<ContactChunk> chunks = new ArrayList<>();
     private final long matrixSize;
+    private int maxThreads = Runtime.getRuntime().availableProcessors();
 
     public BigContactArray(long matrixSize) {
         this.matrixSize = matrixSize;
     }
 
-
     public void addSubList(int[] x, int[] y, float[] c) {
-        binXs.add(x);
-        binYs.add(y);
-        binVals.add(c);
+        chunks.add(new ArrayChunk(x, y, c));
     }
 
     public void addSubList(int[] x, int[] y, float[] c, int counter) {
@@ -58,20 +59,41 @@ public class BigContactArray {
         addSubList(x2, y2, c2);
     }
 
+    /**
+     * Sublists are shared rather than copied (heap arrays by reference, spilled ones by their mapping),
+     * so the other array must not be cleared while this one is in use
+     */
     public void addAllSubLists(BigContactArray other) {
-        binXs.addAll(other.binXs);
-        binYs.addAll(other.binYs);
-        binVals.addAll(other.binVals);
+        for (int sIndx = 0; sIndx < other.getNumSubLists(); sIndx++) {
+            chunks.add(other.getChunk(sIndx));
+        }
     }
 
     public void clear() {
-        binXs.clear();
-        binYs.clear();
-        binVals.clear();
+        chunks.clear();
+    }
+
+    /**
+     * Whether addSubList keeps a reference to the arrays it is given; if not, callers may refill them
+     */
+    protected boolean keepsSubListArrays() {
+        return true;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
     }
 
     private int getNumThreads() {
-        return Math.min(8, binXs.size()); // todo
+        return Math.max(1, Math.min(maxThreads, getNumSubLists()));
+    }
+
+    protected int getNumSubLists() {
+        return chunks.size();
+    }
+
+    public ContactChunk getChunk(int sIndx) {
+        return chunks.get(sIndx);
     }
 
     public long getMatrixSize() {
@@ -88,17 +110,12 @@ public class BigContactArray {
             }
         }
 
-        double normalizedSumTotal = 0, sumTotal = 0;
-
-        for (int sIndx = 0; sIndx < binXs.size(); sIndx++) {
-            int[] subBinXs = binXs.get(sIndx);
-            int[] subBinYs = binYs.get(sIndx);
-            float[] subBinVals = binVals.get(sIndx);
-
-            for (int z = 0; z < subBinXs.length; z++) {
-                int x = subBinXs[z];
-                int y = subBinYs[z];
-                float counts = subBinVals[z];
+        double[] totals = reduceOverSubLists(() -> new double[2], (chunk, partial) -> {
+            double normalizedSumTotal = 0, sumTotal = 0;
+            for (int z = 0; z < chunk.size(); z++) {
+                int x = chunk.getBinX(z);
+                int y = chunk.getBinY(z);
+                float counts = chunk.getCounts(z);
 
                 double valX = newNormVector.get(x);
                 double valY = newNormVector.get(y);
@@ -113,27 +130,191 @@ public class BigContactArray {
                     }
                 }
             }
-        }
+            partial[0] += normalizedSumTotal;
+            partial[1] += sumTotal;
+        }, (a, b) -> {
+            a[0] += b[0];
+            a[1] += b[1];
+            return a;
+        });
 
-        double scaleFactor = Math.sqrt(normalizedSumTotal / sumTotal);
+        double scaleFactor = Math.sqrt(totals[0] / totals[1]);
         newNormVector.multiplyEverythingBy(scaleFactor);
         return newNormVector;
     }
 
     public ListOfIntArrays getNumNonZeroInRows() {
-        ListOfIntArrays numNonZero = new ListOfIntArrays(matrixSize, 0);
-        for (int sIndx = 0; sIndx < binXs.size(); sIndx++) {
-            int[] subBinXs = binXs.get(sIndx);
-            int[] subBinYs = binYs.get(sIndx);
-            for (int z = 0; z < subBinXs.length; z++) {
-                int x = subBinXs[z];
-                int y = subBinYs[z];
+        return reduceOverSubLists(() -> new ListOfIntArrays(matrixSize, 0), (chunk, numNonZero) -> {
+            for (int z = 0; z < chunk.size(); z++) {
+                int x = chunk.getBinX(z);
+                int y = chunk.getBinY(z);
                 numNonZero.addTo(x, 1);
                 if (x != y) {
                     numNonZero.addTo(y, 1);
                 }
             }
+        }, (a, b) -> {
+            for (long k = 0; k < matrixSize; k++) {
+                int val = b.get(k);
+                if (val != 0) {
+                    a.addTo(k, val);
+                }
+            }
+            return a;
+        });
+    }
+
+    /**
+     * Row sums of the full symmetric matrix (entries are stored upper-triangular)
+     */
+    public ListOfDoubleArrays getRowSums() {
+        return reduceOverSubLists(() -> new ListOfDoubleArrays(matrixSize), (chunk, sums) -> {
+            for (int z = 0; z < chunk.size(); z++) {
+                int x = chunk.getBinX(z);
+                int y = chunk.getBinY(z);
+                float counts = chunk.getCounts(z);
+                sums.addTo(x, counts);
+                if (x != y) {
+                    sums.addTo(y, counts);
+                }
+            }
+        }, BigContactArray::mergeDoubleLists);
+    }
+
+    /**
+     * Symmetric sparse matrix times vector; NaN entries of the vector are treated as zero
+     */
+    public ListOfDoubleArrays sparseMultiplyAcrossLists(ListOfFloatArrays vector) {
+        return reduceOverSubLists(() -> new ListOfDoubleArrays(matrixSize), (chunk, product) -> {
+            for (int z = 0; z < chunk.size(); z++) {
+                int x = chunk.getBinX(z);
+                int y = chunk.getBinY(z);
+                float counts = chunk.getCounts(z);
+                float valX = vector.get(x);
+                float valY = vector.get(y);
+                if (!Float.isNaN(valY)) {
+                    product.addTo(x, counts * valY);
+                }
+                if (x != y && !Float.isNaN(valX)) {
+                    product.addTo(y, counts * valX);
+                }
+            }
+        }, BigContactArray::mergeDoubleLists);
+    }
+
+    private static ListOfDoubleArrays mergeDoubleLists(ListOfDoubleArrays a, ListOfDoubleArrays b) {
+        for (long k = 0; k < a.getLength(); k++) {
+            double val = b.get(k);
+            if (val != 0) {
+                a.addTo(k, val);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Splits the sublists into one contiguous range per thread; each range fills its own partial
+     * accumulator, and partials are merged pairwise as the fork-join tasks complete.
+     */
+    private <T> T reduceOverSubLists(Supplier<T> initializer, ChunkAccumulator<T> accumulator,
+                                     BinaryOperator<T> merger) {
+        int numSubLists = getNumSubLists();
+        int numThreads = getNumThreads();
+        if (numThreads < 2) {
+            T result = initializer.get();
+            for (int sIndx = 0; sIndx < numSubLists; sIndx++) {
+                accumulator.accumulate(getChunk(sIndx), result);
+            }
+            return result;
+        }
+
+        int rangeSize = (numSubLists + numThreads - 1) / numThreads;
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            return pool.invoke(new SubListReduction<>(this, 0, numSubLists, rangeSize,
+                    initializer, accumulator, merger));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private interface ChunkAccumulator<T> {
+        void accumulate(ContactChunk chunk, T partial);
+    }
+
+    private static class SubListReduction<T> extends RecursiveTask<T> {
+        private final BigContactArray array;
+        private final int start, end, rangeSize;
+        private final Supplier<T> initializer;
+        private final ChunkAccumulator<T> accumulator;
+        private final BinaryOperator<T> merger;
+
+        SubListReduction(BigContactArray array, int start, int end, int rangeSize, Supplier<T> initializer,
+                         ChunkAccumulator<T> accumulator, BinaryOperator<T> merger) {
+            this.array = array;
+            this.start = start;
+            this.end = end;
+            this.rangeSize = rangeSize;
+            this.initializer = initializer;
+            this.accumulator = accumulator;
+            this.merger = merger;
+        }
+
+        @Override
+        protected T compute() {
+            if (end - start <= rangeSize) {
+                T partial = initializer.get();
+                for (int sIndx = start; sIndx < end; sIndx++) {
+                    accumulator.accumulate(array.getChunk(sIndx), partial);
+                }
+                return partial;
+            }
+            int numRanges = (end - start + rangeSize - 1) / rangeSize;
+            int mid = start + (numRanges / 2) * rangeSize;
+            SubListReduction<T> left = new SubListReduction<>(array, start, mid, rangeSize,
+                    initializer, accumulator, merger);
+            SubListReduction<T> right = new SubListReduction<>(array, mid, end, rangeSize,
+                    initializer, accumulator, merger);
+            right.fork();
+            T leftResult = left.compute();
+            return merger.apply(leftResult, right.join());
+        }
+    }
+
+    public interface ContactChunk {
+        int size();
+
+        int getBinX(int z);
+
+        int getBinY(int z);
+
+        float getCounts(int z);
+    }
+
+    private static class ArrayChunk implements ContactChunk {
+        private final int[] x, y;
+        private final float[] c;
+
+        ArrayChunk(int[] x, int[] y, float[] c) {
+            this.x = x;
+            this.y = y;
+            this.c = c;
+        }
+
+        public int size() {
+            return x.length;
+        }
+
+        public int getBinX(int z) {
+            return x[z];
+        }
+
+        public int getBinY(int z) {
+            return y[z];
+        }
+
+        public float getCounts(int z) {
+            return c[z];
         }
-        return numNonZero;
     }
 }
@@ -27,16 +27,63 @@ package cli.utils.bigarray;
 import javastraw.reader.block.ContactRecord;
 import javastraw.reader.mzd.MatrixZoomData;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
 
 public class BigContactArrayCreator {
+
+    private static final int DEFAULT_LIMIT = 10000000;
+
     public static BigContactArray createFromZD(MatrixZoomData zd) {
-        return populateBigArrayFromSingleIterator(zd.getDirectIterator(), 10000000, zd.getMatrixSize());
+        return populateBigArrayFromSingleIterator(zd.getDirectIterator(), DEFAULT_LIMIT, zd.getMatrixSize());
+    }
+
+    public static BigContactArray createFromZD(MatrixZoomData zd, ChunkProcessor processor, int numConsumers) {
+        return populateBigArrayFromSingleIterator(zd.getDirectIterator(), DEFAULT_LIMIT, zd.getMatrixSize(),
+                processor, numConsumers);
+    }
+
+    /**
+     * Streams the zoom data into a spill file in the given directory instead of heap chunks
+     */
+    public static MappedBigContactArray createFromZDOnDisk(MatrixZoomData zd, File directory) throws IOException {
+        MappedBigContactArray allRecords = MappedBigContactArray.createTemporary(zd.getMatrixSize(), directory);
+        populateBigArray(zd.getDirectIterator(), DEFAULT_LIMIT, allRecords, null, 0);
+        return allRecords;
     }
 
     public static BigContactArray populateBigArrayFromSingleIterator(Iterator<ContactRecord> iterator, int limit,
                                                                      long matrixSize) {
+        return populateBigArrayFromSingleIterator(iterator, limit, matrixSize, null, 0);
+    }
+
+    /**
+     * The calling thread drains the iterator and fills chunks; each completed chunk is appended in order
+     * and handed to the consumer threads, which run the processor on it while the next chunk is filled.
+     */
+    public static BigContactArray populateBigArrayFromSingleIterator(Iterator<ContactRecord> iterator, int limit,
+                                                                     long matrixSize, ChunkProcessor processor,
+                                                                     int numConsumers) {
         BigContactArray allRecords = new BigContactArray(matrixSize);
+        populateBigArray(iterator, limit, allRecords, processor, numConsumers);
+        return allRecords;
+    }
+
+    /**
+     * Fills any target array; when the target does not keep the arrays it is given (e.g. a spill file),
+     * the same fill buffers are reused for every chunk
+     */
+    public static void populateBigArray(Iterator<ContactRecord> iterator, int limit, BigContactArray allRecords,
+                                        ChunkProcessor processor, int numConsumers) {
+        boolean reuseBuffers = !allRecords.keepsSubListArrays();
+        ExecutorService consumers = processor != null && numConsumers > 0 ?
+                Executors.newFixedThreadPool(numConsumers) : null;
+        List<Future<?>> pending = new ArrayList<>();
+
         int[] x = new int[limit];
         int[] y = new int[limit];
         float[] c = new float[limit];
@@ -49,16 +96,49 @@ public class BigContactArrayCreator {
             counter++;
             if (counter >= limit) {
                 allRecords.addSubList(x, y, c);
-                x = new int[limit];
-                y = new int[limit];
-                c = new float[limit];
+                handOff(consumers, pending, processor, allRecords);
+                if (!reuseBuffers) {
+                    x = new int[limit];
+                    y = new int[limit];
+                    c = new float[limit];
+                }
                 counter = 0;
             }
         }
         if (counter > 0) {
             allRecords.addSubList(x, y, c, counter);
+            handOff(consumers, pending, processor, allRecords);
         }
-        return allRecords;
+
+        if (consumers != null) {
+            awaitAll(pending);
+            consumers.shutdown();
+        }
+    }
+
+    private static void handOff(ExecutorService consumers, List<Future<?>> pending, ChunkProcessor processor,
+                                BigContactArray allRecords) {
+        if (processor == null) return;
+        BigContactArray.ContactChunk chunk = allRecords.getChunk(allRecords.getNumSubLists() - 1);
+        if (consumers == null) {
+            processor.process(chunk);
+        } else {
+            pending.add(consumers.submit(() -> processor.process(chunk)));
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> pending) {
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Unable to process contact chunk", e);
+            }
+        }
+        pending.clear();
     }
 
+    public interface ChunkProcessor {
+        void process(BigContactArray.ContactChunk chunk);
+    }
 }
@@ -0,0 +1,193 @@
+package cli.utils.bigarray;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * BigContactArray whose sublists live in a columnar spill file rather than on the heap.
+ * Each sublist is written as [binX ints][binY ints][count floats] and mapped once as soon as it is
+ * written; reads go through those MappedByteBuffer views, so heap usage stays flat regardless of the
+ * number of contacts.
+ */
+public class MappedBigContactArray extends BigContactArray {
+
+    private static final int BYTES_PER_ENTRY = 12;
+    private static final int WRITE_BUFFER_ENTRIES = 1 << 16;
+
+    private final File spillFile;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_ENTRIES * 4)
+            .order(ByteOrder.nativeOrder());
+    private long writePosition = 0;
+
+    public MappedBigContactArray(long matrixSize, File spillFile) throws IOException {
+        super(matrixSize);
+        this.spillFile = spillFile;
+        this.spillFile.deleteOnExit();
+        raf = new RandomAccessFile(spillFile, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+    }
+
+    public static MappedBigContactArray createTemporary(long matrixSize, File directory) throws IOException {
+        File spill = File.createTempFile("contacts_", ".bca", directory);
+        return new MappedBigContactArray(matrixSize, spill);
+    }
+
+    @Override
+    public void addSubList(int[] x, int[] y, float[] c) {
+        addSubList(x, y, c, x.length);
+    }
+
+    @Override
+    public synchronized void addSubList(int[] x, int[] y, float[] c, int counter) {
+        try {
+            long offset = writePosition;
+            writeInts(x, counter);
+            writeInts(y, counter);
+            writeFloats(c, counter);
+            chunks.add(map(offset, counter));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to spill contacts to " + spillFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Spilled sublists of the other array are shared through their mappings; heap sublists are
+     * streamed into this file, so nothing is copied back onto the heap
+     */
+    @Override
+    public synchronized void addAllSubLists(BigContactArray other) {
+        for (int sIndx = 0; sIndx < other.getNumSubLists(); sIndx++) {
+            ContactChunk chunk = other.getChunk(sIndx);
+            if (chunk instanceof MappedChunk) {
+                chunks.add(chunk);
+            } else {
+                spill(chunk);
+            }
+        }
+    }
+
+    @Override
+    protected boolean keepsSubListArrays() {
+        return false;
+    }
+
+    private void spill(ContactChunk chunk) {
+        try {
+            long offset = writePosition;
+            int length = chunk.size();
+            for (int column = 0; column < 3; column++) {
+                for (int start = 0; start < length; start += WRITE_BUFFER_ENTRIES) {
+                    int end = Math.min(length, start + WRITE_BUFFER_ENTRIES);
+                    writeBuffer.clear();
+                    for (int z = start; z < end; z++) {
+                        if (column == 0) {
+                            writeBuffer.putInt(chunk.getBinX(z));
+                        } else if (column == 1) {
+                            writeBuffer.putInt(chunk.getBinY(z));
+                        } else {
+                            writeBuffer.putFloat(chunk.getCounts(z));
+                        }
+                    }
+                    writeBuffer.flip();
+                    flush();
+                }
+            }
+            chunks.add(map(offset, length));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to spill contacts to " + spillFile.getAbsolutePath(), e);
+        }
+    }
+
+    private MappedChunk map(long offset, int length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                (long) length * BYTES_PER_ENTRY);
+        buffer.order(ByteOrder.nativeOrder());
+        return new MappedChunk(buffer, length);
+    }
+
+    private void writeInts(int[] values, int length) throws IOException {
+        for (int start = 0; start < length; start += WRITE_BUFFER_ENTRIES) {
+            int end = Math.min(length, start + WRITE_BUFFER_ENTRIES);
+            writeBuffer.clear();
+            writeBuffer.asIntBuffer().put(values, start, end - start);
+            writeBuffer.limit((end - start) * 4);
+            flush();
+        }
+    }
+
+    private void writeFloats(float[] values, int length) throws IOException {
+        for (int start = 0; start < length; start += WRITE_BUFFER_ENTRIES) {
+            int end = Math.min(length, start + WRITE_BUFFER_ENTRIES);
+            writeBuffer.clear();
+            writeBuffer.asFloatBuffer().put(values, start, end - start);
+            writeBuffer.limit((end - start) * 4);
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        while (writeBuffer.hasRemaining()) {
+            writePosition += channel.write(writeBuffer, writePosition);
+        }
+    }
+
+    @Override
+    public void clear() {
+        chunks.clear();
+        try {
+            channel.close();
+            raf.close();
+        } catch (IOException e) {
+            System.err.println("Unable to close " + spillFile.getAbsolutePath());
+        }
+        if (!spillFile.delete()) {
+            System.err.println("Unable to delete " + spillFile.getAbsolutePath());
+        }
+    }
+
+    private static class MappedChunk implements ContactChunk {
+        private final IntBuffer x, y;
+        private final FloatBuffer c;
+        private final int length;
+
+        MappedChunk(MappedByteBuffer buffer, int length) {
+            this.length = length;
+            x = slice(buffer, 0, length).asIntBuffer();
+            y = slice(buffer, length * 4, length).asIntBuffer();
+            c = slice(buffer, length * 8, length).asFloatBuffer();
+        }
+
+        private static ByteBuffer slice(MappedByteBuffer buffer, int position, int length) {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(position);
+            duplicate.limit(position + length * 4);
+            return duplicate.slice().order(ByteOrder.nativeOrder());
+        }
+
+        public int size() {
+            return length;
+        }
+
+        public int getBinX(int z) {
+            return x.get(z);
+        }
+
+        public int getBinY(int z) {
+            return y.get(z);
+        }
+
+        public float getCounts(int z) {
+            return c.get(z);
+        }
+    }
+}
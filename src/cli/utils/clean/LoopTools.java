@@ -1,9 +1,9 @@
 package cli.utils.clean;
 
+import cli.utils.general.LoopListCache;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DFilter;
 import javastraw.feature2D.Feature2DList;
-import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.basics.ChromosomeHandler;
 
 import java.util.ArrayList;
@@ -13,7 +13,7 @@ public class LoopTools {
 
     public static Feature2DList loadNearDiagonalFilteredBedpe(String bedpeFile, ChromosomeHandler handler,
                                                               boolean loadAttributes) {
-        return Feature2DParser.loadFeatures(bedpeFile, handler,
+        return LoopListCache.loadFeatures(bedpeFile, handler,
                 loadAttributes, getNearDiagonalFilter(), false);
     }
 
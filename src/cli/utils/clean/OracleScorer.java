@@ -1,5 +1,6 @@
 package cli.utils.clean;
 
+import cli.utils.data.LoopAttributeTable;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
 
@@ -9,26 +10,34 @@ import java.util.List;
 import java.util.Set;
 
 public class OracleScorer {
+    private static final String[] ORACLE_KEYS = new String[]{"score_oracle_1000", "score_oracle_2000",
+            "score_oracle_5000", "score_oracle_10000"};
+
     public static Feature2DList filter(Feature2DList loopList, boolean beStrict) {
-        loopList.filterLists((chr, feature2DList) -> filterByOracleParams(feature2DList, beStrict));
+        LoopAttributeTable attributes = new LoopAttributeTable(loopList);
+        for (String key : ORACLE_KEYS) {
+            attributes.parseFloatColumn(key, Float.NaN);
+        }
+        loopList.filterLists((chr, feature2DList) -> filterByOracleParams(feature2DList, beStrict, attributes));
         return loopList;
     }
 
-    private static List<Feature2D> filterByOracleParams(List<Feature2D> loops, boolean beStrict) {
+    private static List<Feature2D> filterByOracleParams(List<Feature2D> loops, boolean beStrict,
+                                                        LoopAttributeTable attributes) {
         Set<Feature2D> goodLoops = new HashSet<>();
         for (Feature2D loop : loops) {
-            if (passesOracleCriteria(loop, beStrict)) {
+            if (passesOracleCriteria(loop, beStrict, attributes)) {
                 goodLoops.add(loop);
             }
         }
         return new ArrayList<>(goodLoops);
     }
 
-    private static boolean passesOracleCriteria(Feature2D loop, boolean beStrict) {
-        float r1k = Float.parseFloat(loop.getAttribute("score_oracle_1000"));
-        float r2k = Float.parseFloat(loop.getAttribute("score_oracle_2000"));
-        float r5k = Float.parseFloat(loop.getAttribute("score_oracle_5000"));
-        float r10k = Float.parseFloat(loop.getAttribute("score_oracle_10000"));
+    private static boolean passesOracleCriteria(Feature2D loop, boolean beStrict, LoopAttributeTable attributes) {
+        float r1k = attributes.getFloat(loop, ORACLE_KEYS[0], Float.NaN);
+        float r2k = attributes.getFloat(loop, ORACLE_KEYS[1], Float.NaN);
+        float r5k = attributes.getFloat(loop, ORACLE_KEYS[2], Float.NaN);
+        float r10k = attributes.getFloat(loop, ORACLE_KEYS[3], Float.NaN);
 
         int dist = LoopTools.dist(loop);
         if (dist > 1000000) {
@@ -3,13 +3,62 @@ package cli.utils.clique;
 import javastraw.feature2D.Feature2D;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class ConnectedComponents {
-    public static List<Feature2D> processClique(float[][] adjMatrix, Map<Integer, Node> idToNodeMapping,
-                                                int index, String chrom, int resolution) {
-        List<Feature2D> clique = new ArrayList<>();
-        return clique;
+
+    /**
+     * Breadth-first labelling; components are numbered in order of their smallest node.
+     * Nodes without edges get -1.
+     */
+    public static int[] label(SparseAdjacency a) {
+        int n = a.getNumNodes();
+        int[] labels = new int[n];
+        Arrays.fill(labels, -1);
+        int[] queue = new int[n];
+        int numComponents = 0;
+        for (int start = 0; start < n; start++) {
+            if (labels[start] >= 0 || !a.hasNeighbors(start)) continue;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            labels[start] = numComponents;
+            while (head < tail) {
+                int node = queue[head++];
+                for (int k = a.getRowStart(node); k < a.getRowEnd(node); k++) {
+                    int neighbor = a.getColumn(k);
+                    if (labels[neighbor] < 0) {
+                        labels[neighbor] = numComponents;
+                        queue[tail++] = neighbor;
+                    }
+                }
+            }
+            numComponents++;
+        }
+        return labels;
+    }
+
+    /**
+     * Loops grouped by the connected component of their anchors, keeping the input order within a group
+     */
+    public static List<List<Feature2D>> getLoopsPerComponent(List<Feature2D> loops, NetworkMatrix network) {
+        int[] labels = label(network.getAdjacency());
+        int numComponents = 0;
+        for (int label : labels) {
+            numComponents = Math.max(numComponents, label + 1);
+        }
+
+        List<List<Feature2D>> components = new ArrayList<>(numComponents);
+        for (int c = 0; c < numComponents; c++) {
+            components.add(new ArrayList<>());
+        }
+        int[] upStreamIDs = network.getUpStreamIDs();
+        int[] downStreamIDs = network.getDownStreamIDs();
+        for (int i = 0; i < loops.size(); i++) {
+            if (upStreamIDs[i] >= 0 && downStreamIDs[i] >= 0 && upStreamIDs[i] != downStreamIDs[i]) {
+                components.get(labels[upStreamIDs[i]]).add(loops.get(i));
+            }
+        }
+        return components;
     }
 }
@@ -2,40 +2,90 @@ package cli.utils.clique;
 
 import javastraw.tools.ParallelizationTools;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class MatrixUtils {
 
-    public static float[][] cube(float[][] a) {
-        return multiply(a, multiply(a, a));
-    }
-
-    public static float[][] multiply(float[][] a, float[][] b) {
-        int numARows = a.length;
-        int numACols = a[0].length;
-        int numBCols = b[0].length;
-
-        float[][] result = new float[numARows][numBCols];
+    /**
+     * Sparsity pattern of the upper triangle of A^3: for each row i, the sorted j > i that can be
+     * reached from i by a walk of exactly three edges. Only the support is needed, so each row is a
+     * frontier expansion over the neighbor lists instead of a dense multiply.
+     */
+    public static int[][] getUpperTriangleOfCube(SparseAdjacency a) {
+        int n = a.getNumNodes();
+        int[][] result = new int[n][];
         AtomicInteger currRowIndex = new AtomicInteger(0);
         ParallelizationTools.launchParallelizedCode(() -> {
+            Frontier step1 = new Frontier(n);
+            Frontier step2 = new Frontier(n);
+            Frontier step3 = new Frontier(n);
             int i = currRowIndex.getAndIncrement();
-            while (i < numARows) {
-                for (int j = 0; j < numBCols; j++) {
-                    for (int k = 0; k < numACols; k++) {
-                        result[i][j] += a[i][k] * b[k][j];
-                    }
-                }
+            while (i < n) {
+                step1.clear();
+                step1.add(i);
+                expand(a, step1, step2);
+                expand(a, step2, step1);
+                expand(a, step1, step3);
+                result[i] = step3.getSortedAbove(i);
                 i = currRowIndex.getAndIncrement();
             }
         });
         return result;
     }
 
-    public static void setEverythingBelowDiagonalToZero(float[][] matrix) {
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j <= i; j++) {
-                matrix[i][j] = 0;
+    /**
+     * Replaces target with every neighbor of a node in source
+     */
+    private static void expand(SparseAdjacency a, Frontier source, Frontier target) {
+        target.clear();
+        for (int s = 0; s < source.size; s++) {
+            int node = source.nodes[s];
+            for (int k = a.getRowStart(node); k < a.getRowEnd(node); k++) {
+                target.add(a.getColumn(k));
+            }
+        }
+    }
+
+    /**
+     * Set of node ids; clearing is O(1) by bumping the stamp
+     */
+    private static class Frontier {
+        private final int[] nodes;
+        private final int[] stamps;
+        private int stamp = 1;
+        private int size = 0;
+
+        Frontier(int n) {
+            nodes = new int[n];
+            stamps = new int[n];
+        }
+
+        void clear() {
+            size = 0;
+            stamp++;
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        void add(int node) {
+            if (stamps[node] != stamp) {
+                stamps[node] = stamp;
+                nodes[size++] = node;
+            }
+        }
+
+        int[] getSortedAbove(int i) {
+            int count = 0;
+            int[] above = new int[size];
+            for (int s = 0; s < size; s++) {
+                if (nodes[s] > i) above[count++] = nodes[s];
             }
+            above = Arrays.copyOf(above, count);
+            Arrays.sort(above);
+            return above;
         }
     }
 }
@@ -54,23 +54,32 @@ public class NetworkBuilder {
         return mapping;
     }
 
-    public static float[][] buildAdjacencyMatrix(int maxN, List<Feature2D> list,
-                                                 Map<Integer, Node> upStreamBinToNode,
-                                                 Map<Integer, Node> downStreamBinToNode,
-                                                 int resolution) {
-        float[][] matrix = new float[maxN][maxN];
-        for (Feature2D feature : list) {
-            int upStreamBin = (int) (feature.getMidPt1() / resolution);
-            int downStreamBin = (int) (feature.getMidPt2() / resolution);
-            if (upStreamBinToNode.containsKey(upStreamBin) && downStreamBinToNode.containsKey(downStreamBin)) {
-                int upStreamID = upStreamBinToNode.get(upStreamBin).getId();
-                int downStreamID = downStreamBinToNode.get(downStreamBin).getId();
-                if (upStreamID != downStreamID) {
-                    matrix[upStreamID][downStreamID] = 1;
-                    matrix[downStreamID][upStreamID] = 1;
-                }
+    /**
+     * @return the node id of the upstream (or downstream) anchor of each loop, or -1 if it has none
+     */
+    public static int[] getAnchorNodeIDs(List<Feature2D> list, Map<Integer, Node> binToNode,
+                                         boolean upStream, int resolution) {
+        int[] ids = new int[list.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Feature2D feature = list.get(i);
+            int bin = (int) ((upStream ? feature.getMidPt1() : feature.getMidPt2()) / resolution);
+            Node node = binToNode.get(bin);
+            ids[i] = node == null ? -1 : node.getId();
+        }
+        return ids;
+    }
+
+    public static SparseAdjacency buildAdjacency(int maxN, int[] upStreamIDs, int[] downStreamIDs) {
+        int[] from = new int[upStreamIDs.length];
+        int[] to = new int[upStreamIDs.length];
+        int numEdges = 0;
+        for (int i = 0; i < upStreamIDs.length; i++) {
+            if (upStreamIDs[i] >= 0 && downStreamIDs[i] >= 0 && upStreamIDs[i] != downStreamIDs[i]) {
+                from[numEdges] = upStreamIDs[i];
+                to[numEdges] = downStreamIDs[i];
+                numEdges++;
             }
         }
-        return matrix;
+        return new SparseAdjacency(maxN, from, to, numEdges);
     }
 }
@@ -9,7 +9,8 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class NetworkMatrix {
-    private final float[][] adjacencyMatrix;
+    private final SparseAdjacency adjacency;
+    private final int[] upStreamIDs, downStreamIDs;
     private final List<Node> upStreamNodes;
     private final List<Node> downStreamNodes;
     private final Map<Integer, Node> idToNode;
@@ -30,8 +31,9 @@ public class NetworkMatrix {
         Map<Integer, Node> upStreamBinToNode = NetworkBuilder.buildIndexToNodeMapping(upStreamNodes);
         Map<Integer, Node> downStreamBinToNode = NetworkBuilder.buildIndexToNodeMapping(downStreamNodes);
 
-        this.adjacencyMatrix = NetworkBuilder.buildAdjacencyMatrix(maxN, loops,
-                upStreamBinToNode, downStreamBinToNode, resolution);
+        this.upStreamIDs = NetworkBuilder.getAnchorNodeIDs(loops, upStreamBinToNode, true, resolution);
+        this.downStreamIDs = NetworkBuilder.getAnchorNodeIDs(loops, downStreamBinToNode, false, resolution);
+        this.adjacency = NetworkBuilder.buildAdjacency(maxN, upStreamIDs, downStreamIDs);
 
         this.idToNode = buildIDToNodeMapping(upStreamNodes, downStreamNodes);
 
@@ -48,8 +50,19 @@ public class NetworkMatrix {
         return idToNode;
     }
 
-    public float[][] getAdjMatrix() {
-        return adjacencyMatrix;
+    public SparseAdjacency getAdjacency() {
+        return adjacency;
+    }
+
+    /**
+     * Node ids of each loop's anchors, in the order of the input list (-1 if unmapped)
+     */
+    public int[] getUpStreamIDs() {
+        return upStreamIDs;
+    }
+
+    public int[] getDownStreamIDs() {
+        return downStreamIDs;
     }
 
     public Map<Integer, Node> getIDToNodeMapping() {
@@ -0,0 +1,77 @@
+package cli.utils.clique;
+
+import java.util.Arrays;
+
+/**
+ * Undirected, unweighted adjacency in CSR form: the neighbors of node i are
+ * columns[rowStarts[i]] .. columns[rowStarts[i + 1] - 1], sorted and without duplicates or self loops.
+ */
+public class SparseAdjacency {
+    private final int[] rowStarts;
+    private final int[] columns;
+
+    /**
+     * @param from, to the first numEdges entries are the edges; each is added in both directions
+     */
+    public SparseAdjacency(int numNodes, int[] from, int[] to, int numEdges) {
+        int[] degree = new int[numNodes + 1];
+        for (int e = 0; e < numEdges; e++) {
+            if (from[e] != to[e]) {
+                degree[from[e]]++;
+                degree[to[e]]++;
+            }
+        }
+
+        int[] starts = new int[numNodes + 1];
+        for (int i = 0; i < numNodes; i++) {
+            starts[i + 1] = starts[i] + degree[i];
+        }
+        int[] filled = Arrays.copyOf(starts, numNodes);
+        int[] entries = new int[starts[numNodes]];
+        for (int e = 0; e < numEdges; e++) {
+            if (from[e] != to[e]) {
+                entries[filled[from[e]]++] = to[e];
+                entries[filled[to[e]]++] = from[e];
+            }
+        }
+
+        // sort each row and drop repeated edges
+        rowStarts = new int[numNodes + 1];
+        int size = 0;
+        for (int i = 0; i < numNodes; i++) {
+            Arrays.sort(entries, starts[i], starts[i + 1]);
+            rowStarts[i] = size;
+            for (int k = starts[i]; k < starts[i + 1]; k++) {
+                if (size == rowStarts[i] || entries[size - 1] != entries[k]) {
+                    entries[size++] = entries[k];
+                }
+            }
+        }
+        rowStarts[numNodes] = size;
+        columns = Arrays.copyOf(entries, size);
+    }
+
+    public int getNumNodes() {
+        return rowStarts.length - 1;
+    }
+
+    public int getNumEdges() {
+        return columns.length / 2;
+    }
+
+    public int getRowStart(int i) {
+        return rowStarts[i];
+    }
+
+    public int getRowEnd(int i) {
+        return rowStarts[i + 1];
+    }
+
+    public int getColumn(int k) {
+        return columns[k];
+    }
+
+    public boolean hasNeighbors(int i) {
+        return rowStarts[i + 1] > rowStarts[i];
+    }
+}
@@ -1,11 +0,0 @@
-package cli.utils.data;
-
-public class FloatPair {
-    public final float count;
-    public final float oe;
-
-    public FloatPair(float count, float oe) {
-        this.count = count;
-        this.oe = oe;
-    }
-}
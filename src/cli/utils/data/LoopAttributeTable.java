@@ -0,0 +1,344 @@
+package cli.utils.data;
+
+import javastraw.feature2D.Feature2D;
+import javastraw.feature2D.Feature2DList;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Columnar attribute storage for a fixed set of loops.
+ * <p>
+ * Each attribute name maps to one primitive column indexed by loop, so numeric results are kept as
+ * floats/doubles/ints instead of per-loop string maps. Values are only turned into strings when
+ * written onto the Feature2D (typically right before export). Reads fall back to the loop's own string
+ * attributes, so loops loaded from a bedpe work the same as freshly scored ones. A key keeps the type
+ * it was first written with; writing it as another type fails.
+ * <p>
+ * All loops are registered up front; after that, concurrent writes to different loops are safe.
+ */
+public class LoopAttributeTable {
+
+    private final Map<Feature2D, Integer> indices = new IdentityHashMap<>();
+    private final List<Feature2D> loops = new ArrayList<>();
+    private final Map<String, Column> columns = new ConcurrentHashMap<>();
+    private final List<String> columnOrder = Collections.synchronizedList(new ArrayList<>());
+
+    public LoopAttributeTable(Feature2DList loopList) {
+        loopList.processLists((s, list) -> {
+            for (Feature2D loop : list) {
+                register(loop);
+            }
+        });
+    }
+
+    public LoopAttributeTable(Collection<Feature2D> loopCollection) {
+        for (Feature2D loop : loopCollection) {
+            register(loop);
+        }
+    }
+
+    private void register(Feature2D loop) {
+        if (!indices.containsKey(loop)) {
+            indices.put(loop, loops.size());
+            loops.add(loop);
+        }
+    }
+
+    public int size() {
+        return loops.size();
+    }
+
+    public int indexOf(Feature2D loop) {
+        Integer index = indices.get(loop);
+        return index == null ? -1 : index;
+    }
+
+    private Column getColumn(String key, ColumnType type) {
+        Column column = columns.get(key);
+        if (column == null) {
+            synchronized (columns) {
+                column = columns.get(key);
+                if (column == null) {
+                    column = type.create(loops.size());
+                    columns.put(key, column);
+                    columnOrder.add(key);
+                }
+            }
+        }
+        if (column.type != type) {
+            throw new IllegalArgumentException("Attribute " + key + " is stored as " + column.type +
+                    ", cannot access it as " + type);
+        }
+        return column;
+    }
+
+    public void setFloat(Feature2D loop, String key, float value) {
+        int index = indexOf(loop);
+        if (index < 0) {
+            loop.addStringAttribute(key, "" + value);
+        } else {
+            ((FloatColumn) getColumn(key, ColumnType.FLOAT)).set(index, value);
+        }
+    }
+
+    public void setDouble(Feature2D loop, String key, double value) {
+        int index = indexOf(loop);
+        if (index < 0) {
+            loop.addStringAttribute(key, "" + value);
+        } else {
+            ((DoubleColumn) getColumn(key, ColumnType.DOUBLE)).set(index, value);
+        }
+    }
+
+    public void setInt(Feature2D loop, String key, int value) {
+        int index = indexOf(loop);
+        if (index < 0) {
+            loop.addStringAttribute(key, "" + value);
+        } else {
+            ((IntColumn) getColumn(key, ColumnType.INT)).set(index, value);
+        }
+    }
+
+    /**
+     * For values with no primitive form (e.g. comma-joined vectors)
+     */
+    public void setString(Feature2D loop, String key, String value) {
+        int index = indexOf(loop);
+        if (index < 0) {
+            loop.addStringAttribute(key, value);
+        } else {
+            ((StringColumn) getColumn(key, ColumnType.STRING)).set(index, value);
+        }
+    }
+
+    public boolean has(Feature2D loop, String key) {
+        int index = indexOf(loop);
+        Column column = columns.get(key);
+        if (index >= 0 && column != null && column.present[index]) {
+            return true;
+        }
+        return loop.hasAttributeKey(key);
+    }
+
+    public float getFloat(Feature2D loop, String key, float defaultValue) {
+        int index = indexOf(loop);
+        Column column = columns.get(key);
+        if (index >= 0 && column != null && column.present[index]) {
+            return column.getFloat(index);
+        }
+        if (loop.hasAttributeKey(key)) {
+            try {
+                return Float.parseFloat(loop.getAttribute(key));
+            } catch (Exception ignored) {
+            }
+        }
+        return defaultValue;
+    }
+
+    public int getInt(Feature2D loop, String key, int defaultValue) {
+        int index = indexOf(loop);
+        Column column = columns.get(key);
+        if (index >= 0 && column instanceof IntColumn && column.present[index]) {
+            return ((IntColumn) column).values[index];
+        }
+        if (loop.hasAttributeKey(key)) {
+            try {
+                return Integer.parseInt(loop.getAttribute(key));
+            } catch (Exception ignored) {
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * String view of an attribute, whether it lives in a column or on the loop
+     */
+    public String getString(Feature2D loop, String key) {
+        int index = indexOf(loop);
+        Column column = columns.get(key);
+        if (index >= 0 && column != null && column.present[index]) {
+            return column.format(index);
+        }
+        return loop.getAttribute(key);
+    }
+
+    /**
+     * Parse an existing string attribute of every loop into a float column once, so later reads skip parsing
+     */
+    public void parseFloatColumn(String key, float defaultValue) {
+        FloatColumn column = (FloatColumn) getColumn(key, ColumnType.FLOAT);
+        for (int i = 0; i < loops.size(); i++) {
+            if (!column.present[i]) {
+                Feature2D loop = loops.get(i);
+                float value = defaultValue;
+                if (loop.hasAttributeKey(key)) {
+                    try {
+                        value = Float.parseFloat(loop.getAttribute(key));
+                    } catch (Exception ignored) {
+                    }
+                }
+                column.set(i, value);
+            }
+        }
+    }
+
+    public void writeTo(Feature2D loop) {
+        writeTo(loop, loop);
+    }
+
+    /**
+     * Write the columns of source onto target, e.g. a copy that is about to be exported
+     */
+    public void writeTo(Feature2D source, Feature2D target) {
+        int index = indexOf(source);
+        if (index < 0) return;
+        List<String> keys;
+        synchronized (columnOrder) {
+            keys = new ArrayList<>(columnOrder);
+        }
+        for (String key : keys) {
+            Column column = columns.get(key);
+            if (column.present[index]) {
+                target.addStringAttribute(key, column.format(index));
+            }
+        }
+    }
+
+    /**
+     * Serialize every column onto its loops; call before exporting the Feature2DList
+     */
+    public void writeToAll() {
+        for (Feature2D loop : loops) {
+            writeTo(loop);
+        }
+    }
+
+    public void clear() {
+        columns.clear();
+        columnOrder.clear();
+    }
+
+    private enum ColumnType {
+        FLOAT, DOUBLE, INT, STRING;
+
+        Column create(int n) {
+            switch (this) {
+                case DOUBLE:
+                    return new DoubleColumn(n);
+                case INT:
+                    return new IntColumn(n);
+                case STRING:
+                    return new StringColumn(n);
+                default:
+                    return new FloatColumn(n);
+            }
+        }
+    }
+
+    private static abstract class Column {
+        final ColumnType type;
+        final boolean[] present;
+
+        Column(ColumnType type, int n) {
+            this.type = type;
+            present = new boolean[n];
+        }
+
+        abstract float getFloat(int index);
+
+        abstract String format(int index);
+    }
+
+    private static class FloatColumn extends Column {
+        final float[] values;
+
+        FloatColumn(int n) {
+            super(ColumnType.FLOAT, n);
+            values = new float[n];
+        }
+
+        void set(int index, float value) {
+            values[index] = value;
+            present[index] = true;
+        }
+
+        float getFloat(int index) {
+            return values[index];
+        }
+
+        String format(int index) {
+            return "" + values[index];
+        }
+    }
+
+    private static class DoubleColumn extends Column {
+        final double[] values;
+
+        DoubleColumn(int n) {
+            super(ColumnType.DOUBLE, n);
+            values = new double[n];
+        }
+
+        void set(int index, double value) {
+            values[index] = value;
+            present[index] = true;
+        }
+
+        float getFloat(int index) {
+            return (float) values[index];
+        }
+
+        String format(int index) {
+            return "" + values[index];
+        }
+    }
+
+    private static class IntColumn extends Column {
+        final int[] values;
+
+        IntColumn(int n) {
+            super(ColumnType.INT, n);
+            values = new int[n];
+        }
+
+        void set(int index, int value) {
+            values[index] = value;
+            present[index] = true;
+        }
+
+        float getFloat(int index) {
+            return values[index];
+        }
+
+        String format(int index) {
+            return "" + values[index];
+        }
+    }
+
+    private static class StringColumn extends Column {
+        final String[] values;
+
+        StringColumn(int n) {
+            super(ColumnType.STRING, n);
+            values = new String[n];
+        }
+
+        void set(int index, String value) {
+            values[index] = value;
+            present[index] = true;
+        }
+
+        float getFloat(int index) {
+            try {
+                return Float.parseFloat(values[index]);
+            } catch (Exception e) {
+                return Float.NaN;
+            }
+        }
+
+        String format(int index) {
+            return values[index];
+        }
+    }
+}
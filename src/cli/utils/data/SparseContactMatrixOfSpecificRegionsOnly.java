@@ -20,10 +20,7 @@ public class SparseContactMatrixOfSpecificRegionsOnly extends SparseContactRecor
             ContactRecord cr = it.next();
             if (cr.getCounts() > 0) {
                 if (exactMask.containsKey(cr.getBinX()) && exactMask.get(cr.getBinX()).contains(cr.getBinY())) {
-                    if (!data.containsKey(cr.getBinX())) {
-                        data.put(cr.getBinX(), new HashMap<>());
-                    }
-                    data.get(cr.getBinX()).put(cr.getBinY(), cr);
+                    data.put(cr.getBinX(), cr.getBinY(), cr.getCounts());
                 }
             }
         }
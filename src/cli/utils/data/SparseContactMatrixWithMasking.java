@@ -23,10 +23,7 @@ public class SparseContactMatrixWithMasking extends SparseContactRecordStorage {
             if (cr.getCounts() > 0) {
                 if (distanceBoundCalculator.inDistanceRange(cr)) {
                     if (allIndices.contains(cr.getBinX()) && allIndices.contains(cr.getBinY())) {
-                        if (!data.containsKey(cr.getBinX())) {
-                            data.put(cr.getBinX(), new HashMap<>());
-                        }
-                        data.get(cr.getBinX()).put(cr.getBinY(), cr);
+                        data.put(cr.getBinX(), cr.getBinY(), cr.getCounts());
                     }
                 }
             }
@@ -0,0 +1,255 @@
+package cli.utils.data;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed (linear probing) map from a packed (binX << 32 | binY) key to primitive float columns.
+ * The counts column is always present; the oe column is only allocated when requested.
+ * Roughly 12 bytes per slot (16 with oe), versus ~100 bytes for nested boxed HashMaps.
+ */
+public class SparseContactStore {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float MAX_LOAD = 0.7f;
+    private static final int MIN_CAPACITY = 16;
+
+    private final boolean trackOE;
+    private long[] keys;
+    private float[] counts;
+    private float[] oes;
+    private int mask;
+    private int size = 0;
+    private int resizeThreshold;
+
+    public SparseContactStore() {
+        this(false);
+    }
+
+    public SparseContactStore(boolean trackOE) {
+        this(trackOE, MIN_CAPACITY);
+    }
+
+    public SparseContactStore(boolean trackOE, int expectedSize) {
+        this.trackOE = trackOE;
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, MIN_CAPACITY) / MAX_LOAD);
+        int capacity = Integer.highestOneBit((int) Math.min(needed, 1 << 30));
+        return capacity < needed ? capacity << 1 : capacity;
+    }
+
+    public static long toKey(int x, int y) {
+        return (((long) x) << 32) | (y & 0xffffffffL);
+    }
+
+    public static int getX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int getY(long key) {
+        return (int) key;
+    }
+
+    private static int mix(long key) {
+        key ^= (key >>> 33);
+        key *= 0xff51afd7ed558ccdL;
+        key ^= (key >>> 33);
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= (key >>> 33);
+        return (int) key;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new float[capacity];
+        oes = trackOE ? new float[capacity] : null;
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * MAX_LOAD);
+    }
+
+    private int indexOf(long key) {
+        int index = mix(key) & mask;
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -(index + 1);
+    }
+
+    public void put(int x, int y, float count) {
+        put(x, y, count, 0);
+    }
+
+    public void put(int x, int y, float count, float oe) {
+        long key = toKey(x, y);
+        int index = indexOf(key);
+        if (index < 0) {
+            if (size >= resizeThreshold) {
+                rehash(keys.length << 1);
+                index = indexOf(key);
+            }
+            index = -index - 1;
+            keys[index] = key;
+            size++;
+        }
+        counts[index] = count;
+        if (trackOE) {
+            oes[index] = oe;
+        }
+    }
+
+    public void addTo(int x, int y, float count) {
+        long key = toKey(x, y);
+        int index = indexOf(key);
+        if (index < 0) {
+            put(x, y, count);
+        } else {
+            counts[index] += count;
+        }
+    }
+
+    /**
+     * Sum contacts into bins that are factor times wider (binX / factor, binY / factor)
+     */
+    public SparseContactStore coarsen(int factor) {
+        SparseContactStore coarse = new SparseContactStore(false, size / Math.max(1, factor));
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                coarse.addTo(Math.floorDiv(getX(keys[i]), factor), Math.floorDiv(getY(keys[i]), factor), counts[i]);
+            }
+        }
+        return coarse;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        float[] oldCounts = counts;
+        float[] oldOEs = oes;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = -indexOf(oldKeys[i]) - 1;
+                keys[index] = oldKeys[i];
+                counts[index] = oldCounts[i];
+                if (trackOE) {
+                    oes[index] = oldOEs[i];
+                }
+            }
+        }
+    }
+
+    public boolean contains(int x, int y) {
+        return indexOf(toKey(x, y)) >= 0;
+    }
+
+    public float getCounts(int x, int y) {
+        int index = indexOf(toKey(x, y));
+        return index < 0 ? 0 : counts[index];
+    }
+
+    public float getOE(int x, int y, float defaultValue) {
+        if (!trackOE) return defaultValue;
+        int index = indexOf(toKey(x, y));
+        return index < 0 ? defaultValue : oes[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public float[][] getRegion(int binXStart, int binYStart, int binXEnd, int binYEnd) {
+        int numRows = binXEnd - binXStart;
+        int numCols = binYEnd - binYStart;
+        float[][] matrix = new float[numRows][numCols];
+        addRegion(matrix, binXStart, binYStart, numRows, numCols);
+        return matrix;
+    }
+
+    public void addLocalBoundedRegion(float[][] output, int binXStart, int binYStart, int matrixWidth) {
+        addRegion(output, binXStart, binYStart, matrixWidth, matrixWidth);
+    }
+
+    /**
+     * Adds the window into a flat row-major slab starting at offset
+     */
+    public void addLocalBoundedRegion(float[] output, int offset, int binXStart, int binYStart, int matrixWidth) {
+        if (size == 0) return;
+        if ((long) matrixWidth * matrixWidth > size) {
+            for (int i = 0; i < keys.length; i++) {
+                long key = keys[i];
+                if (key != EMPTY) {
+                    int r = getX(key) - binXStart;
+                    int c = getY(key) - binYStart;
+                    if (r >= 0 && r < matrixWidth && c >= 0 && c < matrixWidth) {
+                        output[offset + r * matrixWidth + c] += counts[i];
+                    }
+                }
+            }
+        } else {
+            for (int r = 0; r < matrixWidth; r++) {
+                int x = r + binXStart;
+                int rowOffset = offset + r * matrixWidth;
+                for (int c = 0; c < matrixWidth; c++) {
+                    int index = indexOf(toKey(x, c + binYStart));
+                    if (index >= 0) {
+                        output[rowOffset + c] += counts[index];
+                    }
+                }
+            }
+        }
+    }
+
+    private void addRegion(float[][] output, int binXStart, int binYStart, int numRows, int numCols) {
+        if (size == 0) return;
+        if ((long) numRows * numCols > size) {
+            // sparse relative to the window; walk the table instead of probing every cell
+            for (int i = 0; i < keys.length; i++) {
+                long key = keys[i];
+                if (key != EMPTY) {
+                    int r = getX(key) - binXStart;
+                    int c = getY(key) - binYStart;
+                    if (r >= 0 && r < numRows && c >= 0 && c < numCols) {
+                        output[r][c] += counts[i];
+                    }
+                }
+            }
+        } else {
+            for (int r = 0; r < numRows; r++) {
+                float[] row = output[r];
+                int x = r + binXStart;
+                for (int c = 0; c < numCols; c++) {
+                    int index = indexOf(toKey(x, c + binYStart));
+                    if (index >= 0) {
+                        row[c] += counts[index];
+                    }
+                }
+            }
+        }
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(getX(keys[i]), getY(keys[i]), counts[i], trackOE ? oes[i] : 0);
+            }
+        }
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    public interface EntryConsumer {
+        void accept(int binX, int binY, float counts, float oe);
+    }
+}
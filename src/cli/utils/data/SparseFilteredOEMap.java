@@ -12,9 +12,7 @@ import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationHandler;
 import javastraw.reader.type.NormalizationType;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 
 public class SparseFilteredOEMap {
 
@@ -22,7 +20,7 @@ public class SparseFilteredOEMap {
     private static final float Z_TOP_FIFTEEN = 1.04f;
     private static final float Z_1 = 1f;
 
-    private final Map<Integer, Map<Integer, FloatPair>> contactMap = new HashMap<>();
+    private final SparseContactStore contactMap = new SparseContactStore(true);
     private final float[] upStreamLogSignal;
     private final float[] downStreamLogSignal;
 
@@ -69,30 +67,18 @@ public class SparseFilteredOEMap {
 
 
     public void populateMap(ContactRecord cr, float oe) {
-        if (!contactMap.containsKey(cr.getBinX())) {
-            contactMap.put(cr.getBinX(), new HashMap<>());
-        }
-        contactMap.get(cr.getBinX()).put(cr.getBinY(), new FloatPair(cr.getCounts(), oe));
+        contactMap.put(cr.getBinX(), cr.getBinY(), cr.getCounts(), oe);
     }
 
     public float getOEValue(int binX, int binY) {
-        if (contactMap.containsKey(binX) && contactMap.get(binX).containsKey(binY)) {
-            return contactMap.get(binX).get(binY).oe;
-        }
-        return 1;
+        return contactMap.getOE(binX, binY, 1);
     }
 
     public float getCountValue(int binX, int binY) {
-        if (contactMap.containsKey(binX) && contactMap.get(binX).containsKey(binY)) {
-            return contactMap.get(binX).get(binY).count;
-        }
-        return 0;
+        return contactMap.getCounts(binX, binY);
     }
 
     public void clear() {
-        for (Map<Integer, FloatPair> map : contactMap.values()) {
-            map.clear();
-        }
         contactMap.clear();
     }
 
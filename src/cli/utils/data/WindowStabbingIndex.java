@@ -0,0 +1,143 @@
+package cli.utils.data;
+
+import cli.utils.apa.BatchedWindowExtractor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Stabbing index over square windows of the same width.
+ * Windows are kept as primitive start arrays sorted by row start, so a contact at (binX, binY) only has
+ * to look at windows whose row start lies in (binX - width, binX]; row and column bitsets reject
+ * contacts outside every window before any search. Queries do not allocate.
+ * Windows can carry a label (e.g. which loop list they came from) that selects their block in a flat slab.
+ */
+public class WindowStabbingIndex {
+
+    private final int width;
+    private final int[] xStarts;
+    private final int[] yStarts;
+    private final int[] labels;
+    private final BitSet rows = new BitSet();
+    private final BitSet cols = new BitSet();
+
+    /**
+     * @param xStarts, yStarts window origins (the first numWindows entries are used)
+     */
+    public WindowStabbingIndex(int[] xStarts, int[] yStarts, int numWindows, int width) {
+        this(xStarts, yStarts, new int[numWindows], numWindows, width);
+    }
+
+    public WindowStabbingIndex(int[] xStarts, int[] yStarts, int[] labels, int numWindows, int width) {
+        this.width = width;
+        long[] packed = new long[numWindows];
+        for (int i = 0; i < numWindows; i++) {
+            packed[i] = ((long) xStarts[i] << 32) | i;
+        }
+        Arrays.sort(packed);
+        this.xStarts = new int[numWindows];
+        this.yStarts = new int[numWindows];
+        this.labels = new int[numWindows];
+        for (int k = 0; k < numWindows; k++) {
+            int i = (int) packed[k];
+            this.xStarts[k] = xStarts[i];
+            this.yStarts[k] = yStarts[i];
+            this.labels[k] = labels[i];
+        }
+        for (int i = 0; i < numWindows; i++) {
+            rows.set(Math.max(0, this.xStarts[i]), Math.max(0, this.xStarts[i] + width));
+            cols.set(Math.max(0, this.yStarts[i]), Math.max(0, this.yStarts[i] + width));
+        }
+    }
+
+    public BitSet getRows() {
+        return rows;
+    }
+
+    public BitSet getCols() {
+        return cols;
+    }
+
+    public boolean contains(int binX, int binY) {
+        if (!probablyContains(binX, binY)) return false;
+        for (int i = firstCandidate(binX); i < xStarts.length && xStarts[i] <= binX; i++) {
+            if (yStarts[i] <= binY && binY < yStarts[i] + width) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the value at its relative position in every window that contains the contact
+     *
+     * @return whether any window contained it
+     */
+    public boolean addToWindows(int binX, int binY, float value, float[][] matrix) {
+        if (!probablyContains(binX, binY)) return false;
+        boolean found = false;
+        for (int i = firstCandidate(binX); i < xStarts.length && xStarts[i] <= binX; i++) {
+            int relativeY = binY - yStarts[i];
+            if (relativeY >= 0 && relativeY < width) {
+                matrix[binX - xStarts[i]][relativeY] += value;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Same as addToWindows, but into a row-major slab holding one width x width block per label
+     */
+    public boolean addToSlab(int binX, int binY, float value, float[] slab) {
+        if (!probablyContains(binX, binY)) return false;
+        boolean found = false;
+        int blockSize = width * width;
+        for (int i = firstCandidate(binX); i < xStarts.length && xStarts[i] <= binX; i++) {
+            int relativeY = binY - yStarts[i];
+            if (relativeY >= 0 && relativeY < width) {
+                slab[labels[i] * blockSize + (binX - xStarts[i]) * width + relativeY] += value;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Hands the value to the consumer once per window containing the contact, with the window's label as
+     * its index
+     */
+    public boolean forEachWindow(int binX, int binY, float value, BatchedWindowExtractor.WindowConsumer consumer) {
+        if (!probablyContains(binX, binY)) return false;
+        boolean found = false;
+        for (int i = firstCandidate(binX); i < xStarts.length && xStarts[i] <= binX; i++) {
+            int relativeY = binY - yStarts[i];
+            if (relativeY >= 0 && relativeY < width) {
+                consumer.add(labels[i], binX - xStarts[i], relativeY, value);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    public boolean probablyContains(int binX, int binY) {
+        return binX >= 0 && binY >= 0 && rows.get(binX) && cols.get(binY);
+    }
+
+    /**
+     * First window whose row start is greater than binX - width
+     */
+    private int firstCandidate(int binX) {
+        int target = binX - width + 1;
+        int lo = 0, hi = xStarts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (xStarts[mid] < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,115 @@
+package cli.utils.enhance;
+
+import cli.utils.apa.BatchedWindowExtractor;
+import javastraw.reader.Dataset;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.HiCFileTools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches the same set of windows from many datasets at once.
+ * Each dataset gets its own reader task which resolves the MatrixZoomData once per chromosome pair and
+ * sweeps its blocks once for the whole batch of windows (BatchedWindowExtractor), so every block is read
+ * once per dataset and block decompression for different datasets overlaps.
+ * Each reader fills its own partial windows and sums them into the shared outputs at the end.
+ */
+public class PipelinedWindowFetcher {
+
+    private final Dataset[] datasets;
+    private final HiCZoom zoom;
+    private final NormalizationType norm;
+    private final ExecutorService readers;
+
+    public PipelinedWindowFetcher(Dataset[] datasets, HiCZoom zoom, NormalizationType norm, int numReaders) {
+        this.datasets = datasets;
+        this.zoom = zoom;
+        this.norm = norm;
+        this.readers = Executors.newFixedThreadPool(Math.max(1, numReaders));
+    }
+
+    public static int getDefaultNumReaders(int numDatasets) {
+        return Math.max(1, Math.min(numDatasets, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Blocks until every dataset has added its contribution to each output window
+     */
+    public void fetch(Chromosome chr1, Chromosome chr2, int[] binXStarts, int[] binYStarts,
+                      float[][][] outputs) {
+        List<Future<?>> pending = new ArrayList<>(datasets.length);
+        for (Dataset ds : datasets) {
+            pending.add(readers.submit(() -> readWindows(ds, chr1, chr2, binXStarts, binYStarts, outputs)));
+        }
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Unable to fetch windows for " + chr1.getName() + " " + chr2.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Windows of the same width share one BatchedWindowExtractor, so each block is read once per group
+     */
+    private void readWindows(Dataset ds, Chromosome chr1, Chromosome chr2, int[] binXStarts, int[] binYStarts,
+                             float[][][] outputs) {
+        MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chr1, chr2, zoom);
+        if (zd == null) return;
+
+        Map<Integer, List<Integer>> windowsByWidth = new HashMap<>();
+        for (int i = 0; i < outputs.length; i++) {
+            windowsByWidth.computeIfAbsent(outputs[i].length, k -> new ArrayList<>()).add(i);
+        }
+
+        for (Map.Entry<Integer, List<Integer>> group : windowsByWidth.entrySet()) {
+            int matrixWidth = group.getKey();
+            List<Integer> indices = group.getValue();
+            int[] xStarts = new int[indices.size()];
+            int[] yStarts = new int[indices.size()];
+            for (int k = 0; k < indices.size(); k++) {
+                xStarts[k] = binXStarts[indices.get(k)];
+                yStarts[k] = binYStarts[indices.get(k)];
+            }
+
+            float[][][] partials = new float[indices.size()][matrixWidth][matrixWidth];
+            BatchedWindowExtractor extractor = new BatchedWindowExtractor(xStarts, yStarts, matrixWidth);
+            try {
+                extractor.addEachToMatrices(zd, norm, partials);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.err.println("Unable to find data for " + indices.size() + " windows of width " + matrixWidth);
+                continue;
+            } finally {
+                extractor.clear();
+            }
+
+            for (int k = 0; k < indices.size(); k++) {
+                float[][] output = outputs[indices.get(k)];
+                synchronized (output) {
+                    for (int r = 0; r < matrixWidth; r++) {
+                        for (int c = 0; c < matrixWidth; c++) {
+                            output[r][c] += partials[k][r][c];
+                        }
+                    }
+                }
+                partials[k] = null;
+            }
+        }
+    }
+
+    public void shutdown() {
+        readers.shutdown();
+    }
+}
@@ -0,0 +1,189 @@
+package cli.utils.general;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads files written by CompactContactWriter
+ */
+public class CompactContactReader implements Closeable {
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int resolution;
+    private final String genomeId;
+    private final Map<String, PairIndex> pairs = new LinkedHashMap<>();
+
+    public CompactContactReader(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+
+        DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (header.readInt() != CompactContactWriter.MAGIC) {
+            header.close();
+            throw new IOException(file.getAbsolutePath() + " is not a compact contact file");
+        }
+        header.readInt();
+        resolution = header.readInt();
+        genomeId = header.readUTF();
+        header.close();
+
+        raf.seek(raf.length() - 8);
+        long indexPosition = raf.readLong();
+        raf.seek(indexPosition);
+        int numPairs = raf.readInt();
+        for (int p = 0; p < numPairs; p++) {
+            String chr1 = raf.readUTF();
+            String chr2 = raf.readUTF();
+            long numContacts = raf.readLong();
+            int numBlocks = raf.readInt();
+            PairIndex pair = new PairIndex(chr1, chr2, numContacts, numBlocks);
+            for (int b = 0; b < numBlocks; b++) {
+                pair.offsets[b] = raf.readLong();
+                pair.firstBinX[b] = raf.readInt();
+            }
+            pairs.put(getKey(chr1, chr2), pair);
+        }
+    }
+
+    private static String getKey(String chr1, String chr2) {
+        return chr1 + "_" + chr2;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public String getGenomeId() {
+        return genomeId;
+    }
+
+    public long getNumContacts(String chr1, String chr2) {
+        PairIndex pair = pairs.get(getKey(chr1, chr2));
+        return pair == null ? 0 : pair.numContacts;
+    }
+
+    /**
+     * Visits contacts in sorted (binX, binY) order, skipping blocks that end before minBinX
+     */
+    public void forEachContact(String chr1, String chr2, int minBinX, ContactConsumer consumer) throws IOException {
+        PairIndex pair = pairs.get(getKey(chr1, chr2));
+        if (pair == null) return;
+        Inflater inflater = new Inflater();
+        try {
+            for (int b = 0; b < pair.offsets.length; b++) {
+                if (b + 1 < pair.offsets.length && pair.firstBinX[b + 1] < minBinX) continue;
+                readBlock(pair.offsets[b], inflater, consumer);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block for " + chr1 + " " + chr2, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readBlock(long offset, Inflater inflater, ContactConsumer consumer) throws IOException, DataFormatException {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        readFully(header, offset);
+        header.flip();
+        int numContacts = header.getInt();
+        int rawLength = header.getInt();
+        int compressedLength = header.getInt();
+
+        ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+        readFully(compressed, offset + 12);
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed.array());
+        int n = 0;
+        while (n < rawLength) {
+            n += inflater.inflate(raw, n, rawLength - n);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        int x = 0, y = 0;
+        for (int i = 0; i < numContacts; i++) {
+            int dx = readVarInt(buffer);
+            int dy = readVarInt(buffer);
+            x += dx;
+            y = dx == 0 ? y + dy : dy;
+            consumer.accept(x, y, buffer.getFloat());
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) throw new EOFException();
+        }
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Short-with-score text for tools that only accept MND input (e.g. pre)
+     */
+    public void exportToMND(String chr1, String chr2, BufferedWriter writer) throws IOException {
+        forEachContact(chr1, chr2, 0, (binX, binY, counts) -> {
+            int val = Math.round(counts);
+            if (val > 0) {
+                try {
+                    writer.write(chr1 + " " + ((long) binX * resolution) + " " + chr2 + " "
+                            + ((long) binY * resolution) + " " + val);
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Every pair, in the order they were written
+     */
+    public void exportAllToMND(BufferedWriter writer) throws IOException {
+        for (PairIndex pair : pairs.values()) {
+            exportToMND(pair.chr1, pair.chr2, writer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+
+    public interface ContactConsumer {
+        void accept(int binX, int binY, float counts);
+    }
+
+    private static class PairIndex {
+        final String chr1, chr2;
+        final long numContacts;
+        final long[] offsets;
+        final int[] firstBinX;
+
+        PairIndex(String chr1, String chr2, long numContacts, int numBlocks) {
+            this.chr1 = chr1;
+            this.chr2 = chr2;
+            this.numContacts = numContacts;
+            this.offsets = new long[numBlocks];
+            this.firstBinX = new int[numBlocks];
+        }
+    }
+}
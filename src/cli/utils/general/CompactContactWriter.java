@@ -0,0 +1,175 @@
+package cli.utils.general;
+
+import cli.utils.data.SparseContactStore;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes aggregated contacts into a single sorted, block-compressed binary file.
+ * <p>
+ * Layout: header (magic, version, resolution, genome id), then for every chromosome pair a run of
+ * deflated blocks, then an index of pairs and block offsets, then the index offset as the final 8 bytes.
+ * Within a block, contacts are sorted by (binX, binY); binX is delta coded, binY is delta coded within
+ * a row, both as varints, and counts are raw floats.
+ * <p>
+ * Pairs may be written concurrently: sorting and compression happen on the calling thread and only
+ * the append is synchronized.
+ */
+public class CompactContactWriter implements Closeable {
+
+    public static final int MAGIC = 0x43434631; // "CCF1"
+    public static final int VERSION = 1;
+    public static final int BLOCK_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final FileOutputStream stream;
+    private final List<PairEntry> index = new ArrayList<>();
+    private long position;
+
+    public CompactContactWriter(File file, int resolution, String genomeId) throws IOException {
+        stream = new FileOutputStream(file);
+        channel = stream.getChannel();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(resolution);
+        header.writeUTF(genomeId);
+        header.close();
+        position = 0;
+        append(bytes.toByteArray());
+    }
+
+    public void writePair(String chr1, String chr2, SparseContactStore contacts) throws IOException {
+        long[] keys = new long[contacts.size()];
+        float[] counts = new float[contacts.size()];
+        sortContacts(contacts, keys, counts);
+
+        int numBlocks = (keys.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        List<byte[]> blocks = new ArrayList<>(numBlocks);
+        int[] firstBinX = new int[numBlocks];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        for (int b = 0; b < numBlocks; b++) {
+            int start = b * BLOCK_SIZE;
+            int end = Math.min(keys.length, start + BLOCK_SIZE);
+            firstBinX[b] = SparseContactStore.getX(keys[start]);
+            blocks.add(compress(encodeBlock(keys, counts, start, end), end - start, deflater));
+        }
+        deflater.end();
+
+        synchronized (this) {
+            PairEntry entry = new PairEntry(chr1, chr2, keys.length, numBlocks);
+            for (int b = 0; b < numBlocks; b++) {
+                entry.offsets[b] = position;
+                entry.firstBinX[b] = firstBinX[b];
+                append(blocks.get(b));
+            }
+            index.add(entry);
+        }
+    }
+
+    private static void sortContacts(SparseContactStore contacts, long[] keys, float[] counts) {
+        int[] n = new int[1];
+        contacts.forEach((binX, binY, c, oe) -> keys[n[0]++] = SparseContactStore.toKey(binX, binY));
+        Arrays.sort(keys);
+        for (int i = 0; i < keys.length; i++) {
+            counts[i] = contacts.getCounts(SparseContactStore.getX(keys[i]), SparseContactStore.getY(keys[i]));
+        }
+    }
+
+    private static byte[] encodeBlock(long[] keys, float[] counts, int start, int end) {
+        ByteBuffer buffer = ByteBuffer.allocate((end - start) * 14);
+        int prevX = 0, prevY = 0;
+        for (int i = start; i < end; i++) {
+            int x = SparseContactStore.getX(keys[i]);
+            int y = SparseContactStore.getY(keys[i]);
+            int dx = x - prevX;
+            writeVarInt(buffer, dx);
+            writeVarInt(buffer, dx == 0 ? y - prevY : y);
+            buffer.putFloat(counts[i]);
+            prevX = x;
+            prevY = y;
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static byte[] compress(byte[] raw, int numContacts, Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        byte[] compressed = out.toByteArray();
+
+        ByteBuffer block = ByteBuffer.allocate(12 + compressed.length);
+        block.putInt(numContacts);
+        block.putInt(raw.length);
+        block.putInt(compressed.length);
+        block.put(compressed);
+        return block.array();
+    }
+
+    private void append(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        long indexPosition = position;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(index.size());
+        for (PairEntry entry : index) {
+            out.writeUTF(entry.chr1);
+            out.writeUTF(entry.chr2);
+            out.writeLong(entry.numContacts);
+            out.writeInt(entry.offsets.length);
+            for (int b = 0; b < entry.offsets.length; b++) {
+                out.writeLong(entry.offsets[b]);
+                out.writeInt(entry.firstBinX[b]);
+            }
+        }
+        out.writeLong(indexPosition);
+        out.close();
+        append(bytes.toByteArray());
+        channel.close();
+        stream.close();
+    }
+
+    private static class PairEntry {
+        final String chr1, chr2;
+        final long numContacts;
+        final long[] offsets;
+        final int[] firstBinX;
+
+        PairEntry(String chr1, String chr2, long numContacts, int numBlocks) {
+            this.chr1 = chr1;
+            this.chr2 = chr2;
+            this.numContacts = numContacts;
+            this.offsets = new long[numBlocks];
+            this.firstBinX = new int[numBlocks];
+        }
+    }
+}
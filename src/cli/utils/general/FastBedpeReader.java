@@ -0,0 +1,438 @@
+package cli.utils.general;
+
+import javastraw.feature2D.Feature2D;
+import javastraw.feature2D.Feature2DList;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.basics.ChromosomeHandler;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.*;
+
+/**
+ * Memory-mapped BEDPE reader for large (flat) loop lists.
+ * <p>
+ * Lines are tokenized on the mapped bytes; chromosome names are resolved once per distinct name and
+ * coordinates are parsed straight to longs. Only the attribute columns that are asked for get turned
+ * into strings on the Feature2D; every other column stays in the file and can be read on demand
+ * (getFloatColumn, getAttribute) or copied verbatim by FastBedpeWriter.
+ * <p>
+ * Parsing is more lenient than Feature2DParser, so it can differ on malformed files: fields are split
+ * on runs of tabs or spaces (empty fields collapse, values cannot contain spaces), and every line that
+ * starts with '#' or whose second column is not a number is treated as a header. Only the first such
+ * line names the columns; the rest are skipped, wherever they appear in the file.
+ */
+public class FastBedpeReader {
+
+    private static final int MAX_REGION_SIZE = 1 << 30;
+    private static final int NUM_COORDINATE_COLUMNS = 6;
+
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private final String[] attributeNames;
+    private final int firstAttributeColumn;
+    private final int colorColumn;
+    private byte[] headerLine = null;
+
+    private int numRows = 0;
+    private int[] rowRegion = new int[1024];
+    private int[] rowStart = new int[1024];
+    private int[] rowEnd = new int[1024];
+    private final Map<Feature2D, Integer> featureToRow = new IdentityHashMap<>();
+    private byte[] scratch = new byte[256];
+
+    public FastBedpeReader(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            mapRegions(channel);
+        }
+        indexRows();
+
+        String[] header = headerLine == null ? new String[0] : tokenizeHeader(headerLine);
+        int color = -1;
+        for (int i = NUM_COORDINATE_COLUMNS; i < header.length; i++) {
+            if (header[i].equalsIgnoreCase("color")) {
+                color = i;
+                break;
+            }
+        }
+        colorColumn = color;
+        firstAttributeColumn = color < 0 ? header.length : color + 1;
+        attributeNames = Arrays.copyOfRange(header, Math.min(firstAttributeColumn, header.length), header.length);
+    }
+
+    public static FastBedpeReader open(String path) {
+        try {
+            return new FastBedpeReader(path);
+        } catch (IOException e) {
+            System.err.println("Unable to read " + path);
+            e.printStackTrace();
+            System.exit(61);
+        }
+        return null;
+    }
+
+    private void mapRegions(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = 0;
+        while (start < size) {
+            long length = Math.min(MAX_REGION_SIZE, size - start);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            if (start + length < size) {
+                // end each region on a line break so rows never straddle two regions
+                int end = (int) length;
+                while (end > 0 && region.get(end - 1) != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    throw new IOException("Line longer than " + MAX_REGION_SIZE + " bytes at offset " + start);
+                }
+                length = end;
+                region = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+            regions.add(region);
+            start += length;
+        }
+    }
+
+    private void indexRows() {
+        for (int r = 0; r < regions.size(); r++) {
+            MappedByteBuffer region = regions.get(r);
+            int limit = region.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && region.get(end) != '\n') {
+                    end++;
+                }
+                int contentEnd = end;
+                if (contentEnd > start && region.get(contentEnd - 1) == '\r') {
+                    contentEnd--;
+                }
+                if (contentEnd > start) {
+                    if (isHeader(region, start, contentEnd)) {
+                        if (headerLine == null) {
+                            headerLine = copyBytes(region, start, contentEnd);
+                        }
+                    } else {
+                        addRow(r, start, contentEnd);
+                    }
+                }
+                start = end + 1;
+            }
+        }
+    }
+
+    private static boolean isHeader(MappedByteBuffer region, int start, int end) {
+        if (region.get(start) == '#') return true;
+        // a header has a non-numeric second column, e.g. "chr1 x1 x2 ..."
+        int i = start;
+        while (i < end && !isSeparator(region.get(i))) i++;
+        while (i < end && isSeparator(region.get(i))) i++;
+        return i < end && !Character.isDigit(region.get(i));
+    }
+
+    private void addRow(int region, int start, int end) {
+        if (numRows == rowStart.length) {
+            int newLength = 2 * rowStart.length;
+            rowRegion = Arrays.copyOf(rowRegion, newLength);
+            rowStart = Arrays.copyOf(rowStart, newLength);
+            rowEnd = Arrays.copyOf(rowEnd, newLength);
+        }
+        rowRegion[numRows] = region;
+        rowStart[numRows] = start;
+        rowEnd[numRows] = end;
+        numRows++;
+    }
+
+    private static String[] tokenizeHeader(byte[] line) {
+        String text = new String(line, StandardCharsets.UTF_8);
+        if (text.startsWith("#")) {
+            text = text.substring(1);
+        }
+        return text.trim().split("[\t ]+");
+    }
+
+    private static byte[] copyBytes(MappedByteBuffer region, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = region.get(start + i);
+        }
+        return bytes;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public String[] getAttributeNames() {
+        return attributeNames;
+    }
+
+    public byte[] getHeaderLine() {
+        return headerLine;
+    }
+
+    /**
+     * @param attributesToLoad attribute columns to put on each Feature2D; null loads all of them
+     */
+    public Feature2DList toFeature2DList(ChromosomeHandler handler, String... attributesToLoad) {
+        int[] columnsToLoad = getColumnIndices(attributesToLoad);
+        ChromosomeNameCache names = new ChromosomeNameCache(handler);
+        Map<Long, List<Feature2D>> pairToFeatures = new HashMap<>();
+        int[] tokenStarts = new int[NUM_COORDINATE_COLUMNS + 1 + columnsCount()];
+        int[] tokenEnds = new int[tokenStarts.length];
+
+        int errorCount = 0;
+        for (int row = 0; row < numRows; row++) {
+            MappedByteBuffer region = regions.get(rowRegion[row]);
+            int numTokens = tokenize(region, rowStart[row], rowEnd[row], tokenStarts, tokenEnds);
+            if (numTokens < NUM_COORDINATE_COLUMNS) continue;
+
+            Chromosome chr1 = names.get(region, tokenStarts[0], tokenEnds[0]);
+            Chromosome chr2 = names.get(region, tokenStarts[3], tokenEnds[3]);
+            if (chr1 == null || chr2 == null) {
+                if (errorCount < 10) {
+                    System.err.println("Skipping line: " + new String(copyBytes(region, rowStart[row], rowEnd[row]),
+                            StandardCharsets.UTF_8));
+                } else if (errorCount == 10) {
+                    System.err.println("Maximum error count exceeded.  Further errors will not be logged");
+                }
+                errorCount++;
+                continue;
+            }
+
+            long start1 = parseLong(region, tokenStarts[1], tokenEnds[1]);
+            long end1 = parseLong(region, tokenStarts[2], tokenEnds[2]);
+            long start2 = parseLong(region, tokenStarts[4], tokenEnds[4]);
+            long end2 = parseLong(region, tokenStarts[5], tokenEnds[5]);
+
+            Color color = Color.black;
+            if (colorColumn >= 0 && colorColumn < numTokens) {
+                color = parseColor(region, tokenStarts[colorColumn], tokenEnds[colorColumn]);
+            }
+
+            Map<String, String> attributes = new HashMap<>();
+            for (int k : columnsToLoad) {
+                int column = firstAttributeColumn + k;
+                if (column < numTokens) {
+                    attributes.put(attributeNames[k], getString(region, tokenStarts[column], tokenEnds[column]));
+                }
+            }
+
+            Feature2D.FeatureType type = Feature2D.FeatureType.PEAK;
+            if (chr1.getIndex() == chr2.getIndex() && start1 == start2 && end1 == end2) {
+                type = Feature2D.FeatureType.DOMAIN;
+            }
+            Feature2D feature = new Feature2D(type, chr1.getName(), start1, end1,
+                    chr2.getName(), start2, end2, color, attributes);
+            featureToRow.put(feature, row);
+
+            long pairKey = ((long) chr1.getIndex() << 32) | chr2.getIndex();
+            pairToFeatures.computeIfAbsent(pairKey, k -> new ArrayList<>()).add(feature);
+        }
+
+        Feature2DList list = new Feature2DList();
+        for (Map.Entry<Long, List<Feature2D>> entry : pairToFeatures.entrySet()) {
+            int chr1Index = (int) (entry.getKey() >> 32);
+            int chr2Index = (int) (long) entry.getKey();
+            list.add(chr1Index, chr2Index, entry.getValue());
+        }
+        return list;
+    }
+
+    private int columnsCount() {
+        return Math.max(0, firstAttributeColumn - NUM_COORDINATE_COLUMNS) + attributeNames.length;
+    }
+
+    private int[] getColumnIndices(String[] names) {
+        if (names == null) {
+            int[] all = new int[attributeNames.length];
+            for (int k = 0; k < all.length; k++) {
+                all[k] = k;
+            }
+            return all;
+        }
+        int[] indices = new int[names.length];
+        int n = 0;
+        for (String name : names) {
+            int k = indexOfAttribute(name);
+            if (k < 0) {
+                System.err.println("Column " + name + " not found");
+            } else {
+                indices[n++] = k;
+            }
+        }
+        return Arrays.copyOf(indices, n);
+    }
+
+    private int indexOfAttribute(String name) {
+        for (int k = 0; k < attributeNames.length; k++) {
+            if (attributeNames[k].equals(name)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads an attribute straight from the file, whether or not it was loaded onto the feature
+     */
+    public String getAttribute(Feature2D feature, String name) {
+        Integer row = featureToRow.get(feature);
+        int k = indexOfAttribute(name);
+        if (row == null || k < 0) {
+            return feature.getAttribute(name);
+        }
+        int column = firstAttributeColumn + k;
+        int[] starts = new int[column + 1];
+        int[] ends = new int[column + 1];
+        MappedByteBuffer region = regions.get(rowRegion[row]);
+        if (tokenize(region, rowStart[row], rowEnd[row], starts, ends) <= column) {
+            return null;
+        }
+        return getString(region, starts[column], ends[column]);
+    }
+
+    /**
+     * Parses one attribute column for every row in file order; missing or unparsable values become NaN
+     */
+    public float[] getFloatColumn(String name) {
+        float[] values = new float[numRows];
+        int k = indexOfAttribute(name);
+        if (k < 0) {
+            Arrays.fill(values, Float.NaN);
+            return values;
+        }
+        int column = firstAttributeColumn + k;
+        int[] starts = new int[column + 1];
+        int[] ends = new int[column + 1];
+        for (int row = 0; row < numRows; row++) {
+            MappedByteBuffer region = regions.get(rowRegion[row]);
+            values[row] = Float.NaN;
+            if (tokenize(region, rowStart[row], rowEnd[row], starts, ends) > column) {
+                try {
+                    values[row] = Float.parseFloat(getString(region, starts[column], ends[column]));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return values;
+    }
+
+    public int getRow(Feature2D feature) {
+        Integer row = featureToRow.get(feature);
+        return row == null ? -1 : row;
+    }
+
+    /**
+     * Writes the original bytes of a row, without the line break
+     */
+    public void copyRow(int row, OutputStream out) throws IOException {
+        MappedByteBuffer region = regions.get(rowRegion[row]);
+        int length = rowEnd[row] - rowStart[row];
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = region.get(rowStart[row] + i);
+        }
+        out.write(scratch, 0, length);
+    }
+
+    /**
+     * Splits on tabs (or spaces, for hand made files); fills at most starts.length tokens
+     */
+    private static int tokenize(MappedByteBuffer region, int start, int end, int[] starts, int[] ends) {
+        int n = 0;
+        int i = start;
+        while (i < end && n < starts.length) {
+            while (i < end && isSeparator(region.get(i))) i++;
+            if (i >= end) break;
+            starts[n] = i;
+            while (i < end && !isSeparator(region.get(i))) i++;
+            ends[n] = i;
+            n++;
+        }
+        return n;
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == '\t' || b == ' ';
+    }
+
+    private static long parseLong(MappedByteBuffer region, int start, int end) {
+        boolean negative = region.get(start) == '-';
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            byte b = region.get(i);
+            if (b < '0' || b > '9') {
+                // e.g. scientific notation; let the JDK deal with it
+                return (long) Double.parseDouble(getString(region, start, end));
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static Color parseColor(MappedByteBuffer region, int start, int end) {
+        int[] rgb = new int[3];
+        int n = 0;
+        for (int i = start; i < end && n < 3; i++) {
+            byte b = region.get(i);
+            if (b == ',') {
+                n++;
+            } else if (b >= '0' && b <= '9') {
+                rgb[n] = rgb[n] * 10 + (b - '0');
+            } else {
+                return Color.black;
+            }
+        }
+        if (n != 2) return Color.black;
+        return new Color(Math.min(rgb[0], 255), Math.min(rgb[1], 255), Math.min(rgb[2], 255));
+    }
+
+    private static String getString(MappedByteBuffer region, int start, int end) {
+        return new String(copyBytes(region, start, end), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Resolves each distinct chromosome token against the handler only once
+     */
+    private static class ChromosomeNameCache {
+        private final ChromosomeHandler handler;
+        private final List<byte[]> tokens = new ArrayList<>();
+        private final List<Chromosome> chromosomes = new ArrayList<>();
+
+        ChromosomeNameCache(ChromosomeHandler handler) {
+            this.handler = handler;
+        }
+
+        Chromosome get(MappedByteBuffer region, int start, int end) {
+            for (int k = 0; k < tokens.size(); k++) {
+                if (matches(tokens.get(k), region, start, end)) {
+                    return chromosomes.get(k);
+                }
+            }
+            byte[] token = copyBytes(region, start, end);
+            String name = new String(token, StandardCharsets.UTF_8);
+            Chromosome chrom = handler.getChromosomeFromName(name);
+            tokens.add(token);
+            chromosomes.add(chrom);
+            return chrom;
+        }
+
+        private static boolean matches(byte[] token, MappedByteBuffer region, int start, int end) {
+            if (token.length != end - start) return false;
+            for (int i = 0; i < token.length; i++) {
+                if (token[i] != region.get(start + i)) return false;
+            }
+            return true;
+        }
+    }
+}
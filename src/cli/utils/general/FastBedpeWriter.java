@@ -0,0 +1,219 @@
+package cli.utils.general;
+
+import cli.utils.data.LoopAttributeTable;
+import javastraw.feature2D.Feature2D;
+import javastraw.feature2D.Feature2DList;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Byte-level BEDPE writer.
+ * Uses the same layout as Feature2DList exports (coordinates, four '.' placeholders, color, sorted
+ * attributes), but numbers are written as digits directly into the buffer and chromosome names are
+ * encoded once. Rows that came from a FastBedpeReader can be copied verbatim instead.
+ */
+public class FastBedpeWriter implements Closeable {
+
+    private static final byte[] GENERIC_HEADER = "#chr1\tx1\tx2\tchr2\ty1\ty2\tname\tscore\tstrand1\tstrand2\tcolor"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SPACER = "\t.\t.\t.\t.\t".getBytes(StandardCharsets.UTF_8);
+
+    private final OutputStream out;
+    private final Map<String, byte[]> encodedNames = new HashMap<>();
+    private final byte[] digits = new byte[20];
+    private String[] attributeKeys = null;
+    private boolean headerWritten = false;
+
+    public FastBedpeWriter(File file) throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+    }
+
+    /**
+     * Writes into the given stream, e.g. a per-chunk buffer that is later appended to the output in order
+     */
+    public FastBedpeWriter(OutputStream stream) {
+        out = stream;
+    }
+
+    public static void export(Feature2DList list, File file) throws IOException {
+        try (FastBedpeWriter writer = new FastBedpeWriter(file)) {
+            writer.writeFeatureList(list);
+        }
+    }
+
+    /**
+     * Copies the header and the original row of every feature in the list; all features must have
+     * been loaded by the given reader
+     */
+    public static void exportRows(FastBedpeReader reader, Feature2DList list, File file) throws IOException {
+        try (FastBedpeWriter writer = new FastBedpeWriter(file)) {
+            writer.copyRows(reader, list);
+        }
+    }
+
+    public void writeFeatureList(Feature2DList list) throws IOException {
+        IOException[] error = new IOException[1];
+        list.processLists((key, features) -> {
+            if (error[0] != null) return;
+            try {
+                for (Feature2D feature : features) {
+                    write(feature);
+                }
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) throw error[0];
+    }
+
+    /**
+     * Fixes the attribute columns before any feature is written (sorted); features missing one get NA
+     */
+    public void setAttributeKeys(Collection<String> keys) {
+        attributeKeys = keys.toArray(new String[0]);
+        Arrays.sort(attributeKeys);
+    }
+
+    public void writeHeader() throws IOException {
+        headerWritten = true;
+        out.write(GENERIC_HEADER);
+        for (String key : attributeKeys) {
+            out.write('\t');
+            writeText(key);
+        }
+        out.write('\n');
+    }
+
+    /**
+     * The attribute columns are fixed by the first feature written, unless set beforehand
+     */
+    public void write(Feature2D feature) throws IOException {
+        Map<String, String> attributes = feature.getAttributes();
+        if (!headerWritten) {
+            if (attributeKeys == null) {
+                attributeKeys = attributes == null ? new String[0] : attributes.keySet().toArray(new String[0]);
+                Arrays.sort(attributeKeys);
+            }
+            writeHeader();
+        }
+        writeRow(feature, key -> attributes == null ? null : attributes.get(key));
+    }
+
+    /**
+     * Writes one row (never the header) with attribute values read from the table, so they are only
+     * formatted here; setAttributeKeys must have been called
+     */
+    public void write(Feature2D feature, LoopAttributeTable attributes) throws IOException {
+        writeRow(feature, key -> attributes.getString(feature, key));
+    }
+
+    private void writeRow(Feature2D feature, Function<String, String> attributes) throws IOException {
+        out.write(encode(feature.getChr1()));
+        out.write('\t');
+        writeLong(feature.getStart1());
+        out.write('\t');
+        writeLong(feature.getEnd1());
+        out.write('\t');
+        out.write(encode(feature.getChr2()));
+        out.write('\t');
+        writeLong(feature.getStart2());
+        out.write('\t');
+        writeLong(feature.getEnd2());
+        out.write(SPACER);
+        writeColor(feature.getColor());
+        for (String key : attributeKeys) {
+            out.write('\t');
+            String value = attributes.apply(key);
+            writeText(value == null ? "NA" : value);
+        }
+        out.write('\n');
+    }
+
+    public void copyRows(FastBedpeReader reader, Feature2DList list) throws IOException {
+        byte[] header = reader.getHeaderLine();
+        if (header != null) {
+            out.write(header);
+            out.write('\n');
+        }
+        IOException[] error = new IOException[1];
+        list.processLists((key, features) -> {
+            if (error[0] != null) return;
+            try {
+                for (Feature2D feature : features) {
+                    int row = reader.getRow(feature);
+                    if (row < 0) {
+                        throw new IOException("Feature was not loaded from this file: " + feature.simpleString());
+                    }
+                    reader.copyRow(row, out);
+                    out.write('\n');
+                }
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) throw error[0];
+    }
+
+    private byte[] encode(String name) {
+        byte[] bytes = encodedNames.get(name);
+        if (bytes == null) {
+            bytes = name.getBytes(StandardCharsets.UTF_8);
+            encodedNames.put(name, bytes);
+        }
+        return bytes;
+    }
+
+    private void writeColor(Color color) throws IOException {
+        if (color == null) color = Color.black;
+        writeLong(color.getRed());
+        out.write(',');
+        writeLong(color.getGreen());
+        out.write(',');
+        writeLong(color.getBlue());
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == 0) {
+            out.write('0');
+            return;
+        }
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                writeText(Long.toString(value));
+                return;
+            }
+            out.write('-');
+            value = -value;
+        }
+        int pos = digits.length;
+        while (value > 0) {
+            digits[--pos] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        out.write(digits, pos, digits.length - pos);
+    }
+
+    /**
+     * ASCII text is written byte by byte; anything else is encoded as UTF-8
+     */
+    private void writeText(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                out.write(text.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        for (int i = 0; i < text.length(); i++) {
+            out.write(text.charAt(i));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,144 @@
+package cli.utils.general;
+
+import javastraw.feature2D.Feature2D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Static 2D overlap index for the features of one chromosome pair.
+ * <p>
+ * Features are sorted by start1 and a max-end1 segment tree is built over that order. A query binary
+ * searches the last feature starting before the query end, then only descends into subtrees whose max
+ * end1 reaches past the query start; the second dimension is checked on the survivors.
+ * Overlap uses the same rule as OverlapTools: a positive-width intersection in both dimensions, with
+ * the query box expanded by the buffer.
+ * <p>
+ * Features can be removed (for greedy merging); the tree is not rebuilt, removed entries are skipped.
+ * Queries are thread safe as long as nothing is being removed.
+ */
+public class Feature2DIntervalIndex {
+
+    private final Feature2D[] features;
+    private final long[] start1, end1, start2, end2;
+    private final long[] maxEnd1;
+    private final boolean[] removed;
+    private final int leafOffset;
+    private int numRemaining;
+
+    public Feature2DIntervalIndex(Collection<Feature2D> input) {
+        features = input.toArray(new Feature2D[0]);
+        Arrays.sort(features, (o1, o2) -> Long.compare(o1.getStart1(), o2.getStart1()));
+        int n = features.length;
+        numRemaining = n;
+        start1 = new long[n];
+        end1 = new long[n];
+        start2 = new long[n];
+        end2 = new long[n];
+        removed = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            start1[i] = features[i].getStart1();
+            end1[i] = features[i].getEnd1();
+            start2[i] = features[i].getStart2();
+            end2[i] = features[i].getEnd2();
+        }
+
+        int size = 1;
+        while (size < n) size <<= 1;
+        leafOffset = size;
+        maxEnd1 = new long[2 * size];
+        Arrays.fill(maxEnd1, Long.MIN_VALUE);
+        System.arraycopy(end1, 0, maxEnd1, size, n);
+        for (int node = size - 1; node > 0; node--) {
+            maxEnd1[node] = Math.max(maxEnd1[2 * node], maxEnd1[2 * node + 1]);
+        }
+    }
+
+    public int size() {
+        return numRemaining;
+    }
+
+    public List<Feature2D> getOverlaps(Feature2D query, int buffer) {
+        List<Feature2D> matches = new ArrayList<>();
+        collect(query.getStart1() - buffer, query.getEnd1() + buffer,
+                query.getStart2() - buffer, query.getEnd2() + buffer, matches, false);
+        return matches;
+    }
+
+    public boolean hasOverlap(Feature2D query, int buffer) {
+        return collect(query.getStart1() - buffer, query.getEnd1() + buffer,
+                query.getStart2() - buffer, query.getEnd2() + buffer, null, true);
+    }
+
+    public List<Feature2D> getOverlaps(long qs1, long qe1, long qs2, long qe2) {
+        List<Feature2D> matches = new ArrayList<>();
+        collect(qs1, qe1, qs2, qe2, matches, false);
+        return matches;
+    }
+
+    public boolean hasExactMatch(Feature2D query) {
+        long s1 = query.getStart1(), e1 = query.getEnd1(), s2 = query.getStart2(), e2 = query.getEnd2();
+        int i = firstIndexWithStart1AtLeast(s1);
+        for (; i < features.length && start1[i] == s1; i++) {
+            if (!removed[i] && end1[i] == e1 && start2[i] == s2 && end2[i] == e2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes every feature in the list (by identity) that is still in the index
+     */
+    public void removeAll(List<Feature2D> toRemove) {
+        for (Feature2D feature : toRemove) {
+            int i = firstIndexWithStart1AtLeast(feature.getStart1());
+            for (; i < features.length && start1[i] == feature.getStart1(); i++) {
+                if (features[i] == feature && !removed[i]) {
+                    removed[i] = true;
+                    numRemaining--;
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean collect(long qs1, long qe1, long qs2, long qe2, List<Feature2D> matches, boolean stopAtFirst) {
+        int limit = firstIndexWithStart1AtLeast(qe1);
+        if (limit == 0) return false;
+        return descend(1, 0, leafOffset, limit, qs1, qs2, qe2, matches, stopAtFirst);
+    }
+
+    /**
+     * Visits leaves in [lo, hi) of this node that are below limit and have end1 > qs1
+     */
+    private boolean descend(int node, int lo, int hi, int limit, long qs1, long qs2, long qe2,
+                            List<Feature2D> matches, boolean stopAtFirst) {
+        if (lo >= limit || maxEnd1[node] <= qs1) return false;
+        if (hi - lo == 1) {
+            if (!removed[lo] && start2[lo] < qe2 && end2[lo] > qs2) {
+                if (stopAtFirst) return true;
+                matches.add(features[lo]);
+            }
+            return false;
+        }
+        int mid = (lo + hi) >>> 1;
+        return descend(2 * node, lo, mid, limit, qs1, qs2, qe2, matches, stopAtFirst)
+                || descend(2 * node + 1, mid, hi, limit, qs1, qs2, qe2, matches, stopAtFirst);
+    }
+
+    private int firstIndexWithStart1AtLeast(long value) {
+        int lo = 0, hi = start1.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (start1[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -1,19 +1,16 @@
 package cli.utils.general;
 
 import cli.utils.FeatureStats;
-import cli.utils.sift.SimpleLocation;
 import javastraw.feature2D.Feature2D;
 import javastraw.feature2D.Feature2DList;
 import javastraw.feature2D.Feature2DParser;
 import javastraw.reader.basics.ChromosomeHandler;
 import javastraw.reader.basics.ChromosomeTools;
-import javastraw.tools.ParallelizationTools;
 
 import java.awt.*;
 import java.io.File;
 import java.util.List;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class FusionTools {
 
@@ -71,48 +68,39 @@ public class FusionTools {
         if (useExact) {
             return new ArrayList<>(new HashSet<>(features));
         } else {
-            Map<SimpleLocation, List<Feature2D>> map = QuickGrouping.groupNearbyRecords(features, 5000000);
-            Set<Feature2D> allCoalesced = new HashSet<>();
-            List<List<Feature2D>> featureLists = new ArrayList<>(map.values());
-            AtomicInteger index = new AtomicInteger(0);
-            ParallelizationTools.launchParallelizedCode(() -> {
-                Set<Feature2D> coalesced = new HashSet<>();
-                int i = index.getAndIncrement();
-                while (i < featureLists.size()) {
-                    List<Feature2D> featureLL = featureLists.get(i);
-                    processFeatures(coalesced, featureLL, useNMS);
-                    i = index.getAndIncrement();
-                }
-                synchronized (allCoalesced) {
-                    allCoalesced.addAll(coalesced);
-                }
-            });
-            map.clear();
-            return new ArrayList<>(allCoalesced);
+            List<Feature2D> featureLL = new ArrayList<>(new HashSet<>(features));
+            sort(featureLL);
+            Feature2DIntervalIndex index = new Feature2DIntervalIndex(featureLL);
+            Set<Feature2D> coalesced = new HashSet<>();
+            processFeatures(coalesced, featureLL, index, useNMS);
+            return new ArrayList<>(coalesced);
         }
     }
 
-    private static void processFeatures(Set<Feature2D> coalesced, List<Feature2D> featureLL, boolean useNMS) {
-        sort(featureLL);
-
-        while (!featureLL.isEmpty()) {
-            Feature2D pixel = featureLL.get(0);
-            if (pixel != null) {
-                featureLL.remove(pixel);
-                int buffer = getBuffer(useNMS, pixel);
-
-                List<Feature2D> pixelList = OverlapTools.getMatchesWithOverlap(pixel, featureLL, buffer);
-                featureLL.removeAll(pixelList);
-                //pixel.addStringAttribute("NumCollapsed", String.valueOf(pixelList.size()));
-
-                if (useNMS) {
-                    coalesced.add(pixel);
-                } else {
-                    pixelList.add(pixel);
-                    coalesced.add(getFeatureFromBounds(pixelList));
-                }
-                pixelList.clear();
+    /**
+     * Greedy merge in order of increasing width; each pixel still in the index absorbs everything it overlaps
+     */
+    private static void processFeatures(Set<Feature2D> coalesced, List<Feature2D> featureLL,
+                                        Feature2DIntervalIndex index, boolean useNMS) {
+        List<Feature2D> self = new ArrayList<>(1);
+        for (Feature2D pixel : featureLL) {
+            self.add(pixel);
+            int sizeBefore = index.size();
+            index.removeAll(self);
+            self.clear();
+            if (index.size() == sizeBefore) continue; // already absorbed
+
+            int buffer = getBuffer(useNMS, pixel);
+            List<Feature2D> pixelList = index.getOverlaps(pixel, buffer);
+            index.removeAll(pixelList);
+
+            if (useNMS) {
+                coalesced.add(pixel);
+            } else {
+                pixelList.add(pixel);
+                coalesced.add(getFeatureFromBounds(pixelList));
             }
+            pixelList.clear();
         }
     }
 
@@ -0,0 +1,389 @@
+package cli.utils.general;
+
+import javastraw.feature2D.Feature2D;
+import javastraw.feature2D.Feature2DFilter;
+import javastraw.feature2D.Feature2DList;
+import javastraw.feature2D.Feature2DParser;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.basics.ChromosomeHandler;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.*;
+
+/**
+ * Binary sidecar (loops.bedpe.bin) for loop lists that get re-read across runs.
+ * <p>
+ * The first text parse writes the sidecar next to the bedpe; later loads use it as long as the recorded
+ * size and modification time of the bedpe still match, and so does the chromosome list of the handler
+ * (keys, names and which loops were dropped all depend on it). Each Feature2DList key is its own section
+ * (coordinates as longs, then typed attribute columns), and the index at the end of the file maps
+ * keys to byte offsets, so loading a subset of chromosome pairs only seeks to those sections.
+ * <p>
+ * Attribute columns are stored as ints or floats when every value round-trips to the same text,
+ * otherwise as strings, so loops come back exactly as the text parser would return them.
+ */
+public class LoopListCache {
+
+    public static final String EXTENSION = ".bin";
+    private static final int MAGIC = 0x4C4C4331; // "LLC1"
+    private static final int VERSION = 2;
+    private static final byte ABSENT = 0, INT = 1, FLOAT = 2, STRING = 3;
+
+    public static Feature2DList loadFeatures(String path, ChromosomeHandler handler, boolean loadAttributes,
+                                             Feature2DFilter featureFilter, boolean useFeature2DWithMotif) {
+        return loadFeatures(path, handler, loadAttributes, featureFilter, useFeature2DWithMotif, null);
+    }
+
+    /**
+     * @param keys Feature2DList keys to load (e.g. Feature2DList.getKey(chr1, chr2)); null loads everything
+     */
+    public static Feature2DList loadFeatures(String path, ChromosomeHandler handler, boolean loadAttributes,
+                                             Feature2DFilter featureFilter, boolean useFeature2DWithMotif,
+                                             Collection<String> keys) {
+        File source = new File(path);
+        if (useFeature2DWithMotif || !source.isFile()) {
+            return subset(Feature2DParser.loadFeatures(path, handler, loadAttributes, featureFilter,
+                    useFeature2DWithMotif), keys);
+        }
+
+        File cache = new File(path + EXTENSION);
+        long handlerHash = getHandlerHash(handler);
+        if (!isFresh(source, cache, handlerHash)) {
+            Feature2DList fullList = Feature2DParser.loadFeatures(path, handler, true, null, false);
+            try {
+                write(fullList, source, cache, handlerHash);
+            } catch (IOException e) {
+                System.err.println("Unable to write loop cache " + cache.getPath() + "; using text parser");
+                cache.delete();
+                return subset(Feature2DParser.loadFeatures(path, handler, loadAttributes, featureFilter,
+                        false), keys);
+            }
+        }
+
+        try {
+            Feature2DList list = read(cache, loadAttributes, keys);
+            if (featureFilter != null) {
+                list.filterLists(featureFilter::filter);
+            }
+            return list;
+        } catch (IOException e) {
+            System.err.println("Unable to read loop cache " + cache.getPath() + "; using text parser");
+            return subset(Feature2DParser.loadFeatures(path, handler, loadAttributes, featureFilter,
+                    false), keys);
+        }
+    }
+
+    private static Feature2DList subset(Feature2DList list, Collection<String> keys) {
+        if (keys == null) return list;
+        Feature2DList result = new Feature2DList();
+        for (String key : keys) {
+            List<Feature2D> features = list.get(key);
+            if (features != null) {
+                result.addByKey(key, features);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Hash of the handler's chromosome indices, names and lengths
+     */
+    public static long getHandlerHash(ChromosomeHandler handler) {
+        long hash = 17;
+        for (Chromosome chromosome : handler.getChromosomeArray()) {
+            hash = 31 * hash + chromosome.getIndex();
+            hash = 31 * hash + chromosome.getName().hashCode();
+            hash = 31 * hash + chromosome.getLength();
+        }
+        return hash;
+    }
+
+    public static boolean isFresh(File source, File cache, long handlerHash) {
+        if (!cache.isFile() || cache.lastModified() < source.lastModified()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION
+                    && in.readLong() == source.length() && in.readLong() == source.lastModified()
+                    && in.readLong() == handlerHash;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static void write(Feature2DList list, File source, File cache, long handlerHash) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<List<Feature2D>> sections = new ArrayList<>();
+        Map<String, Integer> names = new LinkedHashMap<>();
+        Set<String> attributeNames = new TreeSet<>();
+        list.processLists((key, features) -> {
+            keys.add(key);
+            sections.add(features);
+            for (Feature2D feature : features) {
+                names.putIfAbsent(feature.getChr1(), names.size());
+                names.putIfAbsent(feature.getChr2(), names.size());
+                Map<String, String> attributes = feature.getAttributes();
+                if (attributes != null) {
+                    attributeNames.addAll(attributes.keySet());
+                }
+            }
+        });
+        String[] attributes = attributeNames.toArray(new String[0]);
+
+        // written under a temporary name so concurrent runs never see a partial cache
+        File temp = new File(cache.getPath() + ".tmp" + System.nanoTime());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp),
+                1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeLong(handlerHash);
+            out.writeInt(names.size());
+            for (String name : names.keySet()) {
+                writeString(out, name);
+            }
+            out.writeInt(attributes.length);
+            for (String attribute : attributes) {
+                writeString(out, attribute);
+            }
+
+            long position = out.size();
+            long[] offsets = new long[sections.size()];
+            for (int s = 0; s < sections.size(); s++) {
+                offsets[s] = position;
+                ByteArrayOutputStream section = new ByteArrayOutputStream();
+                DataOutputStream sectionOut = new DataOutputStream(section);
+                writeSection(sectionOut, sections.get(s), names, attributes);
+                sectionOut.close();
+                section.writeTo(out);
+                position += section.size();
+            }
+
+            long indexPosition = position;
+            out.writeInt(keys.size());
+            for (int s = 0; s < keys.size(); s++) {
+                writeString(out, keys.get(s));
+                out.writeLong(offsets[s]);
+            }
+            out.writeLong(indexPosition);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(cache)) {
+            temp.delete();
+            throw new IOException("Unable to move " + temp.getPath() + " to " + cache.getPath());
+        }
+    }
+
+    private static void writeSection(DataOutputStream out, List<Feature2D> features, Map<String, Integer> names,
+                                     String[] attributes) throws IOException {
+        out.writeInt(features.size());
+        for (Feature2D feature : features) {
+            out.writeInt(names.get(feature.getChr1()));
+            out.writeInt(names.get(feature.getChr2()));
+            out.writeLong(feature.getStart1());
+            out.writeLong(feature.getEnd1());
+            out.writeLong(feature.getStart2());
+            out.writeLong(feature.getEnd2());
+            out.writeByte(feature.getFeatureType().ordinal());
+            Color color = feature.getColor();
+            out.writeInt(color == null ? Color.black.getRGB() : color.getRGB());
+        }
+
+        ByteArrayOutputStream columnBytes = new ByteArrayOutputStream();
+        DataOutputStream columns = new DataOutputStream(columnBytes);
+        String[] values = new String[features.size()];
+        for (String attribute : attributes) {
+            for (int i = 0; i < values.length; i++) {
+                Map<String, String> map = features.get(i).getAttributes();
+                values[i] = map == null ? null : map.get(attribute);
+            }
+            writeColumn(columns, values);
+        }
+        columns.close();
+        out.writeInt(columnBytes.size());
+        columnBytes.writeTo(out);
+    }
+
+    private static void writeColumn(DataOutputStream out, String[] values) throws IOException {
+        byte type = getColumnType(values);
+        out.writeByte(type);
+        switch (type) {
+            case INT:
+                for (String value : values) {
+                    out.writeInt(Integer.parseInt(value));
+                }
+                break;
+            case FLOAT:
+                for (String value : values) {
+                    out.writeFloat(Float.parseFloat(value));
+                }
+                break;
+            case STRING:
+                for (String value : values) {
+                    out.writeBoolean(value != null);
+                    if (value != null) {
+                        writeString(out, value);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static byte getColumnType(String[] values) {
+        boolean anyPresent = false, allInts = true, allFloats = true;
+        for (String value : values) {
+            if (value == null) {
+                allInts = false;
+                allFloats = false;
+                continue;
+            }
+            anyPresent = true;
+            if (allInts) {
+                try {
+                    allInts = Integer.toString(Integer.parseInt(value)).equals(value);
+                } catch (NumberFormatException e) {
+                    allInts = false;
+                }
+            }
+            if (allFloats) {
+                try {
+                    allFloats = Float.toString(Float.parseFloat(value)).equals(value);
+                } catch (NumberFormatException e) {
+                    allFloats = false;
+                }
+            }
+            if (!allInts && !allFloats) break;
+        }
+        if (!anyPresent) return ABSENT;
+        if (allInts) return INT;
+        if (allFloats) return FLOAT;
+        return STRING;
+    }
+
+    private static Feature2DList read(File cache, boolean loadAttributes, Collection<String> keysToLoad)
+            throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(cache, "r")) {
+            file.seek(file.length() - 8);
+            long indexPosition = file.readLong();
+
+            DataInputStream in = openAt(file, 0);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a loop cache: " + cache.getPath());
+            }
+            in.readLong();
+            in.readLong();
+            in.readLong();
+            String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = readString(in).intern();
+            }
+            String[] attributes = new String[in.readInt()];
+            for (int i = 0; i < attributes.length; i++) {
+                attributes[i] = readString(in);
+            }
+
+            in = openAt(file, indexPosition);
+            Map<String, Long> index = new LinkedHashMap<>();
+            int numKeys = in.readInt();
+            for (int k = 0; k < numKeys; k++) {
+                String key = readString(in);
+                index.put(key, in.readLong());
+            }
+
+            Feature2DList list = new Feature2DList();
+            Collection<String> keys = keysToLoad == null ? index.keySet() : keysToLoad;
+            for (String key : keys) {
+                Long offset = index.get(key);
+                if (offset != null) {
+                    in = openAt(file, offset);
+                    list.addByKey(key, readSection(in, names, attributes, loadAttributes));
+                }
+            }
+            return list;
+        }
+    }
+
+    private static DataInputStream openAt(RandomAccessFile file, long position) throws IOException {
+        file.seek(position);
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel()), 1 << 16));
+    }
+
+    private static List<Feature2D> readSection(DataInputStream in, String[] names, String[] attributes,
+                                               boolean loadAttributes) throws IOException {
+        int n = in.readInt();
+        int[] chr1 = new int[n], chr2 = new int[n], types = new int[n], colors = new int[n];
+        long[] coordinates = new long[4 * n];
+        for (int i = 0; i < n; i++) {
+            chr1[i] = in.readInt();
+            chr2[i] = in.readInt();
+            for (int c = 0; c < 4; c++) {
+                coordinates[4 * i + c] = in.readLong();
+            }
+            types[i] = in.readByte();
+            colors[i] = in.readInt();
+        }
+
+        List<Map<String, String>> maps = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            maps.add(new HashMap<>());
+        }
+        int columnBytes = in.readInt();
+        if (loadAttributes) {
+            for (String attribute : attributes) {
+                readColumn(in, attribute, maps);
+            }
+        } else {
+            in.skipBytes(columnBytes);
+        }
+
+        Feature2D.FeatureType[] allTypes = Feature2D.FeatureType.values();
+        List<Feature2D> features = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            features.add(new Feature2D(allTypes[types[i]], names[chr1[i]], coordinates[4 * i],
+                    coordinates[4 * i + 1], names[chr2[i]], coordinates[4 * i + 2], coordinates[4 * i + 3],
+                    new Color(colors[i]), maps.get(i)));
+        }
+        return features;
+    }
+
+    private static void readColumn(DataInputStream in, String attribute, List<Map<String, String>> maps)
+            throws IOException {
+        byte type = in.readByte();
+        for (Map<String, String> map : maps) {
+            switch (type) {
+                case INT:
+                    map.put(attribute, Integer.toString(in.readInt()));
+                    break;
+                case FLOAT:
+                    map.put(attribute, Float.toString(in.readFloat()));
+                    break;
+                case STRING:
+                    if (in.readBoolean()) {
+                        map.put(attribute, readString(in));
+                    }
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,5 +1,7 @@
 package cli.utils.general;
 
+import cli.utils.data.SparseContactStore;
+
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
@@ -24,6 +26,20 @@ public class WritingTools {
         }
     }
 
+    /**
+     * Rounds each window value before summing, like writeToMND, so both outputs hold the same contacts
+     */
+    public static void addToAggregate(float[][] matrix, int xOrigin, int yOrigin, SparseContactStore aggregate) {
+        for (int i = 0; i < matrix.length; i++) {
+            for (int j = 0; j < matrix[i].length; j++) {
+                int val = Math.round(matrix[i][j]);
+                if (val > 0) {
+                    aggregate.addTo(i + xOrigin, j + yOrigin, val);
+                }
+            }
+        }
+    }
+
     public static String buildCatScript(List<String> filePaths, String outFolder) {
         filePaths.sort(String::compareTo);
         String scriptPath = new File(outFolder, "cat_outputs.sh").getAbsolutePath();
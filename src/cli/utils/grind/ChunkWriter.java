@@ -0,0 +1,164 @@
+package cli.utils.grind;
+
+import io.jhdf.api.WritableGroup;
+import io.jhdf.api.WritiableDataset;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hands full slabs from the extraction workers to a single writer thread, which numbers the chunks,
+ * puts them in the HDF5 group and records the loop info in chunk order.
+ * A fixed pool of slabs is recycled, so workers block (instead of allocating) when the writer falls behind.
+ * Partially filled slabs are parked between chromosomes and only written as short chunks by finish().
+ */
+public class ChunkWriter {
+    private static final WindowSlab POISON = new WindowSlab(0, 0);
+
+    private final WritableGroup chunksGroup;
+    private final int matrixWidth;
+    private final WindowEncoding encoding;
+    private final BlockingQueue<WindowSlab> freeSlabs;
+    private final BlockingQueue<WindowSlab> fullSlabs;
+    private final ConcurrentLinkedQueue<WindowSlab> partialSlabs = new ConcurrentLinkedQueue<>();
+    private final LoopInfoColumns loopInfo = new LoopInfoColumns();
+    private final Thread writerThread;
+    private volatile Exception writerError = null;
+    private int chunkCounter = 0;
+    private double maxAbsoluteError = 0, maxRelativeError = 0;
+
+    public ChunkWriter(WritableGroup chunksGroup, int chunkSize, int matrixWidth, int numWorkers,
+                       WindowEncoding encoding) {
+        this.chunksGroup = chunksGroup;
+        this.matrixWidth = matrixWidth;
+        this.encoding = encoding;
+        int numSlabs = 2 * numWorkers + 2;
+        freeSlabs = new ArrayBlockingQueue<>(numSlabs);
+        fullSlabs = new ArrayBlockingQueue<>(numSlabs + 1);
+        for (int i = 0; i < numSlabs; i++) {
+            freeSlabs.add(new WindowSlab(chunkSize, matrixWidth));
+        }
+        writerThread = new Thread(this::writeLoop, "grind-writer");
+        writerThread.start();
+    }
+
+    /**
+     * A partially filled slab if one is parked, otherwise an empty one (blocking until the writer frees one)
+     */
+    public WindowSlab acquire() throws InterruptedException {
+        WindowSlab slab = partialSlabs.poll();
+        if (slab != null) return slab;
+        return freeSlabs.take();
+    }
+
+    /**
+     * Full slabs go to the writer, partial ones are parked for the next worker
+     */
+    public void release(WindowSlab slab) throws InterruptedException {
+        if (slab.isFull()) {
+            fullSlabs.put(slab);
+        } else if (slab.getCount() > 0) {
+            partialSlabs.add(slab);
+        } else {
+            freeSlabs.put(slab);
+        }
+    }
+
+    public LoopInfoColumns finish() throws Exception {
+        WindowSlab slab;
+        while ((slab = partialSlabs.poll()) != null) {
+            fullSlabs.put(slab);
+        }
+        fullSlabs.put(POISON);
+        writerThread.join();
+        if (writerError != null) throw writerError;
+        return loopInfo;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                WindowSlab slab = fullSlabs.take();
+                if (slab == POISON) break;
+                if (writerError == null) {
+                    write(slab);
+                }
+                slab.reset();
+                freeSlabs.put(slab);
+            }
+        } catch (InterruptedException e) {
+            writerError = e;
+        }
+    }
+
+    private void write(WindowSlab slab) {
+        try {
+            int count = slab.getCount();
+            float[] data = slab.getData();
+            int index = chunkCounter++;
+            if (encoding == WindowEncoding.FLOAT32) {
+                chunksGroup.putDataset("chunk_" + index, toFloatChunk(data, count));
+            } else {
+                double scale = WindowEncoding.getLogScale(data, count * matrixWidth * matrixWidth);
+                WritiableDataset dataset = chunksGroup.putDataset("chunk_" + index, toShortChunk(data, count, scale));
+                dataset.putAttribute(WindowEncoding.ENCODING_ATTRIBUTE, encoding.getLabel());
+                dataset.putAttribute(WindowEncoding.DTYPE_ATTRIBUTE, encoding.getStoredDtype());
+                if (encoding == WindowEncoding.LOG16) {
+                    dataset.putAttribute(WindowEncoding.SCALE_ATTRIBUTE, scale);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                loopInfo.add(slab.getLoop(i), index, i);
+            }
+        } catch (Exception e) {
+            writerError = e;
+        }
+    }
+
+    private float[][][] toFloatChunk(float[] data, int count) {
+        float[][][] chunkArray = new float[count][matrixWidth][matrixWidth];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            for (int r = 0; r < matrixWidth; r++) {
+                System.arraycopy(data, offset, chunkArray[i][r], 0, matrixWidth);
+                offset += matrixWidth;
+            }
+        }
+        return chunkArray;
+    }
+
+    /**
+     * Also tracks the round-trip error of the encoding
+     */
+    private short[][][] toShortChunk(float[] data, int count, double scale) {
+        short[][][] chunkArray = new short[count][matrixWidth][matrixWidth];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            for (int r = 0; r < matrixWidth; r++) {
+                short[] row = chunkArray[i][r];
+                for (int c = 0; c < matrixWidth; c++) {
+                    float value = data[offset++];
+                    row[c] = encoding.encode(value, scale);
+                    if (value > 0) {
+                        double error = Math.abs(encoding.decode(row[c], scale) - value);
+                        maxAbsoluteError = Math.max(maxAbsoluteError, error);
+                        maxRelativeError = Math.max(maxRelativeError, error / value);
+                    }
+                }
+            }
+        }
+        return chunkArray;
+    }
+
+    /**
+     * Largest round-trip errors over the positive values written (0 for float32); valid after finish()
+     */
+    public double getMaxAbsoluteError() {
+        return maxAbsoluteError;
+    }
+
+    public double getMaxRelativeError() {
+        return maxRelativeError;
+    }
+}
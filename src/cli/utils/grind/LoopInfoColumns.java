@@ -0,0 +1,79 @@
+package cli.utils.grind;
+
+import io.jhdf.api.WritableGroup;
+import javastraw.feature2D.Feature2D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-window loop metadata as primitive columns; chromosome names are stored once and referenced by index
+ */
+public class LoopInfoColumns {
+    private final Map<String, Integer> chromosomeIndices = new HashMap<>();
+    private final List<String> chromosomeNames = new ArrayList<>();
+    private int[] chr1 = new int[1024], chr2 = new int[1024];
+    private long[] start1 = new long[1024], end1 = new long[1024];
+    private long[] start2 = new long[1024], end2 = new long[1024];
+    private int[] chunkIndex = new int[1024], chunkOffset = new int[1024];
+    private int size = 0;
+
+    public void add(Feature2D loop, int chunk, int offset) {
+        if (size == chr1.length) {
+            int capacity = 2 * size;
+            chr1 = Arrays.copyOf(chr1, capacity);
+            chr2 = Arrays.copyOf(chr2, capacity);
+            start1 = Arrays.copyOf(start1, capacity);
+            end1 = Arrays.copyOf(end1, capacity);
+            start2 = Arrays.copyOf(start2, capacity);
+            end2 = Arrays.copyOf(end2, capacity);
+            chunkIndex = Arrays.copyOf(chunkIndex, capacity);
+            chunkOffset = Arrays.copyOf(chunkOffset, capacity);
+        }
+        chr1[size] = getChromosomeIndex(loop.getChr1());
+        chr2[size] = getChromosomeIndex(loop.getChr2());
+        start1[size] = loop.getStart1();
+        end1[size] = loop.getEnd1();
+        start2[size] = loop.getStart2();
+        end2[size] = loop.getEnd2();
+        chunkIndex[size] = chunk;
+        chunkOffset[size] = offset;
+        size++;
+    }
+
+    private int getChromosomeIndex(String name) {
+        Integer index = chromosomeIndices.get(name);
+        if (index == null) {
+            index = chromosomeNames.size();
+            chromosomeIndices.put(name, index);
+            chromosomeNames.add(name);
+        }
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void writeTo(WritableGroup loopInfoGroup) {
+        loopInfoGroup.putDataset("chr1", toNames(chr1));
+        loopInfoGroup.putDataset("start1", Arrays.copyOf(start1, size));
+        loopInfoGroup.putDataset("end1", Arrays.copyOf(end1, size));
+        loopInfoGroup.putDataset("chr2", toNames(chr2));
+        loopInfoGroup.putDataset("start2", Arrays.copyOf(start2, size));
+        loopInfoGroup.putDataset("end2", Arrays.copyOf(end2, size));
+        loopInfoGroup.putDataset("chunk_index", Arrays.copyOf(chunkIndex, size));
+        loopInfoGroup.putDataset("chunk_offset", Arrays.copyOf(chunkOffset, size));
+    }
+
+    private String[] toNames(int[] indices) {
+        String[] names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = chromosomeNames.get(indices[i]);
+        }
+        return names;
+    }
+}
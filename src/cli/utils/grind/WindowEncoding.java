@@ -0,0 +1,151 @@
+package cli.utils.grind;
+
+import io.jhdf.api.Dataset;
+
+/**
+ * How Grind stores the windows of a chunk.
+ * FLOAT32 is the raw float[n][w][w]; FLOAT16 keeps the IEEE half-precision bits in a short[n][w][w];
+ * LOG16 stores round(log1p(v) / scale) as unsigned 16-bit values, with the per-chunk scale kept as a
+ * dataset attribute (negative values and NaNs are stored as 0).
+ * HDF5 only gets signed int16 from the writer, so 16-bit chunks carry a dtype attribute ("float16" or
+ * "uint16") that external readers should view the data as, e.g. ds[()].view(ds.attrs["dtype"]) in h5py.
+ */
+public enum WindowEncoding {
+    FLOAT32, FLOAT16, LOG16;
+
+    public static final String ENCODING_ATTRIBUTE = "encoding";
+    public static final String SCALE_ATTRIBUTE = "scale";
+    public static final String DTYPE_ATTRIBUTE = "dtype";
+    private static final int LOG16_LEVELS = 65535;
+
+    public static WindowEncoding fromString(String name) {
+        if (name == null) return FLOAT32;
+        for (WindowEncoding encoding : values()) {
+            if (encoding.name().equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        System.err.println("Unknown encoding " + name + "; use float32, float16 or log16");
+        System.exit(20);
+        return FLOAT32;
+    }
+
+    public String getLabel() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * numpy dtype the stored 16-bit values should be viewed as
+     */
+    public String getStoredDtype() {
+        switch (this) {
+            case FLOAT16:
+                return "float16";
+            case LOG16:
+                return "uint16";
+            default:
+                return "float32";
+        }
+    }
+
+    /**
+     * Scale for LOG16 so that the largest value maps to the top level
+     */
+    public static double getLogScale(float[] data, int length) {
+        float max = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] > max) max = data[i];
+        }
+        return max > 0 ? Math.log1p(max) / LOG16_LEVELS : 1;
+    }
+
+    public short encode(float value, double scale) {
+        if (this == FLOAT16) return toHalf(value);
+        if (!(value > 0)) return 0;
+        long level = Math.round(Math.log1p(value) / scale);
+        return (short) Math.min(level, LOG16_LEVELS);
+    }
+
+    public float decode(short value, double scale) {
+        if (this == FLOAT16) return fromHalf(value);
+        return (float) Math.expm1((value & 0xFFFF) * scale);
+    }
+
+    public static WindowEncoding of(Dataset dataset) {
+        Object label = dataset.getAttributes().containsKey(ENCODING_ATTRIBUTE) ?
+                dataset.getAttribute(ENCODING_ATTRIBUTE).getData() : null;
+        return label == null ? FLOAT32 : fromString(label.toString());
+    }
+
+    /**
+     * Reads a chunk back as float[n][w][w], whatever encoding it was written with
+     */
+    public static float[][][] readChunk(Dataset dataset) {
+        WindowEncoding encoding = of(dataset);
+        if (encoding == FLOAT32) {
+            return (float[][][]) dataset.getData();
+        }
+        double scale = 1;
+        if (dataset.getAttributes().containsKey(SCALE_ATTRIBUTE)) {
+            scale = ((Number) dataset.getAttribute(SCALE_ATTRIBUTE).getData()).doubleValue();
+        }
+        short[][][] stored = (short[][][]) dataset.getData();
+        float[][][] result = new float[stored.length][][];
+        for (int i = 0; i < stored.length; i++) {
+            result[i] = new float[stored[i].length][];
+            for (int r = 0; r < stored[i].length; r++) {
+                result[i][r] = new float[stored[i][r].length];
+                for (int c = 0; c < stored[i][r].length; c++) {
+                    result[i][r][c] = encoding.decode(stored[i][r][c], scale);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Round to nearest even; overflow goes to infinity, NaN stays NaN
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+        if (exp == 0xFF) {
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int e = exp - 127 + 15;
+        if (e >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (e <= 0) {
+            if (e < -10) return (short) sign;
+            mantissa |= 0x800000;
+            int shift = 14 - e;
+            int half = mantissa >> shift;
+            int rem = mantissa & ((1 << shift) - 1);
+            int mid = 1 << (shift - 1);
+            if (rem > mid || (rem == mid && (half & 1) != 0)) half++;
+            return (short) (sign | half);
+        }
+        int half = (e << 10) | (mantissa >> 13);
+        int rem = mantissa & 0x1FFF;
+        if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) half++;
+        return (short) (sign | half);
+    }
+
+    static float fromHalf(short value) {
+        int bits = value & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exp = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+        if (exp == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        if (exp == 0) {
+            float subnormal = mantissa / (float) (1 << 24);
+            return sign != 0 ? -subnormal : subnormal;
+        }
+        return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mantissa << 13));
+    }
+}
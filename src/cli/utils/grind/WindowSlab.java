@@ -0,0 +1,52 @@
+package cli.utils.grind;
+
+import javastraw.feature2D.Feature2D;
+
+import java.util.Arrays;
+
+/**
+ * One chunk worth of windows in a single contiguous row-major float[], filled by one worker at a time
+ */
+public class WindowSlab {
+    private final float[] data;
+    private final Feature2D[] loops;
+    private final int windowSize;
+    private int count = 0;
+
+    WindowSlab(int chunkSize, int matrixWidth) {
+        windowSize = matrixWidth * matrixWidth;
+        data = new float[chunkSize * windowSize];
+        loops = new Feature2D[chunkSize];
+    }
+
+    /**
+     * @return offset of a zeroed window for this loop
+     */
+    public int next(Feature2D loop) {
+        int offset = count * windowSize;
+        Arrays.fill(data, offset, offset + windowSize, 0);
+        loops[count++] = loop;
+        return offset;
+    }
+
+    public float[] getData() {
+        return data;
+    }
+
+    public boolean isFull() {
+        return count == loops.length;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    Feature2D getLoop(int i) {
+        return loops[i];
+    }
+
+    void reset() {
+        Arrays.fill(loops, 0, count, null);
+        count = 0;
+    }
+}
@@ -1,6 +1,7 @@
 package cli.utils.hotspot;
 
 import cli.utils.general.FusionTools;
+import cli.utils.sift.SimpleLocation;
 import javastraw.reader.block.ContactRecord;
 
 import java.util.*;
@@ -8,27 +9,42 @@ import java.util.*;
 public class HotSpotUtils {
     public static void coalesceAndRetainCentroids(Set<ContactRecord> features,
                                                   int binRadius) {
-        LinkedList<ContactRecord> featureLL = new LinkedList<>(features);
-        List<ContactRecord> coalesced = new ArrayList<>();
-
-        featureLL.sort((o1, o2) -> Float.compare(o1.getCounts(), o2.getCounts()));
-        Collections.reverse(featureLL);
+        List<ContactRecord> sorted = new ArrayList<>(features);
+        sorted.sort((o1, o2) -> Float.compare(o1.getCounts(), o2.getCounts()));
+        Collections.reverse(sorted);
 
-        while (!featureLL.isEmpty()) {
-            ContactRecord pixel = featureLL.pollFirst();
-            if (pixel != null) {
-                coalesced.add(pixel);
-                featureLL.remove(pixel);
-                long x = pixel.getBinX();
-                long y = pixel.getBinY();
+        // anything within the radius is in the same or an adjacent cell
+        int cellSize = Math.max(binRadius, 0) + 1;
+        Map<SimpleLocation, List<Integer>> grid = new HashMap<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            ContactRecord px = sorted.get(i);
+            grid.computeIfAbsent(new SimpleLocation(Math.floorDiv(px.getBinX(), cellSize),
+                    Math.floorDiv(px.getBinY(), cellSize)), k -> new ArrayList<>()).add(i);
+        }
 
-                Set<ContactRecord> toRemove = new HashSet<>();
-                for (ContactRecord px : featureLL) {
-                    if (FusionTools.distance(x - px.getBinX(), y - px.getBinY()) <= binRadius) {
-                        toRemove.add(px);
+        boolean[] removed = new boolean[sorted.size()];
+        List<ContactRecord> coalesced = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i++) {
+            if (removed[i]) continue;
+            ContactRecord pixel = sorted.get(i);
+            coalesced.add(pixel);
+            removed[i] = true;
+            long x = pixel.getBinX();
+            long y = pixel.getBinY();
+            int cx = Math.floorDiv(pixel.getBinX(), cellSize);
+            int cy = Math.floorDiv(pixel.getBinY(), cellSize);
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    List<Integer> cell = grid.get(new SimpleLocation(cx + dx, cy + dy));
+                    if (cell == null) continue;
+                    for (int j : cell) {
+                        if (removed[j]) continue;
+                        ContactRecord px = sorted.get(j);
+                        if (FusionTools.distance(x - px.getBinX(), y - px.getBinY()) <= binRadius) {
+                            removed[j] = true;
+                        }
                     }
                 }
-                featureLL.removeAll(toRemove);
             }
         }
 
@@ -0,0 +1,130 @@
+package cli.utils.hotspot;
+
+import cli.utils.sift.SimpleLocation;
+import javastraw.expected.Welford;
+import javastraw.reader.block.ContactRecord;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accumulates percent contact across datasets one slab of rows at a time.
+ * Cells are indexed by (row - slabStart, distance - minBin) so memory is bounded by slab height x band width,
+ * not by the total number of pixels. The high intensity filter is applied as each slab is finished and only
+ * the surviving pixels are retained.
+ */
+public class StreamingHotSpotAccumulator {
+
+    private static final int CELL_BUDGET = 1 << 22;
+    private static final double MAX_RANGE = 0.35;
+    private static final double MAX_PERCENT = 0.35;
+    private static final double LOW_RANGE = 0.05;
+
+    private final int minBin, bandWidth, numDatasets, countThreshold;
+    private final int slabRows;
+    private final int[] counts;
+    private final float[] mins, maxs;
+    private final float[] values;
+    private final Map<SimpleLocation, Welford> candidateStats = new HashMap<>();
+    private final Set<ContactRecord> candidateHotSpots = new HashSet<>();
+    private final Set<ContactRecord> ubiquitousPeaks = new HashSet<>();
+    private int slabStart = 0, slabEnd = 0;
+
+    /**
+     * @param minBin exclusive lower bound on distance from the diagonal
+     * @param maxBin exclusive upper bound on distance from the diagonal
+     */
+    public StreamingHotSpotAccumulator(int minBin, int maxBin, int numDatasets, int countThreshold) {
+        this.minBin = minBin;
+        this.bandWidth = Math.max(1, maxBin - minBin - 1);
+        this.numDatasets = numDatasets;
+        this.countThreshold = countThreshold;
+        this.slabRows = Math.max(1, CELL_BUDGET / (bandWidth * numDatasets));
+        int numCells = slabRows * bandWidth;
+        counts = new int[numCells];
+        mins = new float[numCells];
+        maxs = new float[numCells];
+        values = new float[numCells * numDatasets];
+    }
+
+    public int getSlabRows() {
+        return slabRows;
+    }
+
+    public void startSlab(int rowStart, int rowEnd) {
+        slabStart = rowStart;
+        slabEnd = Math.min(rowEnd, rowStart + slabRows);
+        int numCells = (slabEnd - slabStart) * bandWidth;
+        Arrays.fill(counts, 0, numCells, 0);
+        Arrays.fill(mins, 0, numCells, Float.MAX_VALUE);
+        Arrays.fill(maxs, 0, numCells, -Float.MAX_VALUE);
+    }
+
+    public boolean isInSlab(int binX) {
+        return binX >= slabStart && binX < slabEnd;
+    }
+
+    /**
+     * Datasets must be added in a fixed order within a slab; each dataset contributes at most once per pixel
+     */
+    public void add(int datasetIndex, int binX, int binY, float percentContact) {
+        int cell = (binX - slabStart) * bandWidth + (binY - binX - minBin - 1);
+        values[cell * numDatasets + counts[cell]] = percentContact;
+        counts[cell]++;
+        mins[cell] = Math.min(mins[cell], percentContact);
+        maxs[cell] = Math.max(maxs[cell], percentContact);
+    }
+
+    public void finishSlab() {
+        for (int r = 0; r < slabEnd - slabStart; r++) {
+            int binX = slabStart + r;
+            for (int d = 0; d < bandWidth; d++) {
+                int cell = r * bandWidth + d;
+                if (counts[cell] < 1) continue;
+
+                double max = maxs[cell];
+                double min = mins[cell];
+                double range = max - min;
+                if (range > MAX_RANGE || counts[cell] < countThreshold || max > MAX_PERCENT) continue;
+
+                int binY = binX + d + minBin + 1;
+                if (range > LOW_RANGE && min < LOW_RANGE) {
+                    candidateHotSpots.add(new ContactRecord(binX, binY, (float) max));
+                    candidateStats.put(new SimpleLocation(binX, binY), replay(cell));
+                } else if (range < LOW_RANGE && min > LOW_RANGE) {
+                    ubiquitousPeaks.add(new ContactRecord(binX, binY, (float) max));
+                }
+            }
+        }
+    }
+
+    private Welford replay(int cell) {
+        Welford welford = new Welford();
+        int offset = cell * numDatasets;
+        for (int k = 0; k < counts[cell]; k++) {
+            welford.addValue(values[offset + k]);
+        }
+        return welford;
+    }
+
+    public Set<ContactRecord> getCandidateHotSpots() {
+        return candidateHotSpots;
+    }
+
+    public Set<ContactRecord> getUbiquitousPeaks() {
+        return ubiquitousPeaks;
+    }
+
+    public Welford getStats(int binX, int binY) {
+        return candidateStats.get(new SimpleLocation(binX, binY));
+    }
+
+    public void clear() {
+        candidateStats.clear();
+        candidateHotSpots.clear();
+        ubiquitousPeaks.clear();
+    }
+}
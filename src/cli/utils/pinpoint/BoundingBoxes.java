@@ -12,11 +12,23 @@ public class BoundingBoxes {
 
     public static List<int[]> getEnrichedRegions(List<ContactRecord> records, int binXStart, int binYStart,
                                                  int matrixWidth, int scalar, String saveString, float[][] kernel) {
-        float[][] outputD10 = new float[matrixWidth / scalar][matrixWidth / scalar];
-        Utils.fillInMatrixFromRecords(outputD10, records, binXStart, binYStart, scalar);
+        return getEnrichedRegions((matrix, xStart, yStart, s) ->
+                        Utils.fillInMatrixFromRecords(matrix, records, xStart, yStart, s),
+                binXStart, binYStart, matrixWidth, scalar, saveString, kernel, null);
+    }
+
+    public static List<int[]> getEnrichedRegions(RegionFiller region, int binXStart, int binYStart,
+                                                 int matrixWidth, int scalar, String saveString, float[][] kernel,
+                                                 ConvolutionScratch scratch) {
+        int width = matrixWidth / scalar;
+        float[][] outputD10 = scratch == null ? new float[width][width]
+                : scratch.get(ConvolutionScratch.COARSE_RAW, width, width);
+        region.fill(outputD10, binXStart, binYStart, scalar);
         ArrayTools.saveIfVerbose(saveString + ".raw.S10.npy", outputD10);
 
-        float[][] kde = Convolution2DTools.sparseConvolution(outputD10, kernel);
+        float[][] kde = scratch == null ? new float[width][width]
+                : scratch.get(ConvolutionScratch.COARSE_KDE, width, width);
+        Convolution2DTools.sparseConvolution(outputD10, kernel, kde);
         ArrayTools.saveIfVerbose(saveString + ".kde.S10.npy", kde);
         outputD10 = null;
 
@@ -5,8 +5,15 @@ import cli.utils.general.ArrayTools;
 public class Convolution2DTools {
 
     public static float[][] sparseConvolution(float[][] image, float[][] kernel) {
-
         float[][] result = new float[image.length][image[0].length];
+        sparseConvolution(image, kernel, result);
+        return result;
+    }
+
+    /**
+     * Accumulates into a preallocated (zeroed) result of the same shape as image
+     */
+    public static void sparseConvolution(float[][] image, float[][] kernel, float[][] result) {
 
         int halfWidth = kernel.length / 2;
         int maxR = image.length;
@@ -29,8 +36,6 @@ public class Convolution2DTools {
                 }
             }
         }
-
-        return result;
     }
 
     public static float[][] getManhattanKernel(int width) {
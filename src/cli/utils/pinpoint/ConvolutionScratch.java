@@ -0,0 +1,34 @@
+package cli.utils.pinpoint;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-thread pool of dense matrices for the pinpoint convolutions.
+ * Buffers are keyed by slot and shape and are zeroed on reuse rather than reallocated.
+ */
+public class ConvolutionScratch {
+
+    public static final int COARSE_RAW = 0, COARSE_KDE = 1, RAW = 2, KDE = 3;
+
+    private final Map<Long, float[][]> buffers = new HashMap<>();
+
+    public float[][] get(int slot, int numRows, int numCols) {
+        long key = (((long) slot) << 48) | (((long) numRows) << 24) | numCols;
+        float[][] matrix = buffers.get(key);
+        if (matrix == null) {
+            matrix = new float[numRows][numCols];
+            buffers.put(key, matrix);
+        } else {
+            for (float[] row : matrix) {
+                Arrays.fill(row, 0);
+            }
+        }
+        return matrix;
+    }
+
+    public void clear() {
+        buffers.clear();
+    }
+}
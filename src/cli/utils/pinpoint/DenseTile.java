@@ -0,0 +1,97 @@
+package cli.utils.pinpoint;
+
+import javastraw.reader.block.Block;
+import javastraw.reader.block.ContactRecord;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.NormalizationType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dense row-major copy of one rectangle of a MatrixZoomData, backed by a float[] that is reused
+ * (and only grown) across loads, so a thread can slide it along a chromosome without reallocating.
+ */
+public class DenseTile {
+
+    private float[] data = new float[0];
+    private int rowStart, colStart, numRows, numCols;
+    private boolean loaded = false;
+
+    public void load(MatrixZoomData zd, int rowStart, int colStart, int numRows, int numCols,
+                     NormalizationType norm) {
+        this.rowStart = rowStart;
+        this.colStart = colStart;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        int size = numRows * numCols;
+        if (data.length < size) {
+            data = new float[size];
+        } else {
+            Arrays.fill(data, 0, size, 0);
+        }
+
+        int rowEnd = rowStart + numRows;
+        int colEnd = colStart + numCols;
+        List<Block> blocks = zd.getNormalizedBlocksOverlapping(rowStart, colStart, rowEnd, colEnd, norm, false);
+        for (Block block : blocks) {
+            if (block != null) {
+                for (ContactRecord record : block.getContactRecords()) {
+                    if (record.getCounts() > 0) {
+                        int r = record.getBinX() - rowStart;
+                        int c = record.getBinY() - colStart;
+                        if (r >= 0 && r < numRows && c >= 0 && c < numCols) {
+                            data[r * numCols + c] += record.getCounts();
+                        }
+                    }
+                }
+            }
+        }
+        blocks.clear();
+        loaded = true;
+    }
+
+    /**
+     * Forget the current tile (e.g. when moving to another chromosome pair); the buffer is kept
+     */
+    public void reset() {
+        loaded = false;
+    }
+
+    public boolean contains(int minR, int minC, int maxR, int maxC) {
+        return loaded && minR >= rowStart && minC >= colStart
+                && maxR <= rowStart + numRows && maxC <= colStart + numCols;
+    }
+
+    /**
+     * Same contents as Utils.getRecords(zd, minR, minC, maxR, maxC, norm) would give,
+     * for a region that lies inside this tile
+     */
+    public RegionFiller getRegion(int minR, int minC, int maxR, int maxC) {
+        return (matrix, binXStart, binYStart, scalar) -> fill(matrix, minR, minC, maxR, maxC,
+                binXStart, binYStart, scalar);
+    }
+
+    private void fill(float[][] matrix, int minR, int minC, int maxR, int maxC,
+                      int binXStart, int binYStart, int scalar) {
+        int matrixRows = matrix.length;
+        int matrixCols = matrix[0].length;
+        int scaledXStart = binXStart / scalar;
+        int scaledYStart = binYStart / scalar;
+        for (int x = minR; x < maxR; x++) {
+            int relativeX = x / scalar - scaledXStart;
+            if (relativeX < 0 || relativeX >= matrixRows) continue;
+            int offset = (x - rowStart) * numCols - colStart;
+            float[] row = matrix[relativeX];
+            for (int y = minC; y < maxC; y++) {
+                float counts = data[offset + y];
+                if (counts > 0) {
+                    int relativeY = y / scalar - scaledYStart;
+                    if (relativeY >= 0 && relativeY < matrixCols) {
+                        row[relativeY] += counts;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -43,9 +43,20 @@ public class LandScape {
                                      List<Feature2D> pinpointedLoops, List<Feature2D> pinpointedBounds,
                                      Feature2D loop, String saveString,
                                      boolean onlyGetOne, int matrixWidth, float[][] kernel, float[][] compressedKernel) {
+        extractMaxima((matrix, binXStart, binYStart, scalar) ->
+                        Utils.fillInMatrixFromRecords(matrix, records, binXStart, binYStart, scalar),
+                originalBinXStart, originalBinYStart, resolution, pinpointedLoops, pinpointedBounds,
+                loop, saveString, onlyGetOne, matrixWidth, kernel, compressedKernel, null);
+    }
+
+    public static void extractMaxima(RegionFiller region, int originalBinXStart, int originalBinYStart, long resolution,
+                                     List<Feature2D> pinpointedLoops, List<Feature2D> pinpointedBounds,
+                                     Feature2D loop, String saveString,
+                                     boolean onlyGetOne, int matrixWidth, float[][] kernel, float[][] compressedKernel,
+                                     ConvolutionScratch scratch) {
 
-        List<int[]> bounds = BoundingBoxes.getEnrichedRegions(records, originalBinXStart, originalBinYStart, matrixWidth, 20,
-                saveString, compressedKernel);
+        List<int[]> bounds = BoundingBoxes.getEnrichedRegions(region, originalBinXStart, originalBinYStart, matrixWidth, 20,
+                saveString, compressedKernel, scratch);
 
         int counter = 0;
         for (int[] bound : bounds) {
@@ -55,13 +66,16 @@ public class LandScape {
             int newBinYStart = originalBinYStart + bound[1];
             int newMatrixWidth = Math.max(bound[2] - bound[0], bound[3] - bound[1]);
 
-            float[][] output = new float[newMatrixWidth][newMatrixWidth];
-            Utils.fillInMatrixFromRecords(output, records, newBinXStart, newBinYStart);
+            float[][] output = scratch == null ? new float[newMatrixWidth][newMatrixWidth]
+                    : scratch.get(ConvolutionScratch.RAW, newMatrixWidth, newMatrixWidth);
+            region.fill(output, newBinXStart, newBinYStart, 1);
             ArrayTools.saveIfVerbose(saveString + ".raw.c" + counter + ".npy", output);
             float[] outputR = ArrayTools.getNormedRowSums(output);
             float[] outputC = ArrayTools.getNormedColSums(output);
 
-            float[][] kde = Convolution2DTools.sparseConvolution(output, kernel);
+            float[][] kde = scratch == null ? new float[newMatrixWidth][newMatrixWidth]
+                    : scratch.get(ConvolutionScratch.KDE, newMatrixWidth, newMatrixWidth);
+            Convolution2DTools.sparseConvolution(output, kernel, kde);
             ArrayTools.saveIfVerbose(saveString + ".kde.c" + counter + ".npy", kde);
             float[] kdeR = ArrayTools.getNormedRowSums(kde);
             float[] kdeC = ArrayTools.getNormedColSums(kde);
@@ -0,0 +1,8 @@
+package cli.utils.pinpoint;
+
+public interface RegionFiller {
+    /**
+     * Add contacts into matrix relative to (binXStart, binYStart), after dividing bins by scalar
+     */
+    void fill(float[][] matrix, int binXStart, int binYStart, int scalar);
+}
@@ -0,0 +1,227 @@
+package cli.utils.recap;
+
+import cli.utils.apa.BatchedWindowExtractor;
+import cli.utils.data.LoopAttributeTable;
+import cli.utils.flags.RegionConfiguration;
+import cli.utils.general.FastBedpeWriter;
+import cli.utils.general.HiCUtils;
+import cli.utils.seer.OrderedChunkWriter;
+import javastraw.expected.ExpectedModel;
+import javastraw.expected.LogExpectedSpline;
+import javastraw.feature2D.Feature2D;
+import javastraw.feature2D.Feature2DList;
+import javastraw.reader.Dataset;
+import javastraw.reader.basics.Chromosome;
+import javastraw.reader.basics.ChromosomeHandler;
+import javastraw.reader.mzd.Matrix;
+import javastraw.reader.mzd.MatrixZoomData;
+import javastraw.reader.type.HiCZoom;
+import javastraw.reader.type.NormalizationType;
+import javastraw.tools.HiCFileTools;
+import javastraw.tools.ParallelizationTools;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs recap over all datasets in one pass over the chromosome pairs.
+ * Window coordinates for a pair are computed once and each dataset is read with one block sweep per pair
+ * into per-thread window buffers. The header is fixed up front from the loops' own attribute keys and the
+ * per-dataset recap keys; each finished pair is formatted straight from its attribute table and written in
+ * pair order, then dropped.
+ */
+public class RecapEngine {
+
+    private final Dataset[] datasets;
+    private final String[] prefixes;
+    private final int resolution, window, matrixWidth;
+    private final NormalizationType norm;
+    private final boolean isDeepLoopAnalysis;
+    private final HiCZoom zoom;
+
+    public RecapEngine(String[] filepaths, String[] names, int resolution, int window,
+                       NormalizationType norm, boolean isDeepLoopAnalysis) {
+        this.resolution = resolution;
+        this.window = window;
+        this.matrixWidth = 1 + 2 * window;
+        this.norm = norm;
+        this.isDeepLoopAnalysis = isDeepLoopAnalysis;
+        this.zoom = new HiCZoom(resolution);
+
+        datasets = new Dataset[filepaths.length];
+        prefixes = new String[filepaths.length];
+        for (int di = 0; di < filepaths.length; di++) {
+            System.out.println("File (" + (di + 1) + "/" + filepaths.length + "): " + filepaths[di]);
+            datasets[di] = HiCFileTools.extractDatasetForCLT(filepaths[di], false, false, true);
+            prefixes[di] = names[di] + "_";
+        }
+    }
+
+    /**
+     * @param retainAttributes also add the attributes to the loops in loopList (needed for the npy export)
+     */
+    public void run(Feature2DList loopList, ChromosomeHandler handler, File outputFile,
+                    boolean retainAttributes) throws IOException {
+
+        Map<Integer, RegionConfiguration> chromosomePairs = new ConcurrentHashMap<>();
+        final int chromosomePairCounter = HiCUtils.populateChromosomePairs(chromosomePairs,
+                handler.getChromosomeArrayWithoutAllByAll(), false);
+
+        int numTotalLoops = loopList.getNumTotalFeatures();
+        final AtomicInteger currChromPair = new AtomicInteger(0);
+        final AtomicInteger currNumLoops = new AtomicInteger(0);
+
+        Set<String> attributeKeys = new HashSet<>();
+        loopList.processLists((key, loops) -> {
+            for (Feature2D loop : loops) {
+                if (loop.getAttributes() != null) {
+                    attributeKeys.addAll(loop.getAttributes().keySet());
+                }
+            }
+        });
+        for (String prefix : prefixes) {
+            for (String category : RecapTools.getCategories(isDeepLoopAnalysis)) {
+                attributeKeys.add(prefix + category);
+            }
+        }
+
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(outputFile), 1 << 16)) {
+            FastBedpeWriter header = new FastBedpeWriter(stream);
+            header.setAttributeKeys(attributeKeys);
+            header.writeHeader();
+
+            OrderedChunkWriter writer = new OrderedChunkWriter(stream,
+                    2 * Runtime.getRuntime().availableProcessors());
+
+            ParallelizationTools.launchParallelizedCode(() -> {
+                WindowBuffers buffers = new WindowBuffers(matrixWidth);
+
+                int threadPair = currChromPair.getAndIncrement();
+                while (threadPair < chromosomePairCounter) {
+                    RegionConfiguration config = chromosomePairs.get(threadPair);
+                    Chromosome chrom1 = config.getChr1();
+                    Chromosome chrom2 = config.getChr2();
+
+                    byte[] rows = new byte[0];
+                    List<Feature2D> loops = loopList.get(chrom1.getIndex(), chrom2.getIndex());
+                    try {
+                        if (loops != null && loops.size() > 0) {
+                            rows = processPair(chrom1, chrom2, loops, buffers, attributeKeys, retainAttributes);
+
+                            currNumLoops.addAndGet(loops.size());
+                            System.out.println(((int) Math.floor((100.0 * currNumLoops.get()) / numTotalLoops)) + "% ");
+                        }
+                        writer.write(threadPair, rows);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        System.exit(76);
+                    }
+                    threadPair = currChromPair.getAndIncrement();
+                }
+            });
+        }
+
+        for (Dataset ds : datasets) {
+            ds.clearCache(false);
+        }
+    }
+
+    private byte[] processPair(Chromosome chrom1, Chromosome chrom2, List<Feature2D> loops, WindowBuffers buffers,
+                               Set<String> attributeKeys, boolean retainAttributes) throws IOException {
+        int n = loops.size();
+        int[] binXStarts = new int[n];
+        int[] binYStarts = new int[n];
+        for (int i = 0; i < n; i++) {
+            binXStarts[i] = (int) ((loops.get(i).getMidPt1() / resolution) - window);
+            binYStarts[i] = (int) ((loops.get(i).getMidPt2() / resolution) - window);
+        }
+        BatchedWindowExtractor extractor = new BatchedWindowExtractor(binXStarts, binYStarts, matrixWidth);
+        int maxBinDist = Math.max(getMaxDistance(loops, resolution, window), 9000000 / resolution);
+
+        LoopAttributeTable attributes = new LoopAttributeTable(loops);
+
+        for (int di = 0; di < datasets.length; di++) {
+            Matrix matrix = datasets[di].getMatrix(chrom1, chrom2, resolution);
+            if (matrix == null) {
+                System.err.println("Matrix is null " + chrom1.getName() + "_" + chrom2.getName());
+                System.exit(9);
+            }
+
+            MatrixZoomData zd = matrix.getZoomData(zoom);
+            if (zd == null) {
+                System.err.println("ZD is null " + chrom1.getName() + "_" + chrom2.getName());
+                System.exit(9);
+            }
+
+            ExpectedModel poly = new LogExpectedSpline(zd, norm, chrom1, resolution);
+            float pseudoCount = (float) poly.getExpectedFromUncompressedBin(maxBinDist - 2 * window);
+
+            float[][][] obsMatrices = buffers.get(n);
+            try {
+                extractor.addEachToMatrices(zd, norm, obsMatrices);
+                for (int i = 0; i < n; i++) {
+                    RecapTools.addStats(obsMatrices[i], window, pseudoCount, isDeepLoopAnalysis, poly,
+                            loops.get(i), resolution, binXStarts[i], binYStarts[i], attributes, prefixes[di]);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(76);
+            }
+            matrix.clearCache();
+        }
+        extractor.clear();
+
+        ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        FastBedpeWriter writer = new FastBedpeWriter(rows);
+        writer.setAttributeKeys(attributeKeys);
+        for (Feature2D loop : loops) {
+            writer.write(loop, attributes);
+            if (retainAttributes) {
+                attributes.writeTo(loop);
+            }
+        }
+        attributes.clear();
+        return rows.toByteArray();
+    }
+
+    public static int getMaxDistance(List<Feature2D> loops, int resolution, int window) {
+        long maxDist = 0;
+        for (Feature2D loop : loops) {
+            long dist = Math.abs((loop.getStart1() / resolution - window) - (loop.getEnd2() / resolution + window));
+            if (dist > maxDist) {
+                maxDist = dist;
+            }
+        }
+        return (int) (maxDist + 4 * window);
+    }
+
+    /**
+     * Window matrices reused by one thread across pairs and datasets; only grows
+     */
+    private static class WindowBuffers {
+        private final int matrixWidth;
+        private float[][][] matrices = new float[0][][];
+
+        WindowBuffers(int matrixWidth) {
+            this.matrixWidth = matrixWidth;
+        }
+
+        float[][][] get(int n) {
+            if (matrices.length < n) {
+                float[][][] grown = Arrays.copyOf(matrices, Math.max(n, 2 * matrices.length));
+                for (int i = matrices.length; i < grown.length; i++) {
+                    grown[i] = new float[matrixWidth][matrixWidth];
+                }
+                matrices = grown;
+            }
+            for (int i = 0; i < n; i++) {
+                for (float[] row : matrices[i]) {
+                    Arrays.fill(row, 0);
+                }
+            }
+            return matrices;
+        }
+    }
+}
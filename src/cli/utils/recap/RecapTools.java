@@ -1,5 +1,6 @@
 package cli.utils.recap;
 
+import cli.utils.data.LoopAttributeTable;
 import cli.utils.general.ManhattanDecay;
 import cli.utils.general.Utils;
 import javastraw.expected.ExpectedModel;
@@ -50,33 +51,33 @@ public class RecapTools {
         return categories;
     }
 
-    public static Map<String, String> getStats(float[][] obsMatrix,
-                                               int window, float pseudoCount,
-                                               boolean isDeepLoopAnalysis, ExpectedModel polynomial,
-                                               Feature2D loop, int resolution,
-                                               long binXStart, long binYStart) {
-
-        Map<String, String> attributes = new HashMap<>();
+    /**
+     * Stores the stats for this loop in the attribute table, with every key prefixed by the dataset name
+     */
+    public static void addStats(float[][] obsMatrix,
+                                int window, float pseudoCount,
+                                boolean isDeepLoopAnalysis, ExpectedModel polynomial,
+                                Feature2D loop, int resolution,
+                                long binXStart, long binYStart,
+                                LoopAttributeTable attributes, String prefix) {
 
         if (isDeepLoopAnalysis) {
-            addMatrixSums(obsMatrix, attributes, "OBS_");
+            addMatrixSums(obsMatrix, attributes, loop, prefix + "OBS_");
             float[] manhattanDecay = ManhattanDecay.calculateDecay(obsMatrix, window, window, window);
-            addRegressionStats(manhattanDecay, attributes, "OBS_");
+            addRegressionStats(manhattanDecay, attributes, loop, prefix + "OBS_");
 
             float[][] eMatrix = new float[obsMatrix.length][obsMatrix.length];
             Utils.fillInExpectedMatrix(eMatrix, obsMatrix.length, polynomial, binXStart, binYStart);
 
             float[][] oeMatrix = divide(obsMatrix, eMatrix, pseudoCount);
-            addMatrixSums(oeMatrix, attributes, "OE_");
+            addMatrixSums(oeMatrix, attributes, loop, prefix + "OE_");
             manhattanDecay = ManhattanDecay.calculateDecay(oeMatrix, window, window, window);
-            addRegressionStats(manhattanDecay, attributes, "OE_");
+            addRegressionStats(manhattanDecay, attributes, loop, prefix + "OE_");
         } else {
             float obs = obsMatrix[window][window];
             double p = getPresenceFrom(polynomial, loop, resolution, obs);
-            attributes.put("PRESENCE", String.valueOf(p));
+            attributes.setDouble(loop, prefix + "PRESENCE", p);
         }
-
-        return attributes;
     }
 
     private static double getPresenceFrom(ExpectedModel model, Feature2D loop, int resolution, float counts) {
@@ -100,7 +101,7 @@ public class RecapTools {
             attributes.put(stem + "MIN_ENRICHMENT", String.valueOf(val / stats.getMin()));
         */
 
-    private static void addMatrixSums(float[][] matrix, Map<String, String> attributes, String stem) {
+    private static void addMatrixSums(float[][] matrix, LoopAttributeTable attributes, Feature2D loop, String stem) {
 
         // initializes variables
         int numRows = matrix.length;
@@ -121,12 +122,12 @@ public class RecapTools {
         double spreadCol = getSpreadStdDev(normalizedColSum);
 
         // adds these metrics to the attributes object
-        attributes.put(stem + ROW_SUM, convertVectorToString(rowSum));
-        attributes.put(stem + COL_SUM, convertVectorToString(colSum));
-        attributes.put(stem + AMP_ROW, String.valueOf(ampRow));
-        attributes.put(stem + AMP_COL, String.valueOf(ampCol));
-        attributes.put(stem + SPREAD_ROW, String.valueOf(spreadRow));
-        attributes.put(stem + SPREAD_COL, String.valueOf(spreadCol));
+        attributes.setString(loop, stem + ROW_SUM, convertVectorToString(rowSum));
+        attributes.setString(loop, stem + COL_SUM, convertVectorToString(colSum));
+        attributes.setDouble(loop, stem + AMP_ROW, ampRow);
+        attributes.setDouble(loop, stem + AMP_COL, ampCol);
+        attributes.setDouble(loop, stem + SPREAD_ROW, spreadRow);
+        attributes.setDouble(loop, stem + SPREAD_COL, spreadCol);
     }
 
     private static double getAmplitudeStdDev(float[] sumVector) {
@@ -185,7 +186,7 @@ public class RecapTools {
         }
     }
 
-    private static void addRegressionStats(float[] decay, Map<String, String> attributes, String stem) {
+    private static void addRegressionStats(float[] decay, LoopAttributeTable attributes, Feature2D loop, String stem) {
         SimpleRegression regression = new SimpleRegression();
         for (int i = 0; i < decay.length; i++) {
             regression.addData(i, Math.log(decay[i]));
@@ -193,9 +194,9 @@ public class RecapTools {
         // y = Ae^(kx)  for each (xi, yi) --> wi = log(yi)
         // solve w = a + bx
         // e^a = A  ;  b = k
-        attributes.put(stem + DECAY_A, String.valueOf(Math.exp(regression.getIntercept())));
-        attributes.put(stem + DECAY_k, String.valueOf(regression.getSlope()));
-        attributes.put(stem + FULL_DECAY, convertVectorToString(decay));
+        attributes.setDouble(loop, stem + DECAY_A, Math.exp(regression.getIntercept()));
+        attributes.setDouble(loop, stem + DECAY_k, regression.getSlope());
+        attributes.setString(loop, stem + FULL_DECAY, convertVectorToString(decay));
     }
 
     private static String convertVectorToString(float[] vector) {
@@ -0,0 +1,73 @@
+package cli.utils.seer;
+
+import java.util.SplittableRandom;
+
+/**
+ * Walker/Vose alias table for O(1) sampling from a discrete distribution.
+ * One uniform draw picks a column and the fractional part decides between the column and its alias.
+ */
+public class AliasTable {
+
+    private final double[] threshold;
+    private final int[] alias;
+
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        threshold = new double[n];
+        alias = new int[n];
+
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0, numLarge = 0;
+        for (int i = 0; i < n; i++) {
+            threshold[i] = weights[i] * n / total;
+            if (threshold[i] < 1) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+
+        while (numSmall > 0 && numLarge > 0) {
+            int s = small[--numSmall];
+            int l = large[--numLarge];
+            alias[s] = l;
+            threshold[l] = (threshold[l] + threshold[s]) - 1;
+            if (threshold[l] < 1) {
+                small[numSmall++] = l;
+            } else {
+                large[numLarge++] = l;
+            }
+        }
+
+        // leftovers are only off from 1 by rounding error
+        while (numLarge > 0) {
+            int l = large[--numLarge];
+            threshold[l] = 1;
+            alias[l] = l;
+        }
+        while (numSmall > 0) {
+            int s = small[--numSmall];
+            threshold[s] = 1;
+            alias[s] = s;
+        }
+    }
+
+    public int sample(SplittableRandom rand) {
+        double u = rand.nextDouble() * threshold.length;
+        int column = (int) u;
+        if (column >= threshold.length) {
+            column = threshold.length - 1;
+        }
+        return (u - column) < threshold[column] ? column : alias[column];
+    }
+
+    public int size() {
+        return threshold.length;
+    }
+}
@@ -0,0 +1,73 @@
+package cli.utils.seer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer for short-format MND lines ("chr1 pos1 chr2 pos2\n"),
+ * encoding integers directly to ASCII instead of building Strings per contact.
+ */
+public class ContactLineBuffer {
+
+    private final byte[] digits = new byte[11];
+    private byte[] data;
+    private int length = 0;
+
+    public ContactLineBuffer(int initialCapacity) {
+        data = new byte[Math.max(64, initialCapacity)];
+    }
+
+    public static byte[] encodeName(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public void addLine(byte[] chr1, int pos1, byte[] chr2, int pos2) {
+        ensureCapacity(chr1.length + chr2.length + 2 * digits.length + 4);
+        append(chr1);
+        data[length++] = ' ';
+        append(pos1);
+        data[length++] = ' ';
+        append(chr2);
+        data[length++] = ' ';
+        append(pos2);
+        data[length++] = '\n';
+    }
+
+    private void append(byte[] bytes) {
+        System.arraycopy(bytes, 0, data, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void append(int value) {
+        if (value < 0) {
+            data[length++] = '-';
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        while (n > 0) {
+            data[length++] = digits[--n];
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+}
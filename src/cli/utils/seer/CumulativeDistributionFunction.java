@@ -1,27 +1,28 @@
 package cli.utils.seer;
 
-import cli.utils.sift.SimpleLocation;
 import javastraw.expected.ExpectedUtils;
 import javastraw.reader.block.ContactRecord;
 
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class CumulativeDistributionFunction {
 
     private final int resolution;
-    private final double[] cdf;
-    private final SimpleLocation[] genomeLocations;
+    private final AliasTable sampler;
+    private final int[] genomeXs, genomeYs;
 
     public CumulativeDistributionFunction(Iterator<ContactRecord> normalizedIterator, int maxGenomeDist, int resolution) {
         this.resolution = resolution;
         List<ContactRecord> toSave = extractTheRecordsWeWantToSave(normalizedIterator, maxGenomeDist / resolution);
-        cdf = new double[toSave.size()];
-        genomeLocations = new SimpleLocation[toSave.size()];
-        populateCDFandLocations(cdf, genomeLocations, toSave);
+        double[] weights = new double[toSave.size()];
+        genomeXs = new int[toSave.size()];
+        genomeYs = new int[toSave.size()];
+        populateWeightsAndLocations(weights, toSave);
         toSave.clear();
+        sampler = new AliasTable(weights);
     }
 
     private List<ContactRecord> extractTheRecordsWeWantToSave(Iterator<ContactRecord> normalizedIterator, int maxDist) {
@@ -36,27 +37,29 @@ public class CumulativeDistributionFunction {
         return toSave;
     }
 
-    private void populateCDFandLocations(double[] cdf, SimpleLocation[] genomeLocations, List<ContactRecord> toSave) {
-        double total = 0;
+    private void populateWeightsAndLocations(double[] weights, List<ContactRecord> toSave) {
         int index = 0;
-
-        // fills in the cdf and genome locations
         for (ContactRecord record : toSave) {
-            total += record.getCounts();
-            cdf[index] = total;
-            genomeLocations[index] = new SimpleLocation(record, resolution);
+            weights[index] = record.getCounts();
+            genomeXs[index] = record.getBinX() * resolution;
+            genomeYs[index] = record.getBinY() * resolution;
             index++;
         }
+    }
 
-        // normalizes cdf
-        for (int i = 0; i < cdf.length; i++) {
-            cdf[i] /= total;
-        }
+    public int size() {
+        return genomeXs.length;
+    }
+
+    public int sampleIndex(SplittableRandom rand) {
+        return sampler.sample(rand);
+    }
+
+    public int getGenomeX(int index) {
+        return genomeXs[index];
     }
 
-    public SimpleLocation createRandomPoint(Random rand) {
-        double target = rand.nextDouble();
-        int index = BinarySearch.runBinarySearchIteratively(cdf, target, 0, cdf.length - 1);
-        return genomeLocations[index];
+    public int getGenomeY(int index) {
+        return genomeYs[index];
     }
 }
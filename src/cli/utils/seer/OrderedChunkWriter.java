@@ -0,0 +1,49 @@
+package cli.utils.seer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lets worker threads hand in encoded chunks in any order while the file is written in chunk order,
+ * so output is identical for a given seed regardless of thread scheduling.
+ * A chunk more than maxPending ahead of the next one to write waits until the writer catches up, which
+ * bounds the reorder backlog; chunks must be claimed in increasing order so the next one is always in flight.
+ */
+public class OrderedChunkWriter {
+
+    private final OutputStream stream;
+    private final Map<Integer, byte[]> pending = new HashMap<>();
+    private final int maxPending;
+    private int nextToWrite = 0;
+
+    public OrderedChunkWriter(OutputStream stream, int maxPending) {
+        this.stream = stream;
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    public synchronized void write(int chunkIndex, byte[] chunk) throws IOException {
+        while (chunkIndex - nextToWrite >= maxPending) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to write chunk " + chunkIndex);
+            }
+        }
+        pending.put(chunkIndex, chunk);
+        byte[] next = pending.remove(nextToWrite);
+        boolean wrote = false;
+        while (next != null) {
+            stream.write(next);
+            nextToWrite++;
+            wrote = true;
+            next = pending.remove(nextToWrite);
+        }
+        if (wrote) {
+            notifyAll();
+        }
+    }
+}
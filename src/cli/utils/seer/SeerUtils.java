@@ -2,7 +2,6 @@ package cli.utils.seer;
 
 import cli.utils.general.MapNMS;
 import cli.utils.general.function.NormalizationFunction;
-import cli.utils.sift.SimpleLocation;
 import javastraw.reader.basics.Chromosome;
 import javastraw.reader.block.ContactRecord;
 
@@ -12,7 +11,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class SeerUtils {
 
@@ -148,21 +147,14 @@ public class SeerUtils {
         return rowSums;
     }
 
-    public static SimpleLocation updateToHigherResPosition(SimpleLocation genomePosition, double[] hiResCDF,
-                                                           int lowResolution, int highResolution, Random rand) {
-        int window = lowResolution / highResolution; // e.g. 100
-        int startBinX = genomePosition.getBinX() / highResolution;
-        int startBinY = genomePosition.getBinY() / highResolution;
-
-        int genomeX = getHigherQualityIndex(startBinX, window, hiResCDF, rand) * highResolution;
-        int genomeY = getHigherQualityIndex(startBinY, window, hiResCDF, rand) * highResolution;
-
-        return new SimpleLocation(genomeX, genomeY);
+    public static int updateToHigherResPosition(int genomePosition, double[] hiResCDF,
+                                                int lowResolution, int highResolution, SplittableRandom rand) {
+        int window = lowResolution / highResolution;
+        int startBin = genomePosition / highResolution;
+        return getHigherQualityIndex(startBin, window, hiResCDF, rand.nextDouble()) * highResolution;
     }
 
-    private static int getHigherQualityIndex(int startBin, int window, double[] hiResCDF, Random rand) {
-        double r = rand.nextDouble();
-
+    private static int getHigherQualityIndex(int startBin, int window, double[] hiResCDF, double r) {
         int realStartBin = startBin;
         int realEndBin = startBin + window;
 
@@ -11,24 +11,29 @@ import javastraw.reader.mzd.MatrixZoomData;
 import javastraw.reader.type.HiCZoom;
 import javastraw.reader.type.NormalizationType;
 
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
 
 public class ExtremePixels {
 
-    public static Set<ContactRecord> getExtremePixelsForResolution(Dataset ds, MatrixZoomData zd, Chromosome chrom,
-                                                                   int res, NormalizationType norm,
-                                                                   int maxBin, int minBin, ExpectedModel poly) {
-        Set<ContactRecord> enrichedRegions = ExtremePixels.getExtremeLocations(ds, chrom, res,
+    private static final int PARALLEL_COLLAPSE_LIMIT = 1000000;
+
+    public static PixelBuffer getExtremePixelsForResolution(Dataset ds, MatrixZoomData zd, Chromosome chrom,
+                                                            int res, NormalizationType norm,
+                                                            int maxBin, int minBin, ExpectedModel poly,
+                                                            int numThreads) {
+        PixelBuffer enrichedRegions = ExtremePixels.getExtremeLocations(ds, chrom, res,
                 zd, maxBin, minBin, norm, poly);
         int radius = Math.max(Sift.MIN_RADIUS_0 / res, 2);
-        return CentroidCollapser.coalesce(enrichedRegions, radius, radius);
+        if (enrichedRegions.size() < PARALLEL_COLLAPSE_LIMIT) numThreads = 1;
+        return CentroidCollapser.coalesce(enrichedRegions, radius, radius, numThreads);
     }
 
-    public static Set<ContactRecord> getExtremeLocations(Dataset ds, Chromosome chromosome, int resolution,
-                                                         MatrixZoomData zd, int maxBin, int minBin,
-                                                         NormalizationType norm, ExpectedModel poly) {
+    /**
+     * Candidates are streamed straight into a primitive buffer as the iterator yields them
+     */
+    public static PixelBuffer getExtremeLocations(Dataset ds, Chromosome chromosome, int resolution,
+                                                  MatrixZoomData zd, int maxBin, int minBin,
+                                                  NormalizationType norm, ExpectedModel poly) {
         int chrIdx = chromosome.getIndex();
         double[] nv;
         try {
@@ -36,12 +41,12 @@ public class ExtremePixels {
         } catch (Exception e) {
             System.err.println("No norm vector found for " + chromosome.getName() + " resolution " + resolution);
             System.exit(8);
-            return new HashSet<>();
+            return new PixelBuffer(resolution, 0);
         }
 
         int minVal = 1;
 
-        Set<ContactRecord> extremes = new HashSet<>();
+        PixelBuffer extremes = new PixelBuffer(resolution, 1024);
         Iterator<ContactRecord> it = ExpectedUtils.getIterator(zd, norm);
         while (it.hasNext()) {
             ContactRecord cr = it.next();
@@ -50,7 +55,7 @@ public class ExtremePixels {
                 if (dist > minBin && dist < maxBin) {
                     if (poly.isReasonableEnrichment(cr, Sift.ENRICMENT_VS_EXPECTED)
                             && poly.isReasonablePercentContact(cr, Sift.MIN_PC, Sift.MAX_PC)) {
-                        extremes.add(cr);
+                        extremes.add(cr.getBinX(), cr.getBinY(), cr.getCounts());
                     }
                 }
             }
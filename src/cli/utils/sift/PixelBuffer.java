@@ -0,0 +1,70 @@
+package cli.utils.sift;
+
+import javastraw.reader.block.ContactRecord;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Compact storage for the pixels kept at one resolution until the multi-resolution collapse
+ */
+public class PixelBuffer {
+
+    private final int resolution;
+    private int[] binX, binY;
+    private float[] counts;
+    private int size = 0;
+
+    public PixelBuffer(int resolution, int initialCapacity) {
+        this.resolution = resolution;
+        int capacity = Math.max(initialCapacity, 16);
+        binX = new int[capacity];
+        binY = new int[capacity];
+        counts = new float[capacity];
+    }
+
+    public void add(int x, int y, float value) {
+        if (size == binX.length) {
+            int capacity = 2 * size;
+            binX = Arrays.copyOf(binX, capacity);
+            binY = Arrays.copyOf(binY, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        binX[size] = x;
+        binY[size] = y;
+        counts[size] = value;
+        size++;
+    }
+
+    public void addAll(PixelBuffer other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.binX[i], other.binY[i], other.counts[i]);
+        }
+    }
+
+    public int getBinX(int i) {
+        return binX[i];
+    }
+
+    public int getBinY(int i) {
+        return binY[i];
+    }
+
+    public float getCounts(int i) {
+        return counts[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getResolution() {
+        return resolution;
+    }
+
+    public void addBoxesTo(Set<ContactRecordBox> boxes) {
+        for (int i = 0; i < size; i++) {
+            boxes.add(new ContactRecordBox(new ContactRecord(binX[i], binY[i], counts[i]), resolution));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package cli.utils.sift.collapse;
+
+import java.util.Arrays;
+
+/**
+ * Grid-hashed cluster growth shared by the centroid collapsers.
+ * <p>
+ * Starting from a seed, the cluster box is the union of the members' growth boxes, and any record whose
+ * probe box overlaps the cluster box joins; this repeats until nothing joins. That fixpoint does not
+ * depend on scan order, so it matches the original rescan-the-list loop exactly, but each round only
+ * looks at the grid cells under the current box. Boxes are half-open [x1, x2) x [y1, y2).
+ */
+class BoxClusterer {
+
+    private final int[] px1, py1, px2, py2;
+    private final int[] gx1, gy1, gx2, gy2;
+    private final boolean[] taken;
+    private final int cellSize, maxProbeWidth, maxProbeHeight;
+    private final long[] cellKeys;
+    private final int[] cellStarts;
+    private final int[] cellMembers;
+    private int[] members = new int[16];
+
+    BoxClusterer(int[] px1, int[] py1, int[] px2, int[] py2,
+                 int[] gx1, int[] gy1, int[] gx2, int[] gy2) {
+        this.px1 = px1;
+        this.py1 = py1;
+        this.px2 = px2;
+        this.py2 = py2;
+        this.gx1 = gx1;
+        this.gy1 = gy1;
+        this.gx2 = gx2;
+        this.gy2 = gy2;
+        int n = px1.length;
+        taken = new boolean[n];
+
+        int maxW = 1, maxH = 1, maxSize = 1;
+        for (int i = 0; i < n; i++) {
+            maxW = Math.max(maxW, px2[i] - px1[i]);
+            maxH = Math.max(maxH, py2[i] - py1[i]);
+            maxSize = Math.max(maxSize, Math.max(gx2[i] - gx1[i], gy2[i] - gy1[i]));
+        }
+        maxProbeWidth = maxW;
+        maxProbeHeight = maxH;
+        cellSize = Math.max(maxSize, Math.max(maxW, maxH));
+
+        // records sorted by cell of their probe corner, with a start offset per distinct cell
+        long[] keyed = new long[n];
+        for (int i = 0; i < n; i++) {
+            keyed[i] = packCell(Math.floorDiv(px1[i], cellSize), Math.floorDiv(py1[i], cellSize));
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(keyed[a], keyed[b]));
+
+        cellMembers = new int[n];
+        long[] keys = new long[n];
+        int[] starts = new int[n + 1];
+        int numCells = 0;
+        for (int k = 0; k < n; k++) {
+            int i = order[k];
+            cellMembers[k] = i;
+            if (numCells == 0 || keys[numCells - 1] != keyed[i]) {
+                keys[numCells] = keyed[i];
+                starts[numCells] = k;
+                numCells++;
+            }
+        }
+        starts[numCells] = n;
+        cellKeys = Arrays.copyOf(keys, numCells);
+        cellStarts = Arrays.copyOf(starts, numCells + 1);
+    }
+
+    private static long packCell(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    boolean isTaken(int i) {
+        return taken[i];
+    }
+
+    /**
+     * @return the cluster grown from this seed (seed first), or null if the seed already belongs to one
+     */
+    int[] growFrom(int seed) {
+        if (taken[seed]) return null;
+        taken[seed] = true;
+        int numMembers = 0;
+        members[numMembers++] = seed;
+        int bx1 = gx1[seed], by1 = gy1[seed], bx2 = gx2[seed], by2 = gy2[seed];
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int cx0 = Math.floorDiv(bx1 - maxProbeWidth + 1, cellSize);
+            int cx1 = Math.floorDiv(bx2 - 1, cellSize);
+            int cy0 = Math.floorDiv(by1 - maxProbeHeight + 1, cellSize);
+            int cy1 = Math.floorDiv(by2 - 1, cellSize);
+            for (int cx = cx0; cx <= cx1; cx++) {
+                for (int cy = cy0; cy <= cy1; cy++) {
+                    int cell = Arrays.binarySearch(cellKeys, packCell(cx, cy));
+                    if (cell < 0) continue;
+                    for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+                        int i = cellMembers[k];
+                        if (!taken[i] && px1[i] < bx2 && px2[i] > bx1 && py1[i] < by2 && py2[i] > by1) {
+                            taken[i] = true;
+                            if (numMembers == members.length) {
+                                members = Arrays.copyOf(members, 2 * numMembers);
+                            }
+                            members[numMembers++] = i;
+                            bx1 = Math.min(bx1, gx1[i]);
+                            by1 = Math.min(by1, gy1[i]);
+                            bx2 = Math.max(bx2, gx2[i]);
+                            by2 = Math.max(by2, gy2[i]);
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(members, numMembers);
+    }
+
+    /**
+     * Indices ordered by value, largest first; ties keep their input order
+     */
+    static int[] orderByDescending(float[] values) {
+        long[] keys = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            int bits = Float.floatToIntBits(values[i]);
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            keys[i] = ((long) ~bits << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[values.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
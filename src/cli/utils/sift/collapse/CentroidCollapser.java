@@ -1,87 +1,123 @@
 package cli.utils.sift.collapse;
 
 import cli.clt.loops.Sift;
-import cli.utils.sift.NMSUtils;
+import cli.utils.sift.PixelBuffer;
 import cli.utils.sift.SimpleLocation;
-import javastraw.reader.block.ContactRecord;
+import javastraw.tools.ParallelizationTools;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CentroidCollapser {
 
-    public static Set<ContactRecord> coalesce(Set<ContactRecord> regions, int buffer, int minNeighbors) {
-        // HashSet intermediate for removing duplicates
-        // LinkedList used so that we can pop out highest obs values
-        Map<SimpleLocation, LinkedList<ContactRecord>> map = NMSUtils.groupNearbyRecords(regions, 250);
-        Set<ContactRecord> coalesced = new HashSet<>();
-
-        for (LinkedList<ContactRecord> records : map.values()) {
-            sortInPlace(records);
-
-            while (!records.isEmpty()) {
-                ContactRecord pixel = records.pollFirst();
-                if (pixel != null) {
-                    records.remove(pixel);
-
-                    int binX0 = pixel.getBinX() - buffer;
-                    int binY0 = pixel.getBinY() - buffer;
-                    int binX1 = pixel.getBinX() + buffer + 1;
-                    int binY1 = pixel.getBinY() + buffer + 1;
-
-                    int prevSize = 0;
-                    Set<ContactRecord> pixelList = new HashSet<>();
-                    pixelList.add(pixel);
+    public static PixelBuffer coalesce(PixelBuffer regions, int buffer, int minNeighbors) {
+        return coalesce(regions, buffer, minNeighbors, 1);
+    }
 
-                    while (prevSize != pixelList.size()) {
-                        prevSize = pixelList.size();
-                        for (ContactRecord px : records) {
-                            if (contains(px, binX0, binY0, binX1, binY1)) {
-                                pixelList.add(px);
-                                binX0 = Math.min(binX0, px.getBinX() - buffer);
-                                binY0 = Math.min(binY0, px.getBinY() - buffer);
-                                binX1 = Math.max(binX1, px.getBinX() + buffer + 1);
-                                binY1 = Math.max(binY1, px.getBinY() + buffer + 1);
-                            }
-                        }
-                        records.removeAll(pixelList);
-                    }
+    /**
+     * @param numThreads groups (250 bin buckets) are independent, so they can be collapsed in parallel
+     */
+    public static PixelBuffer coalesce(PixelBuffer regions, int buffer, int minNeighbors, int numThreads) {
+        int[][] groups = groupNearbyPixels(regions, 250);
+        PixelBuffer coalesced = new PixelBuffer(regions.getResolution(), 16);
 
-                    assessNeighbors(coalesced, pixel, pixelList, minNeighbors);
-                }
+        if (numThreads < 2 || groups.length < 2) {
+            for (int[] group : groups) {
+                coalesceGroup(regions, group, buffer, minNeighbors, coalesced);
             }
+        } else {
+            AtomicInteger index = new AtomicInteger(0);
+            ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+                PixelBuffer localCoalesced = new PixelBuffer(regions.getResolution(), 16);
+                int i = index.getAndIncrement();
+                while (i < groups.length) {
+                    coalesceGroup(regions, groups[i], buffer, minNeighbors, localCoalesced);
+                    i = index.getAndIncrement();
+                }
+                synchronized (coalesced) {
+                    coalesced.addAll(localCoalesced);
+                }
+            });
         }
         return coalesced;
     }
 
-    private static void sortInPlace(LinkedList<ContactRecord> records) {
-        records.sort((o1, o2) -> Float.compare(-o1.getCounts(), -o2.getCounts()));
-    }
+    /**
+     * Indices into the buffer, bucketed by (binX / scalar, binY / scalar)
+     */
+    private static int[][] groupNearbyPixels(PixelBuffer regions, int scalar) {
+        Map<SimpleLocation, Integer> bucketIds = new HashMap<>();
+        int[] bucketOf = new int[regions.size()];
+        int[] bucketSizes = new int[16];
+        for (int i = 0; i < regions.size(); i++) {
+            SimpleLocation bucket = new SimpleLocation(regions.getBinX(i) / scalar, regions.getBinY(i) / scalar);
+            Integer id = bucketIds.get(bucket);
+            if (id == null) {
+                id = bucketIds.size();
+                bucketIds.put(bucket, id);
+                if (id == bucketSizes.length) {
+                    bucketSizes = Arrays.copyOf(bucketSizes, 2 * id);
+                }
+            }
+            bucketOf[i] = id;
+            bucketSizes[id]++;
+        }
 
-    private static boolean contains(ContactRecord px, int binX0, int binY0, int binX1, int binY1) {
-        return binX0 <= px.getBinX() && binX1 > px.getBinX() && binY0 <= px.getBinY() && binY1 > px.getBinY();
+        int[][] groups = new int[bucketIds.size()][];
+        for (int g = 0; g < groups.length; g++) {
+            groups[g] = new int[bucketSizes[g]];
+            bucketSizes[g] = 0;
+        }
+        for (int i = 0; i < bucketOf.length; i++) {
+            int g = bucketOf[i];
+            groups[g][bucketSizes[g]++] = i;
+        }
+        return groups;
     }
 
-    private static void assessNeighbors(Set<ContactRecord> coalesced, ContactRecord pixel, Set<ContactRecord> pixelList, int minNeighbors) {
-        if (pixelList.size() > minNeighbors) {
-            if (pixelMoreEnrichedThanNeighbors(pixel, pixelList)) {
-                coalesced.add(pixel);
+    /**
+     * Strongest pixel first; each seed takes every remaining pixel inside its (growing) bounding box
+     */
+    private static void coalesceGroup(PixelBuffer regions, int[] group, int buffer, int minNeighbors,
+                                      PixelBuffer coalesced) {
+        int n = group.length;
+        int[] x1 = new int[n], y1 = new int[n], x2 = new int[n], y2 = new int[n];
+        int[] gx1 = new int[n], gy1 = new int[n], gx2 = new int[n], gy2 = new int[n];
+        float[] counts = new float[n];
+        for (int i = 0; i < n; i++) {
+            int x = regions.getBinX(group[i]);
+            int y = regions.getBinY(group[i]);
+            x1[i] = x;
+            y1[i] = y;
+            x2[i] = x + 1;
+            y2[i] = y + 1;
+            gx1[i] = x - buffer;
+            gy1[i] = y - buffer;
+            gx2[i] = x + buffer + 1;
+            gy2[i] = y + buffer + 1;
+            counts[i] = regions.getCounts(group[i]);
+        }
+
+        BoxClusterer clusterer = new BoxClusterer(x1, y1, x2, y2, gx1, gy1, gx2, gy2);
+        for (int seed : BoxClusterer.orderByDescending(counts)) {
+            int[] cluster = clusterer.growFrom(seed);
+            if (cluster != null && cluster.length > minNeighbors && pixelMoreEnrichedThanNeighbors(counts, cluster)) {
+                coalesced.add(x1[cluster[0]], y1[cluster[0]], counts[cluster[0]]);
             }
         }
     }
 
-    private static boolean pixelMoreEnrichedThanNeighbors(ContactRecord pixel, Set<ContactRecord> pixelList) {
-        float sumTotal = getTotalCountsSum(pixelList) - pixel.getCounts();
-        float average = sumTotal / (pixelList.size() - 1);
-        return pixel.getCounts() / average > Sift.ENRICHMENT_VS_NEIGHBORS;
+    private static boolean pixelMoreEnrichedThanNeighbors(float[] counts, int[] cluster) {
+        float pixel = counts[cluster[0]];
+        float sumTotal = getTotalCountsSum(counts, cluster) - pixel;
+        float average = sumTotal / (cluster.length - 1);
+        return pixel / average > Sift.ENRICHMENT_VS_NEIGHBORS;
     }
 
-    private static float getTotalCountsSum(Set<ContactRecord> records) {
+    private static float getTotalCountsSum(float[] counts, int[] cluster) {
         float total = 0;
-        for (ContactRecord record : records) {
-            total += record.getCounts();
+        for (int i : cluster) {
+            total += counts[i];
         }
         return total;
     }
@@ -4,63 +4,87 @@ import cli.clt.loops.Sift;
 import cli.utils.sift.ContactRecordBox;
 import cli.utils.sift.SimpleLocation;
 import javastraw.reader.block.ContactRecord;
+import javastraw.tools.ParallelizationTools;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MultiResCentroidCollapser {
 
     public static Set<ContactRecordBox> coalesce(Set<ContactRecordBox> regions, int minResolutions) {
+        return coalesce(regions, minResolutions, 1);
+    }
+
+    /**
+     * @param numThreads groups (5Mb buckets) are independent, so they can be collapsed in parallel
+     */
+    public static Set<ContactRecordBox> coalesce(Set<ContactRecordBox> regions, int minResolutions,
+                                                 int numThreads) {
         // HashSet intermediate for removing duplicates
-        // LinkedList used so that we can pop out highest obs values
         Map<SimpleLocation, LinkedList<ContactRecordBox>> map = groupNearbyRecords(regions, 5000000);
+        List<LinkedList<ContactRecordBox>> groups = new ArrayList<>(map.values());
         Set<ContactRecordBox> coalesced = new HashSet<>();
 
-        for (LinkedList<ContactRecordBox> records : map.values()) {
-            sortInPlace(records);
-
-            while (!records.isEmpty()) {
-                ContactRecordBox pixel = records.pollFirst();
-                if (pixel != null) {
-                    records.remove(pixel);
-
-                    int gX1 = pixel.getGenomeX1();
-                    int gY1 = pixel.getGenomeY1();
-                    int gX2 = pixel.getGenomeX2();
-                    int gY2 = pixel.getGenomeY2();
-
-                    int prevSize = 0;
-                    Set<ContactRecordBox> pixelList = new HashSet<>();
-                    pixelList.add(pixel);
+        if (numThreads < 2 || groups.size() < 2) {
+            for (LinkedList<ContactRecordBox> records : groups) {
+                coalesceGroup(records, minResolutions, coalesced);
+            }
+        } else {
+            AtomicInteger index = new AtomicInteger(0);
+            ParallelizationTools.launchParallelizedCode(numThreads, () -> {
+                Set<ContactRecordBox> localCoalesced = new HashSet<>();
+                int i = index.getAndIncrement();
+                while (i < groups.size()) {
+                    coalesceGroup(groups.get(i), minResolutions, localCoalesced);
+                    i = index.getAndIncrement();
+                }
+                synchronized (coalesced) {
+                    coalesced.addAll(localCoalesced);
+                }
+            });
+        }
+        return coalesced;
+    }
 
-                    while (prevSize != pixelList.size()) {
-                        prevSize = pixelList.size();
-                        for (ContactRecordBox px : records) {
-                            if (hasOverlapWith(px, gX1, gY1, gX2, gY2)) {
-                                pixelList.add(px);
-                                gX1 = Math.min(gX1, px.getGenomeX1());
-                                gY1 = Math.min(gY1, px.getGenomeY1());
-                                gX2 = Math.max(gX2, px.getGenomeX2());
-                                gY2 = Math.max(gY2, px.getGenomeY2());
-                            }
-                        }
-                        records.removeAll(pixelList);
-                    }
+    /**
+     * Coarsest resolution first, then strongest; each seed takes every remaining box overlapping its
+     * (growing) bounding box
+     */
+    private static void coalesceGroup(List<ContactRecordBox> records, int minResolutions,
+                                      Set<ContactRecordBox> coalesced) {
+        int n = records.size();
+        ContactRecordBox[] boxes = records.toArray(new ContactRecordBox[0]);
+        int[] x1 = new int[n], y1 = new int[n], x2 = new int[n], y2 = new int[n];
+        for (int i = 0; i < n; i++) {
+            x1[i] = boxes[i].getGenomeX1();
+            y1[i] = boxes[i].getGenomeY1();
+            x2[i] = boxes[i].getGenomeX2();
+            y2[i] = boxes[i].getGenomeY2();
+        }
 
-                    assessNeighbors(coalesced, pixel, pixelList, minResolutions);
-                }
+        BoxClusterer clusterer = new BoxClusterer(x1, y1, x2, y2, x1, y1, x2, y2);
+        for (int seed : getOrder(boxes)) {
+            int[] cluster = clusterer.growFrom(seed);
+            if (cluster != null) {
+                assessNeighbors(coalesced, boxes, cluster, minResolutions);
             }
         }
-        return coalesced;
     }
 
-    private static void sortInPlace(LinkedList<ContactRecordBox> records) {
-        records.sort((o1, o2) -> {
+    private static int[] getOrder(ContactRecordBox[] boxes) {
+        Integer[] order = new Integer[boxes.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (i1, i2) -> {
+            ContactRecordBox o1 = boxes[i1], o2 = boxes[i2];
             if (o1.getResolution() == o2.getResolution()) {
                 return -Float.compare(o1.getCounts(), o2.getCounts());
             } else {
                 return Integer.compare(o1.getResolution(), o2.getResolution());
             }
         });
+        int[] result = new int[order.length];
+        for (int i = 0; i < result.length; i++) result[i] = order[i];
+        return result;
     }
 
     private static Map<SimpleLocation, LinkedList<ContactRecordBox>> groupNearbyRecords(Set<ContactRecordBox> initialPoints, int scalar) {
@@ -78,24 +102,14 @@ public class MultiResCentroidCollapser {
         return locationMap;
     }
 
-    private static boolean hasOverlapWith(ContactRecordBox px, int gX1, int gY1, int gX2, int gY2) {
-        return getWidth(px.getGenomeX1(), px.getGenomeX2(), gX1, gX2) *
-                getWidth(px.getGenomeY1(), px.getGenomeY2(), gY1, gY2) > 0;
-    }
-
-    private static int getWidth(int boxG1, int boxG2, int g1, int g2) {
-        int start = Math.max(boxG1, g1);
-        int end = Math.min(boxG2, g2);
-        return Math.max(0, end - start);
-    }
-
-    private static void assessNeighbors(Set<ContactRecordBox> coalesced, ContactRecordBox pixel, Set<ContactRecordBox> pixelList, int minResolutions) {
+    private static void assessNeighbors(Set<ContactRecordBox> coalesced, ContactRecordBox[] boxes, int[] cluster,
+                                        int minResolutions) {
         Set<Integer> resolutions = new HashSet<>();
-        for (ContactRecordBox box : pixelList) {
-            resolutions.add(box.getResolution());
+        for (int i : cluster) {
+            resolutions.add(boxes[i].getResolution());
         }
         if (resolutions.size() >= minResolutions) {
-            coalesced.add(pixel);
+            coalesced.add(boxes[cluster[0]]);
         }
     }
 